@@ -2,8 +2,10 @@ package com.keycloak.userservice;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
+@EnableScheduling
 public class UserAuthServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(UserAuthServiceApplication.class, args);
@@ -0,0 +1,205 @@
+package com.keycloak.userservice.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Локальный (in-process) уровень перед кэшем в Redis. Горячие ключи читаются из памяти пода,
+ * при изменении записи на любом поде ключ удаляется на всех подах через RTopic.
+ * Сообщение содержит идентификатор пода-отправителя: собственное сообщение, вернувшееся через RTopic,
+ * пропускается, иначе оно удалило бы значение, уже записанное после изменения.
+ * Срок жизни локальной записи ограничивает устаревание, если сообщение об инвалидации потерялось
+ * (например, при переподключении к Redis).
+ *
+ * @param <T> тип значения; значения должны быть неизменяемыми (protobuf-сообщения)
+ */
+public class NearCache<T> implements MeterBinder {
+
+    private static final String TOPIC_PREFIX = "near-cache:";
+    private static final char SOURCE_SEPARATOR = '|';
+    private static final int GENERATION_STRIPES = 4096;
+
+    private final String name;
+    private final Cache<String, T> local;
+    private final RTopic invalidationTopic;
+    private final String sourceId = UUID.randomUUID().toString();
+    private final LongAdder invalidations = new LongAdder();
+    // Поколение ключа растет при его инвалидации: значение, прочитанное из Redis до инвалидации,
+    // не должно попасть в локальный кэш после нее. Поколения хранятся по полосам хэша ключа, чтобы
+    // память не росла с числом ключей; инвалидация задерживает заполнение только ключей своей полосы
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    // Ключи, инвалидированные в пределах changeWindow: реплика Redis может еще отдавать прежнее значение
+    private final Cache<String, Boolean> recentChanges;
+
+    public NearCache(String name, RedissonClient redissonClient, long maxSize, Duration localTtl) {
+        this(name, redissonClient, maxSize, localTtl, Duration.ZERO);
+    }
+
+    /**
+     * @param changeWindow сколько после инвалидации ключ считается недавно измененным,
+     *                     см. {@link #recentlyChanged(String)}; 0 — не отслеживать
+     */
+    public NearCache(String name, RedissonClient redissonClient, long maxSize, Duration localTtl, Duration changeWindow) {
+        this.name = name;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(localTtl)
+                .recordStats()
+                .build();
+        this.recentChanges = changeWindow.isZero() ? null : Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(changeWindow)
+                .build();
+        this.invalidationTopic = redissonClient.getTopic(TOPIC_PREFIX + name, StringCodec.INSTANCE);
+        this.invalidationTopic.addListenerAsync(String.class, (channel, message) -> onInvalidation(message));
+    }
+
+    /**
+     * Возвращает значение из локального кэша, при промахе - из Redis
+     *
+     * @param key ключ
+     * @param remoteLoader чтение из Redis; null означает отсутствие записи
+     * @return значение или null
+     */
+    public T get(String key, Function<String, T> remoteLoader) {
+        T value = local.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        long loadGeneration = generation(key);
+        value = remoteLoader.apply(key);
+        putLocal(key, value, loadGeneration);
+        return value;
+    }
+
+    /**
+     * Пакетный вариант {@link #get(String, Function)}: промахи читаются из Redis одним запросом
+     *
+     * @param keys ключи
+     * @param remoteLoader чтение отсутствующих ключей из Redis; в результате только найденные ключи
+     * @return найденные значения
+     */
+    public Map<String, T> getAll(Collection<String> keys, Function<Collection<String>, Map<String, T>> remoteLoader) {
+        Map<String, T> result = new HashMap<>(local.getAllPresent(keys));
+        if (result.size() == keys.size()) {
+            return result;
+        }
+        List<String> missing = keys.stream()
+                .filter(key -> !result.containsKey(key))
+                .toList();
+        Map<String, Long> loadGenerations = new HashMap<>();
+        missing.forEach(key -> loadGenerations.put(key, generation(key)));
+        remoteLoader.apply(missing).forEach((key, value) -> {
+            Long loadGeneration = loadGenerations.get(key);
+            if (loadGeneration != null) {
+                putLocal(key, value, loadGeneration);
+            }
+            result.put(key, value);
+        });
+        return result;
+    }
+
+    /**
+     * Асинхронный вариант {@link #get(String, Function)}: попадание в локальный кэш не обращается к Redis
+     */
+    public CompletableFuture<T> getAsync(String key, Function<String, CompletableFuture<T>> remoteLoader) {
+        T value = local.getIfPresent(key);
+        if (value != null) {
+            return CompletableFuture.completedFuture(value);
+        }
+        long loadGeneration = generation(key);
+        return remoteLoader.apply(key).thenApply(loaded -> {
+            putLocal(key, loaded, loadGeneration);
+            return loaded;
+        });
+    }
+
+    /**
+     * Сохраняет значение, только что записанное в Redis, в локальный кэш этого пода
+     */
+    public void put(String key, T value) {
+        putLocal(key, value, generation(key));
+    }
+
+    /**
+     * Удаляет ключ из локального кэша на всех подах. Вызывается после изменения записи в Redis.
+     */
+    public void invalidate(String key) {
+        invalidateLocal(key);
+        invalidationTopic.publishAsync(sourceId + SOURCE_SEPARATOR + key);
+    }
+
+    /**
+     * Сообщение без идентификатора отправителя пришло от пода предыдущей версии
+     */
+    void onInvalidation(String message) {
+        int separator = message.indexOf(SOURCE_SEPARATOR);
+        if (separator < 0) {
+            invalidateLocal(message);
+            return;
+        }
+        boolean ownMessage = separator == sourceId.length() && message.startsWith(sourceId);
+        if (!ownMessage) {
+            invalidateLocal(message.substring(separator + 1));
+        }
+    }
+
+    /**
+     * @return true, если ключ недавно изменен на любом поде; такой ключ следует читать с мастера,
+     * иначе значение с отстающей реплики попадет в локальный кэш на весь его срок
+     */
+    public boolean recentlyChanged(String key) {
+        return recentChanges != null && recentChanges.getIfPresent(key) != null;
+    }
+
+    private void putLocal(String key, T value, long loadGeneration) {
+        if (value != null && generation(key) == loadGeneration) {
+            local.put(key, value);
+        }
+    }
+
+    private void invalidateLocal(String key) {
+        generations.incrementAndGet(stripe(key));
+        if (recentChanges != null) {
+            recentChanges.put(key, Boolean.TRUE);
+        }
+        local.invalidate(key);
+        invalidations.increment();
+    }
+
+    private long generation(String key) {
+        return generations.get(stripe(key));
+    }
+
+    private static int stripe(String key) {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, local, name);
+        FunctionCounter.builder("cache.near.invalidations", invalidations, LongAdder::sum)
+                .tag("cache", name)
+                .description("Ключи, удаленные из локального кэша после изменения на любом поде")
+                .register(registry);
+    }
+}
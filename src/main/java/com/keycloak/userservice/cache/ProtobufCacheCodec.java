@@ -0,0 +1,154 @@
+package com.keycloak.userservice.cache;
+
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import io.netty.buffer.Unpooled;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import org.redisson.client.codec.BaseCodec;
+import org.redisson.client.codec.Codec;
+import org.redisson.client.protocol.Decoder;
+import org.redisson.client.protocol.Encoder;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.util.Arrays;
+
+/**
+ * Бинарный кодек записей кэша на основе protobuf.
+ * Формат: байт-признак (0 - без сжатия, 1 - LZ4), для LZ4 далее длина исходных данных (4 байта),
+ * затем сообщение. Сжимаются только сообщения не меньше порога, например профили с большим
+ * набором атрибутов.
+ *
+ * @param <T> тип protobuf-сообщения
+ */
+public final class ProtobufCacheCodec<T extends MessageLite> {
+
+    private static final byte RAW = 0;
+    private static final byte LZ4 = 1;
+    private static final int LZ4_HEADER_SIZE = 5;
+    private static final int MAX_LZ4_RATIO = 255;
+
+    private static final LZ4Factory LZ4_FACTORY = LZ4Factory.fastestInstance();
+
+    private final Parser<T> parser;
+    private final int lz4Threshold;
+
+    /**
+     * @param parser парсер сообщения, например {@code UserProfile.parser()}
+     * @param lz4Threshold размер сообщения в байтах, начиная с которого применяется LZ4
+     */
+    public ProtobufCacheCodec(Parser<T> parser, int lz4Threshold) {
+        this.parser = parser;
+        this.lz4Threshold = lz4Threshold;
+    }
+
+    public byte[] encode(T value) {
+        byte[] raw = value.toByteArray();
+        if (raw.length >= lz4Threshold) {
+            LZ4Compressor compressor = LZ4_FACTORY.fastCompressor();
+            int maxLength = compressor.maxCompressedLength(raw.length);
+            byte[] out = new byte[LZ4_HEADER_SIZE + maxLength];
+            out[0] = LZ4;
+            out[1] = (byte) (raw.length >>> 24);
+            out[2] = (byte) (raw.length >>> 16);
+            out[3] = (byte) (raw.length >>> 8);
+            out[4] = (byte) raw.length;
+            int compressedLength = compressor.compress(raw, 0, raw.length, out, LZ4_HEADER_SIZE, maxLength);
+            // Несжимаемые данные хранятся как есть
+            if (LZ4_HEADER_SIZE + compressedLength < raw.length + 1) {
+                return Arrays.copyOf(out, LZ4_HEADER_SIZE + compressedLength);
+            }
+        }
+
+        byte[] out = new byte[raw.length + 1];
+        out[0] = RAW;
+        System.arraycopy(raw, 0, out, 1, raw.length);
+        return out;
+    }
+
+    /**
+     * @throws IllegalArgumentException если запись повреждена или записана в другом формате
+     */
+    public T decode(byte[] bytes) {
+        if (bytes.length == 0) {
+            throw new IllegalArgumentException("Пустая запись кэша");
+        }
+        try {
+            return switch (bytes[0]) {
+                case RAW -> parser.parseFrom(bytes, 1, bytes.length - 1);
+                case LZ4 -> {
+                    if (bytes.length < LZ4_HEADER_SIZE) {
+                        throw new IllegalArgumentException("Повреждена запись кэша: неполный заголовок LZ4");
+                    }
+                    int rawLength = ((bytes[1] & 0xFF) << 24) | ((bytes[2] & 0xFF) << 16)
+                            | ((bytes[3] & 0xFF) << 8) | (bytes[4] & 0xFF);
+                    // Длина из заголовка не доверяется: LZ4 сжимает не более чем в 255 раз
+                    if (rawLength < 0 || rawLength > (long) (bytes.length - LZ4_HEADER_SIZE) * MAX_LZ4_RATIO) {
+                        throw new IllegalArgumentException("Повреждена запись кэша: неверная длина LZ4 " + rawLength);
+                    }
+                    byte[] raw = new byte[rawLength];
+                    LZ4_FACTORY.fastDecompressor().decompress(bytes, LZ4_HEADER_SIZE, raw, 0, rawLength);
+                    yield parser.parseFrom(raw);
+                }
+                default -> throw new IllegalArgumentException("Неизвестный формат записи кэша: " + bytes[0]);
+            };
+        } catch (InvalidProtocolBufferException | LZ4Exception e) {
+            throw new IllegalArgumentException("Повреждена запись кэша", e);
+        }
+    }
+
+    /**
+     * Сериализатор значений для {@link org.springframework.data.redis.core.RedisTemplate}
+     */
+    public RedisSerializer<T> asRedisSerializer() {
+        return new RedisSerializer<>() {
+            @Override
+            public byte[] serialize(T value) {
+                return value == null ? null : encode(value);
+            }
+
+            @Override
+            public T deserialize(byte[] bytes) {
+                if (bytes == null || bytes.length == 0) {
+                    return null;
+                }
+                try {
+                    return decode(bytes);
+                } catch (RuntimeException e) {
+                    throw new SerializationException("Не удалось прочитать запись кэша", e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Кодек значений для объектов Redisson, например {@code redissonClient.getBucket(name, codec)}
+     */
+    public Codec asRedissonCodec() {
+        Encoder encoder = in -> {
+            @SuppressWarnings("unchecked")
+            T value = (T) in;
+            return Unpooled.wrappedBuffer(encode(value));
+        };
+        Decoder<Object> decoder = (buf, state) -> {
+            byte[] bytes = new byte[buf.readableBytes()];
+            buf.readBytes(bytes);
+            return decode(bytes);
+        };
+
+        return new BaseCodec() {
+            @Override
+            public Decoder<Object> getValueDecoder() {
+                return decoder;
+            }
+
+            @Override
+            public Encoder getValueEncoder() {
+                return encoder;
+            }
+        };
+    }
+}
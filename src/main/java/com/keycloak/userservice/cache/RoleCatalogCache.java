@@ -0,0 +1,188 @@
+package com.keycloak.userservice.cache;
+
+import com.keycloak.userservice.cache.proto.CachedRole;
+import com.keycloak.userservice.util.OutboundMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.ws.rs.NotFoundException;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.redisson.api.RBucket;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Кэш справочника ролей realm. Роли меняются редко и запрашиваются при каждом создании
+ * пользователя, регистрации и изменении ролей, поэтому хранятся в Redis и в локальном {@link NearCache}.
+ * Сервис роли не изменяет, устаревание ограничено сроком жизни записи. Роль, удаленная и созданная
+ * заново в Keycloak, получает новый id, и назначение закэшированной роли завершается 404: тогда запись
+ * удаляется из кэша (см. {@link #withRealmRoles}).
+ */
+@Component
+public class RoleCatalogCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(RoleCatalogCache.class);
+
+    private static final String KEY_PREFIX = "role-catalog:";
+
+    private final Keycloak keycloak;
+    private final String realm;
+    private final RedissonClient cacheRedissonClient;
+    private final Codec roleCodec;
+    private final boolean enabled;
+    private final Duration ttl;
+    private final NearCache<CachedRole> nearRoles;
+    private final OutboundMetrics outboundMetrics;
+
+    @Autowired
+    public RoleCatalogCache(
+            Keycloak keycloak,
+            @Value("${keycloak.realm}") String realm,
+            RedissonClient redissonClient,
+            @Qualifier("cacheRedissonClient") RedissonClient cacheRedissonClient,
+            ProtobufCacheCodec<CachedRole> cachedRoleCodec,
+            @Value("${cache.role-catalog.enabled:true}") boolean enabled,
+            @Value("${cache.role-catalog.ttl:600}") long ttlSeconds,
+            @Value("${cache.near.ttl:30}") long nearTtlSeconds,
+            OutboundMetrics outboundMetrics) {
+        this.keycloak = keycloak;
+        this.realm = realm;
+        this.cacheRedissonClient = cacheRedissonClient;
+        this.roleCodec = cachedRoleCodec.asRedissonCodec();
+        this.enabled = enabled;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.nearRoles = new NearCache<>("role-catalog", redissonClient, 1000, Duration.ofSeconds(nearTtlSeconds));
+        this.outboundMetrics = outboundMetrics;
+    }
+
+    /**
+     * Возвращает роль realm по имени, при промахе запрашивает ее в Keycloak
+     *
+     * @param roleName имя роли
+     * @return представление роли для назначения пользователю
+     */
+    public RoleRepresentation getRealmRole(String roleName) {
+        if (!enabled) {
+            return loadRole(roleName);
+        }
+
+        CachedRole cached = null;
+        try {
+            cached = nearRoles.get(roleName, name -> roleBucket(name).get());
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать роль {} из кэша: {}", roleName, e.getMessage());
+        }
+        if (cached != null) {
+            return fromProto(cached);
+        }
+
+        RoleRepresentation role = loadRole(roleName);
+        try {
+            CachedRole toCache = toProto(role);
+            roleBucket(roleName).set(toCache, ttl);
+            nearRoles.put(roleName, toCache);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось сохранить роль {} в кэш: {}", roleName, e.getMessage());
+        }
+        return role;
+    }
+
+    /**
+     * Выполняет действие с ролями realm из кэша. Если Keycloak ответил 404, закэшированные роли
+     * могли устареть: они удаляются из кэша, и действие повторяется один раз с ролями из Keycloak.
+     *
+     * @param roleNames имена ролей
+     * @param action действие, например назначение ролей пользователю
+     */
+    public void withRealmRoles(Collection<String> roleNames, Consumer<List<RoleRepresentation>> action) {
+        try {
+            action.accept(roleNames.stream().map(this::getRealmRole).toList());
+        } catch (NotFoundException e) {
+            if (!enabled) {
+                throw e;
+            }
+            log.info("Keycloak returned 404 for cached realm roles {}, reloading", roleNames);
+            roleNames.forEach(this::invalidate);
+            action.accept(roleNames.stream().map(this::getRealmRole).toList());
+        }
+    }
+
+    /**
+     * Удаляет роль из Redis и из локальных кэшей всех подов
+     */
+    public void invalidate(String roleName) {
+        try {
+            roleBucket(roleName).delete();
+        } catch (RuntimeException e) {
+            log.warn("Не удалось удалить роль {} из кэша: {}", roleName, e.getMessage());
+        }
+        nearRoles.invalidate(roleName);
+    }
+
+    private RoleRepresentation loadRole(String roleName) {
+        try {
+            return outboundMetrics.record(OutboundMetrics.KEYCLOAK, "roles.get",
+                    () -> keycloak.realm(realm).roles().get(roleName).toRepresentation());
+        } catch (NotFoundException e) {
+            // Роль удалена: запись могла остаться в кэше других подов
+            if (enabled) {
+                invalidate(roleName);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        nearRoles.bindTo(registry);
+    }
+
+    private RBucket<CachedRole> roleBucket(String roleName) {
+        return cacheRedissonClient.getBucket(KEY_PREFIX + roleName, roleCodec);
+    }
+
+    private static CachedRole toProto(RoleRepresentation role) {
+        CachedRole.Builder builder = CachedRole.newBuilder();
+        if (role.getId() != null) {
+            builder.setId(role.getId());
+        }
+        if (role.getName() != null) {
+            builder.setName(role.getName());
+        }
+        if (role.getDescription() != null) {
+            builder.setDescription(role.getDescription());
+        }
+        builder.setComposite(role.isComposite());
+        if (role.getClientRole() != null) {
+            builder.setClientRole(role.getClientRole());
+        }
+        if (role.getContainerId() != null) {
+            builder.setContainerId(role.getContainerId());
+        }
+        return builder.build();
+    }
+
+    private static RoleRepresentation fromProto(CachedRole cached) {
+        RoleRepresentation role = new RoleRepresentation();
+        role.setId(cached.getId());
+        role.setName(cached.getName());
+        if (!cached.getDescription().isEmpty()) {
+            role.setDescription(cached.getDescription());
+        }
+        role.setComposite(cached.getComposite());
+        role.setClientRole(cached.getClientRole());
+        role.setContainerId(cached.getContainerId());
+        return role;
+    }
+}
@@ -0,0 +1,110 @@
+package com.keycloak.userservice.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Фильтр Блума из двух поколений для записей с ограниченным сроком жизни.
+ * Новые ключи попадают в текущее поколение; при {@link #rotate(Iterable)} предыдущее поколение
+ * отбрасывается, текущее становится предыдущим, а новое заполняется живыми ключами из источника.
+ * Истекшие записи выходят из фильтра без остановки проверок: пока строится новое поколение,
+ * ответы дают два существующих. Ложноотрицательных ответов нет, ложноположительные
+ * проверяются по источнику данных.
+ */
+public class RotatingBloomFilter {
+
+    private final int bitCount;
+    private final int hashCount;
+    private volatile AtomicLongArray current;
+    private volatile AtomicLongArray previous;
+
+    /**
+     * @param expectedInsertions ожидаемое число ключей за период
+     * @param falsePositiveRate допустимая доля ложноположительных ответов на одно поколение
+     */
+    public RotatingBloomFilter(int expectedInsertions, double falsePositiveRate) {
+        long bits = (long) Math.ceil(-expectedInsertions * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.max(64, Math.min(bits, Integer.MAX_VALUE - 63));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedInsertions * Math.log(2)));
+        this.current = newBits();
+        this.previous = newBits();
+    }
+
+    public void put(String key) {
+        put(current, key);
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    /**
+     * Отбрасывает предыдущее поколение и начинает новое с уже известными живыми ключами.
+     * Ключи, добавленные через {@link #put(String)} во время построения, остаются в предыдущем поколении.
+     *
+     * @param liveKeys ключи, срок жизни которых еще не истек
+     */
+    public synchronized void rotate(Iterable<String> liveKeys) {
+        AtomicLongArray next = newBits();
+        liveKeys.forEach(key -> put(next, key));
+        previous = current;
+        current = next;
+    }
+
+    private void put(AtomicLongArray bits, String key) {
+        long hash = hash(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            setBit(bits, bit);
+        }
+    }
+
+    private boolean contains(AtomicLongArray bits, long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = ((h1 + i * h2) & Integer.MAX_VALUE) % bitCount;
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private AtomicLongArray newBits() {
+        return new AtomicLongArray((bitCount + 63) >>> 6);
+    }
+
+    private static void setBit(AtomicLongArray bits, int bit) {
+        int index = bit >>> 6;
+        long mask = 1L << bit;
+        long word;
+        do {
+            word = bits.get(index);
+            if ((word & mask) != 0) {
+                return;
+            }
+        } while (!bits.compareAndSet(index, word, word | mask));
+    }
+
+    /**
+     * 64-битный FNV-1a с финальным перемешиванием SplitMix64: младшая и старшая половины
+     * используются как два независимых хэша (double hashing)
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 30;
+        hash *= 0xbf58476d1ce4e5b9L;
+        hash ^= hash >>> 27;
+        hash *= 0x94d049bb133111ebL;
+        hash ^= hash >>> 31;
+        return hash;
+    }
+}
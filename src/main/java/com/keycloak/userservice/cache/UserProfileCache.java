@@ -0,0 +1,327 @@
+package com.keycloak.userservice.cache;
+
+import com.keycloak.userservice.cache.proto.CachedRoles;
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.grpc.UserProfile;
+import com.keycloak.userservice.grpc.UserProfileMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RBucket;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.ByteArrayCodec;
+import org.redisson.client.codec.Codec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Кэш профилей и ролей пользователей в Redis в бинарном формате {@link ProtobufCacheCodec}.
+ * Профили читаются через Redisson (в том числе асинхронно), роли - через RedisTemplate.
+ * Перед Redis стоит локальный {@link NearCache}, поэтому повторные чтения горячих профилей
+ * не выходят в сеть. Ошибки Redis не прерывают запрос: чтение считается промахом, запись пропускается.
+ * Для каждого пользователя в Redis хранится версия профиля: она увеличивается при каждом изменении
+ * и сохраняется вместе с профилем в кэше. Профиль записывается в кэш атомарно, только если версия
+ * не изменилась с начала загрузки, а условные запросы используют кэш, только если версия
+ * сохраненного профиля совпадает с текущей. Версия живет дольше профиля и продлевается при каждой
+ * записи; ключи профиля и версии в одном слоте кластера (hash tag).
+ * Чтения кэша могут идти на реплики, но в течение cache.master-read-after-change после изменения
+ * пользователя - только с мастера, чтобы отстающая реплика не вернула удаленный профиль в локальный кэш.
+ */
+@Component
+public class UserProfileCache implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(UserProfileCache.class);
+
+    // v2: enabled и email_verified хранятся с признаком наличия, записи старого формата не читаются
+    private static final String PROFILE_PREFIX = "user-profile:v2:";
+    private static final String ROLES_PREFIX = "user-roles:";
+    private static final String VERSION_PREFIX = "user-version:";
+
+    // KEYS: версия, профиль; ARGV: ожидаемая версия, профиль, срок профиля и версии в миллисекундах
+    private static final String PUT_IF_VERSION_SCRIPT =
+            "local current = redis.call('get', KEYS[1]) or '0'; "
+                    + "if current ~= ARGV[1] then return 0; end; "
+                    + "redis.call('set', KEYS[2], ARGV[2], 'PX', ARGV[3]); "
+                    + "if current ~= '0' then redis.call('pexpire', KEYS[1], ARGV[4]); end; "
+                    + "return 1;";
+
+    private final RedissonClient redissonClient;
+    // Чтения профилей могут идти на реплики; версии всегда читаются с мастера
+    private final RedissonClient cacheRedissonClient;
+    private final Codec profileCodec;
+    private final RedisTemplate<String, CachedRoles> rolesTemplate;
+    private final RedisTemplate<String, CachedRoles> cacheRolesTemplate;
+    private final boolean enabled;
+    private final Duration ttl;
+    // Версия переживает любой сохраненный с ней профиль
+    private final Duration versionTtl;
+    private final NearCache<UserProfile> nearProfiles;
+    private final NearCache<CachedRoles> nearRoles;
+
+    @Autowired
+    public UserProfileCache(
+            RedissonClient redissonClient,
+            @Qualifier("cacheRedissonClient") RedissonClient cacheRedissonClient,
+            ProtobufCacheCodec<UserProfile> userProfileCodec,
+            @Qualifier("userRolesRedisTemplate") RedisTemplate<String, CachedRoles> rolesTemplate,
+            @Qualifier("cacheUserRolesRedisTemplate") RedisTemplate<String, CachedRoles> cacheRolesTemplate,
+            @Value("${cache.profile.enabled:true}") boolean enabled,
+            @Value("${cache.profile.ttl:300}") long ttlSeconds,
+            @Value("${cache.near.max-size:10000}") long nearMaxSize,
+            @Value("${cache.near.ttl:30}") long nearTtlSeconds,
+            @Value("${cache.master-read-after-change:5}") long masterReadAfterChangeSeconds) {
+        this.redissonClient = redissonClient;
+        this.cacheRedissonClient = cacheRedissonClient;
+        this.profileCodec = userProfileCodec.asRedissonCodec();
+        this.rolesTemplate = rolesTemplate;
+        this.cacheRolesTemplate = cacheRolesTemplate;
+        this.enabled = enabled;
+        this.ttl = Duration.ofSeconds(ttlSeconds);
+        this.versionTtl = ttl.multipliedBy(2);
+        Duration masterReadAfterChange = Duration.ofSeconds(masterReadAfterChangeSeconds);
+        this.nearProfiles = new NearCache<>("user-profiles", redissonClient, nearMaxSize,
+                Duration.ofSeconds(nearTtlSeconds), masterReadAfterChange);
+        this.nearRoles = new NearCache<>("user-roles", redissonClient, nearMaxSize,
+                Duration.ofSeconds(nearTtlSeconds), masterReadAfterChange);
+    }
+
+    /**
+     * @return профиль из кэша или null при промахе
+     */
+    public KeycloakUserDTO getProfile(String userId) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            UserProfile profile = nearProfiles.get(userId, id -> profileBucket(id).get());
+            return profile != null ? UserProfileMapper.fromProto(profile) : null;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать профиль {} из кэша: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Асинхронный вариант {@link #getProfile(String)}, не занимает поток на время обращения к Redis
+     */
+    public CompletableFuture<KeycloakUserDTO> getProfileAsync(String userId) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return nearProfiles.getAsync(userId, id -> profileBucket(id).getAsync().toCompletableFuture())
+                .thenApply(profile -> profile != null ? UserProfileMapper.fromProto(profile) : null)
+                .exceptionally(e -> {
+                    log.warn("Не удалось прочитать профиль {} из кэша: {}", userId, e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Профиль из кэша для проверки If-None-Match: только если его версия совпадает с текущей
+     * версией в Redis, иначе промах
+     */
+    public CompletableFuture<KeycloakUserDTO> getCurrentProfileAsync(String userId) {
+        return getProfileAsync(userId).thenCompose(cached -> {
+            if (cached == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return getVersionAsync(userId)
+                    .thenApply(version -> version != null && version.equals(cached.getVersion()) ? cached : null);
+        });
+    }
+
+    /**
+     * Пакетное чтение профилей: локальный кэш, затем один запрос к Redis для остальных
+     *
+     * @return найденные профили по идентификатору пользователя
+     */
+    public Map<String, KeycloakUserDTO> getProfiles(Collection<String> userIds) {
+        if (!enabled || userIds.isEmpty()) {
+            return Map.of();
+        }
+        try {
+            Map<String, UserProfile> profiles = nearProfiles.getAll(userIds, this::loadProfiles);
+            Map<String, KeycloakUserDTO> result = new HashMap<>();
+            profiles.forEach((userId, profile) -> result.put(userId, UserProfileMapper.fromProto(profile)));
+            return result;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать профили из кэша: {}", e.getMessage());
+            return Map.of();
+        }
+    }
+
+    /**
+     * Сохраняет профиль, если его версия не изменилась с начала загрузки: иначе профиль мог быть
+     * прочитан из Keycloak до изменения и будет загружен заново при следующем запросе.
+     * Сравнение и запись выполняются одним скриптом, поэтому параллельный evict не пропустит
+     * в кэш прежний профиль. Профиль без версии (Redis был недоступен) не кэшируется.
+     */
+    public void putProfile(KeycloakUserDTO user) {
+        if (!enabled || user.getId() == null || user.getVersion() == null) {
+            return;
+        }
+        try {
+            UserProfile profile = UserProfileMapper.toProto(user);
+            Boolean stored = redissonClient.getScript(ByteArrayCodec.INSTANCE).eval(versionKey(user.getId()),
+                    RScript.Mode.READ_WRITE, PUT_IF_VERSION_SCRIPT, RScript.ReturnType.BOOLEAN,
+                    List.of(versionKey(user.getId()), profileKey(user.getId())),
+                    ascii(user.getVersion()), encode(profile), ascii(ttl.toMillis()), ascii(versionTtl.toMillis()));
+            if (!stored) {
+                log.debug("Профиль {} изменился во время загрузки, не кэшируется", user.getId());
+                return;
+            }
+            nearProfiles.put(user.getId(), profile);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Не удалось сохранить профиль {} в кэш: {}", user.getId(), e.getMessage());
+        }
+    }
+
+    /**
+     * Версия профиля не зависит от cache.profile.enabled: по ней проверяется If-None-Match
+     *
+     * @return текущая версия профиля (0, если профиль не менялся) или null, если Redis недоступен
+     */
+    public Long getVersion(String userId) {
+        try {
+            return versionOf(userId).get();
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать версию профиля {}: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Асинхронный вариант {@link #getVersion(String)}
+     */
+    public CompletableFuture<Long> getVersionAsync(String userId) {
+        return versionOf(userId).getAsync().toCompletableFuture()
+                .exceptionally(e -> {
+                    log.warn("Не удалось прочитать версию профиля {}: {}", userId, e.getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * @return роли пользователя из кэша или null при промахе
+     */
+    public List<String> getRoles(String userId) {
+        if (!enabled) {
+            return null;
+        }
+        try {
+            CachedRoles roles = nearRoles.get(userId, id -> rolesReader(id).opsForValue().get(ROLES_PREFIX + id));
+            return roles != null ? roles.getNamesList() : null;
+        } catch (RuntimeException e) {
+            log.warn("Не удалось прочитать роли {} из кэша: {}", userId, e.getMessage());
+            return null;
+        }
+    }
+
+    public void putRoles(String userId, List<String> roles) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            CachedRoles cachedRoles = CachedRoles.newBuilder().addAllNames(roles).build();
+            rolesTemplate.opsForValue().set(ROLES_PREFIX + userId, cachedRoles, ttl);
+            nearRoles.put(userId, cachedRoles);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось сохранить роли {} в кэш: {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * Увеличивает версию профиля и удаляет профиль и роли пользователя после изменения в Keycloak.
+     * Версия увеличивается первой, чтобы параллельная загрузка не сохранила в кэш прежний профиль.
+     */
+    public void evict(String userId) {
+        try {
+            RAtomicLong version = versionOf(userId);
+            version.incrementAndGet();
+            version.expire(versionTtl);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось увеличить версию профиля {}: {}", userId, e.getMessage());
+        }
+        if (!enabled) {
+            return;
+        }
+        try {
+            redissonClient.getBucket(profileKey(userId), profileCodec).delete();
+            rolesTemplate.delete(ROLES_PREFIX + userId);
+        } catch (RuntimeException e) {
+            log.warn("Не удалось удалить пользователя {} из кэша: {}", userId, e.getMessage());
+        } finally {
+            nearProfiles.invalidate(userId);
+            nearRoles.invalidate(userId);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        nearProfiles.bindTo(registry);
+        nearRoles.bindTo(registry);
+    }
+
+    private Map<String, UserProfile> loadProfiles(Collection<String> userIds) {
+        Map<String, String> userIdByKey = new HashMap<>();
+        userIds.forEach(userId -> userIdByKey.put(profileKey(userId), userId));
+        RedissonClient client = userIds.stream().anyMatch(nearProfiles::recentlyChanged)
+                ? redissonClient : cacheRedissonClient;
+        Map<String, UserProfile> stored = client.getBuckets(profileCodec)
+                .get(userIdByKey.keySet().toArray(String[]::new));
+        Map<String, UserProfile> result = new HashMap<>();
+        stored.forEach((key, profile) -> result.put(userIdByKey.get(key), profile));
+        return result;
+    }
+
+    private RAtomicLong versionOf(String userId) {
+        return redissonClient.getAtomicLong(versionKey(userId));
+    }
+
+    private RBucket<UserProfile> profileBucket(String userId) {
+        RedissonClient client = nearProfiles.recentlyChanged(userId) ? redissonClient : cacheRedissonClient;
+        return client.getBucket(profileKey(userId), profileCodec);
+    }
+
+    private RedisTemplate<String, CachedRoles> rolesReader(String userId) {
+        return nearRoles.recentlyChanged(userId) ? rolesTemplate : cacheRolesTemplate;
+    }
+
+    private static String profileKey(String userId) {
+        return PROFILE_PREFIX + "{" + userId + "}";
+    }
+
+    private static String versionKey(String userId) {
+        return VERSION_PREFIX + "{" + userId + "}";
+    }
+
+    private byte[] encode(UserProfile profile) throws IOException {
+        ByteBuf encoded = profileCodec.getValueEncoder().encode(profile);
+        try {
+            return ByteBufUtil.getBytes(encoded);
+        } finally {
+            encoded.release();
+        }
+    }
+
+    private static byte[] ascii(long value) {
+        return Long.toString(value).getBytes(StandardCharsets.US_ASCII);
+    }
+}
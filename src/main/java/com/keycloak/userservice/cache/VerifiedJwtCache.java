@@ -0,0 +1,146 @@
+package com.keycloak.userservice.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtTimestampValidator;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш уже проверенных JWT: повторный запрос с тем же bearer-токеном не разбирает его заново
+ * и не проверяет RSA-подпись. Ключ — SHA-256 токена (сам токен в памяти не хранится),
+ * запись удаляется в момент истечения токена, поэтому просроченный токен из кэша не вернется.
+ * Токены без exp и токены, nbf которых еще не наступил (delegate принимает их с допуском
+ * рассинхронизации часов), не кэшируются. При попадании в кэш exp и nbf проверяются заново тем же
+ * JwtTimestampValidator, что у NimbusJwtDecoder: подпись не проверяется повторно, а сроки — всегда.
+ */
+@Component
+public class VerifiedJwtCache implements MeterBinder {
+
+    private final boolean enabled;
+    private final Cache<String, Jwt> verified;
+    private final Clock clock;
+    private final JwtTimestampValidator timestamps = new JwtTimestampValidator();
+
+    @Autowired
+    public VerifiedJwtCache(
+            @Value("${security.jwt.cache.enabled:true}") boolean enabled,
+            @Value("${security.jwt.cache.max-size:10000}") long maxSize) {
+        this(enabled, maxSize, Clock.systemUTC());
+    }
+
+    VerifiedJwtCache(boolean enabled, long maxSize, Clock clock) {
+        this.enabled = enabled;
+        this.clock = clock;
+        this.timestamps.setClock(clock);
+        this.verified = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new UntilTokenExpiry())
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Декодер, который проверяет токен через delegate только при промахе кэша
+     */
+    public JwtDecoder wrap(JwtDecoder delegate) {
+        if (!enabled) {
+            return delegate;
+        }
+        return token -> {
+            String key = digest(token);
+            Jwt jwt = verified.getIfPresent(key);
+            if (jwt == null) {
+                jwt = delegate.decode(token);
+                put(key, jwt);
+                return jwt;
+            }
+            return validateTimestamps(jwt);
+        };
+    }
+
+    /**
+     * Реактивный вариант {@link #wrap(JwtDecoder)}
+     */
+    public ReactiveJwtDecoder wrap(ReactiveJwtDecoder delegate) {
+        if (!enabled) {
+            return delegate;
+        }
+        return token -> {
+            String key = digest(token);
+            Jwt jwt = verified.getIfPresent(key);
+            if (jwt != null) {
+                return Mono.fromCallable(() -> validateTimestamps(jwt));
+            }
+            return delegate.decode(token).doOnNext(decoded -> put(key, decoded));
+        };
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, verified, "jwt-verified");
+    }
+
+    private void put(String key, Jwt jwt) {
+        boolean notYetValid = jwt.getNotBefore() != null && jwt.getNotBefore().isAfter(clock.instant());
+        if (jwt.getExpiresAt() != null && jwt.getExpiresAt().isAfter(clock.instant()) && !notYetValid) {
+            verified.put(key, jwt);
+        }
+    }
+
+    /**
+     * @throws JwtValidationException как у NimbusJwtDecoder, если токен истек или еще не действует
+     */
+    private Jwt validateTimestamps(Jwt jwt) {
+        OAuth2TokenValidatorResult result = timestamps.validate(jwt);
+        if (result.hasErrors()) {
+            throw new JwtValidationException(result.getErrors().iterator().next().getDescription(), result.getErrors());
+        }
+        return jwt;
+    }
+
+    private static String digest(String token) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private final class UntilTokenExpiry implements Expiry<String, Jwt> {
+
+        @Override
+        public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+            return Math.max(0, TimeUnit.MILLISECONDS.toNanos(jwt.getExpiresAt().toEpochMilli() - clock.millis()));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, jwt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
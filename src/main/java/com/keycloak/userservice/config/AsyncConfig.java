@@ -0,0 +1,142 @@
+package com.keycloak.userservice.config;
+
+import com.keycloak.userservice.context.RequestContext;
+import io.opentelemetry.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskDecorator;
+import org.springframework.core.task.support.ContextPropagatingTaskDecorator;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Пулы для асинхронной работы сервиса. При spring.threads.virtual.enabled=true на Java 21+
+ * задачи выполняются в виртуальных потоках без ограничения размера пула: число одновременных
+ * обращений к Keycloak по-прежнему ограничивает AdaptiveConcurrencyLimiter. На более старой Java
+ * настройка игнорируется, как и в Spring Boot, и используются обычные пулы.
+ * Вместе с контекстом запроса в задачи переносится текущий спан трассировки
+ * (и прочие значения Micrometer Context Propagation, например MDC).
+ */
+@Configuration
+public class AsyncConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(AsyncConfig.class);
+
+    private static final int AWAIT_TERMINATION_SECONDS = 30;
+
+    private static final TaskDecorator CONTEXT_PROPAGATION = new ContextPropagatingTaskDecorator();
+
+    private static final RejectedExecutionHandler RUN_IN_CALLER = (task, executor) -> task.run();
+
+    private static final AtomicBoolean VIRTUAL_THREADS_WARNED = new AtomicBoolean();
+
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${async.keycloak-executor.core-size:16}")
+    private int keycloakCoreSize;
+
+    @Value("${async.keycloak-executor.max-size:64}")
+    private int keycloakMaxSize;
+
+    @Value("${async.keycloak-executor.queue-capacity:500}")
+    private int keycloakQueueCapacity;
+
+    @Value("${async.event-publisher.core-size:4}")
+    private int eventPublisherCoreSize;
+
+    @Value("${async.event-publisher.max-size:16}")
+    private int eventPublisherMaxSize;
+
+    @Value("${async.event-publisher.queue-capacity:10000}")
+    private int eventPublisherQueueCapacity;
+
+    /**
+     * Пул для блокирующих вызовов Keycloak из асинхронных обработчиков.
+     * Контекст запроса переносится из потока, отправившего задачу.
+     */
+    @Bean
+    public AsyncTaskExecutor keycloakExecutor() {
+        if (virtualThreadsActive(virtualThreads)) {
+            return virtualThreadExecutor("keycloak-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(keycloakCoreSize);
+        executor.setMaxPoolSize(keycloakMaxSize);
+        executor.setQueueCapacity(keycloakQueueCapacity);
+        executor.setThreadNamePrefix("keycloak-");
+        executor.setTaskDecorator(AsyncConfig::propagateContext);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(AWAIT_TERMINATION_SECONDS);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Пул для отправки событий в Kafka, чтобы ожидание метаданных или места в буфере продюсера
+     * не задерживало ответ клиенту. При переполнении очереди, а также после остановки пула событие
+     * отправляется в вызывающем потоке: стандартный CallerRunsPolicy после остановки молча отбрасывает задачу,
+     * и цепочка событий пользователя в UserEventService больше не продвигалась бы.
+     */
+    @Bean
+    public AsyncTaskExecutor eventPublisherExecutor() {
+        if (virtualThreadsActive(virtualThreads)) {
+            return virtualThreadExecutor("event-publisher-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(eventPublisherCoreSize);
+        executor.setMaxPoolSize(eventPublisherMaxSize);
+        executor.setQueueCapacity(eventPublisherQueueCapacity);
+        executor.setThreadNamePrefix("event-publisher-");
+        executor.setRejectedExecutionHandler(RUN_IN_CALLER);
+        executor.setTaskDecorator(AsyncConfig::propagateContext);
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(AWAIT_TERMINATION_SECONDS);
+        executor.initialize();
+        return executor;
+    }
+
+    /**
+     * Виртуальные потоки доступны с Java 21; на Java 17 SimpleAsyncTaskExecutor.setVirtualThreads
+     * и VirtualThreadTaskExecutor падают при создании бина
+     */
+    static boolean virtualThreadsActive(boolean enabled) {
+        if (!enabled) {
+            return false;
+        }
+        if (!JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE)) {
+            if (VIRTUAL_THREADS_WARNED.compareAndSet(false, true)) {
+                log.warn("spring.threads.virtual.enabled is ignored: virtual threads require Java 21, running on {}",
+                        Runtime.version());
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Context Propagation восстанавливает в задаче текущий Observation, то есть спан входящего запроса.
+     * Спаны, открытые через Tracer.withSpan (блокировки, вызовы Keycloak), есть только в контексте
+     * OpenTelemetry, поэтому он переносится отдельно и в задаче имеет приоритет
+     */
+    static Runnable propagateContext(Runnable task) {
+        return RequestContext.wrap(CONTEXT_PROPAGATION.decorate(Context.current().wrap(task)));
+    }
+
+    private static SimpleAsyncTaskExecutor virtualThreadExecutor(String threadNamePrefix) {
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor(threadNamePrefix);
+        executor.setVirtualThreads(true);
+        executor.setTaskDecorator(AsyncConfig::propagateContext);
+        // close() при остановке контекста ждет завершения начатых задач
+        executor.setTaskTerminationTimeout(AWAIT_TERMINATION_SECONDS * 1000L);
+        return executor;
+    }
+}
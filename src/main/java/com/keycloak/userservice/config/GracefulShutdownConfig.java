@@ -1,8 +1,10 @@
 package com.keycloak.userservice.config;
 
 import org.apache.catalina.connector.Connector;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.web.embedded.tomcat.TomcatConnectorCustomizer;
 import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
 import org.springframework.boot.web.server.WebServerFactoryCustomizer;
@@ -12,10 +14,11 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.event.ContextClosedEvent;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 @Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class GracefulShutdownConfig {
 
     private static final Logger log = LoggerFactory.getLogger(GracefulShutdownConfig.class);
@@ -51,18 +54,23 @@ public class GracefulShutdownConfig {
                     this.connector.pause();
                     log.info("Paused connector successfully");
                     
+                    // Пул потоков Tomcat и исполнитель виртуальных потоков реализуют ExecutorService;
+                    // число активных потоков есть только у пула Tomcat
                     Executor executor = this.connector.getProtocolHandler().getExecutor();
-                    if (executor instanceof ThreadPoolExecutor) {
-                        ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
-                        log.info("Active threads: {}", threadPoolExecutor.getActiveCount());
+                    if (executor instanceof ExecutorService executorService) {
+                        if (executor instanceof ThreadPoolExecutor tomcatExecutor) {
+                            log.info("Active threads: {}", tomcatExecutor.getActiveCount());
+                        }
                         
-                        threadPoolExecutor.shutdown();
-                        if (!threadPoolExecutor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
-                            log.warn("Tomcat thread pool did not shut down gracefully within {} seconds. Proceeding with forced shutdown", SHUTDOWN_TIMEOUT);
-                            threadPoolExecutor.shutdownNow();
+                        executorService.shutdown();
+                        if (!executorService.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS)) {
+                            log.warn("Tomcat executor did not shut down gracefully within {} seconds. Proceeding with forced shutdown", SHUTDOWN_TIMEOUT);
+                            executorService.shutdownNow();
                         } else {
-                            log.info("Tomcat thread pool shut down gracefully");
+                            log.info("Tomcat executor shut down gracefully: {}", executor.getClass().getSimpleName());
                         }
+                    } else if (executor != null) {
+                        log.warn("Tomcat executor {} does not support graceful shutdown", executor.getClass().getName());
                     }
                 } else {
                     log.warn("No Tomcat connector found for graceful shutdown");
@@ -0,0 +1,57 @@
+package com.keycloak.userservice.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.keycloak.userservice.util.RoleClaims;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Преобразует claim roles в authorities ROLE_*, как JwtGrantedAuthoritiesConverter: claim разбирается
+ * {@link RoleClaims}, как и при проверке токенов для других сервисов. Различных наборов ролей в realm немного,
+ * поэтому для каждого набора один раз строится общий неизменяемый Set, и запросы
+ * не создают заново коллекции GrantedAuthority.
+ */
+@Component
+public class InternedAuthoritiesConverter implements Converter<Jwt, Collection<GrantedAuthority>> {
+
+    private static final String ROLE_PREFIX = "ROLE_";
+    // Ограничение на случай токенов с произвольными наборами ролей
+    private static final long MAX_ROLE_SETS = 1000;
+
+    // Ключ - исходное значение claim: строка или неизменяемая копия списка
+    private final Cache<Object, Set<GrantedAuthority>> authoritySets = Caffeine.newBuilder()
+            .maximumSize(MAX_ROLE_SETS)
+            .build();
+
+    @Override
+    public Collection<GrantedAuthority> convert(Jwt jwt) {
+        Object roles = jwt.getClaim(RoleClaims.ROLES_CLAIM);
+        if (roles instanceof String delimited) {
+            return delimited.isBlank() ? Set.of() : authoritySets.get(delimited, InternedAuthoritiesConverter::toAuthorities);
+        }
+        if (roles instanceof Collection<?> list) {
+            if (list.isEmpty()) {
+                return Set.of();
+            }
+            // Поиск по самому списку из claims: копия для ключа создается только для нового набора
+            Set<GrantedAuthority> authorities = authoritySets.getIfPresent(list);
+            return authorities != null ? authorities : authoritySets.get(List.copyOf(list), InternedAuthoritiesConverter::toAuthorities);
+        }
+        return Set.of();
+    }
+
+    private static Set<GrantedAuthority> toAuthorities(Object roles) {
+        return RoleClaims.parse(roles).stream()
+                .map(role -> (GrantedAuthority) new SimpleGrantedAuthority(ROLE_PREFIX + role))
+                .collect(Collectors.toUnmodifiableSet());
+    }
+}
@@ -0,0 +1,63 @@
+package com.keycloak.userservice.config;
+
+import com.keycloak.userservice.cache.VerifiedJwtCache;
+import com.keycloak.userservice.service.TokenRevocationService;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.jwk.source.JWKSourceBuilder;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Декодер JWT по JWKS realm. Вынесен из {@link SecurityConfig}, потому что нужен не только
+ * фильтрам Spring Security, но и локальной проверке токенов для других сервисов при любом транспорте.
+ * Набор ключей обновляется в фоне заранее, до истечения срока кэша, поэтому запросы не ждут
+ * загрузки JWKS из Keycloak; при неизвестном kid (ротация ключей) набор перечитывается сразу.
+ */
+@Configuration
+public class JwtConfig {
+
+    @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}")
+    private String jwkSetUri;
+
+    @Value("${security.jwt.jwks.ttl:300}")
+    private long jwksTtlSeconds;
+
+    @Value("${security.jwt.jwks.refresh-ahead:60}")
+    private long jwksRefreshAheadSeconds;
+
+    @Value("${security.jwt.jwks.refresh-timeout:15}")
+    private long jwksRefreshTimeoutSeconds;
+
+    /**
+     * Источник ключей закрывается вместе с контекстом: он владеет потоком фонового обновления
+     */
+    @Bean
+    public JWKSource<SecurityContext> jwkSource() throws MalformedURLException {
+        return JWKSourceBuilder.create(URI.create(jwkSetUri).toURL())
+                .cache(TimeUnit.SECONDS.toMillis(jwksTtlSeconds), TimeUnit.SECONDS.toMillis(jwksRefreshTimeoutSeconds))
+                .refreshAheadCache(TimeUnit.SECONDS.toMillis(jwksRefreshAheadSeconds), true)
+                .build();
+    }
+
+    @Bean
+    public JwtDecoder jwtDecoder(JWKSource<SecurityContext> jwkSource, VerifiedJwtCache verifiedJwtCache,
+                                 TokenRevocationService tokenRevocationService) {
+        DefaultJWTProcessor<SecurityContext> jwtProcessor = new DefaultJWTProcessor<>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        // Claims (срок действия и т.д.) проверяют валидаторы NimbusJwtDecoder, как в NimbusJwtDecoder.withJwkSetUri
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        return tokenRevocationService.wrap(verifiedJwtCache.wrap(new NimbusJwtDecoder(jwtProcessor)));
+    }
+}
@@ -1,11 +1,17 @@
 package com.keycloak.userservice.config;
 
+import jakarta.ws.rs.client.Client;
+import jakarta.ws.rs.client.ClientBuilder;
+import org.jboss.resteasy.client.jaxrs.ResteasyClientBuilder;
+import org.keycloak.admin.client.JacksonProvider;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.KeycloakBuilder;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.util.concurrent.TimeUnit;
+
 @Configuration
 public class KeycloakConfig {
 
@@ -21,6 +27,15 @@ public class KeycloakConfig {
     @Value("${keycloak.credentials.secret}")
     private String clientSecret;
 
+    @Value("${keycloak.client.connect-timeout:2000}")
+    private long connectTimeoutMillis;
+
+    @Value("${keycloak.client.read-timeout:5000}")
+    private long readTimeoutMillis;
+
+    @Value("${keycloak.client.connection-pool-size:64}")
+    private int connectionPoolSize;
+
     @Bean
     public Keycloak keycloak() {
         return KeycloakBuilder.builder()
@@ -29,6 +44,21 @@ public class KeycloakConfig {
                 .clientId(clientId)
                 .clientSecret(clientSecret)
                 .grantType("client_credentials")
+                .resteasyClient(resteasyClient())
+                .build();
+    }
+
+    /**
+     * Таймауты общие для всех вызовов: клиент JAX-RS не поддерживает таймаут на отдельный запрос,
+     * поэтому срок входящего запроса проверяется в сервисном слое между вызовами
+     */
+    private Client resteasyClient() {
+        return ((ResteasyClientBuilder) ClientBuilder.newBuilder())
+                .connectionPoolSize(connectionPoolSize)
+                .maxPooledPerRoute(connectionPoolSize)
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .register(JacksonProvider.class, 100)
                 .build();
     }
 } 
\ No newline at end of file
@@ -1,35 +1,90 @@
-package com.example.userauthservice.config;
+package com.keycloak.userservice.config;
 
+import com.keycloak.userservice.ratelimit.RateLimitBucketStore;
 import io.github.bucket4j.Bandwidth;
 import io.github.bucket4j.Bucket;
+import io.github.bucket4j.BucketConfiguration;
 import io.github.bucket4j.Refill;
+import io.github.bucket4j.distributed.ExpirationAfterWriteStrategy;
+import io.github.bucket4j.distributed.proxy.ProxyManager;
+import io.github.bucket4j.distributed.proxy.RemoteBucketBuilder;
+import io.github.bucket4j.distributed.proxy.optimization.DelayParameters;
+import io.github.bucket4j.distributed.proxy.optimization.Optimizations;
+import io.github.bucket4j.redis.redisson.cas.RedissonBasedProxyManager;
+import org.redisson.Redisson;
+import org.redisson.api.RedissonClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 @Configuration
 public class RateLimitConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RateLimitConfig.class);
+    private static final String REDIS_KEY_PREFIX = "rate-limit:";
+
     @Value("${rate-limit.capacity:100}")
     private int capacity;
 
     @Value("${rate-limit.time-window:60}")
     private int timeWindow;
 
+    @Value("${rate-limit.max-buckets:100000}")
+    private long maxBuckets;
+
+    @Value("${rate-limit.idle-expiry:${rate-limit.time-window:60}}")
+    private long idleExpiry;
+
+    @Value("${rate-limit.mode:local}")
+    private String mode;
+
+    @Value("${rate-limit.distributed.max-unsynchronized-tokens:10}")
+    private long maxUnsynchronizedTokens;
+
+    @Value("${rate-limit.distributed.max-unsynchronized-timeout:500}")
+    private long maxUnsynchronizedTimeoutMillis;
+
     @Bean
-    public Map<String, Bucket> buckets() {
-        return new ConcurrentHashMap<>();
+    public RateLimitBucketStore rateLimitBucketStore(RedissonClient redissonClient) {
+        Function<String, Bucket> bucketFactory = "distributed".equalsIgnoreCase(mode)
+                ? distributedBucketFactory(redissonClient)
+                : key -> Bucket.builder().addLimit(bandwidth()).build();
+        log.info("Rate limiting mode: {}, {} requests per {} seconds", mode, capacity, timeWindow);
+        return new RateLimitBucketStore(bucketFactory, maxBuckets, Duration.ofSeconds(idleExpiry));
     }
 
-    @Bean
-    public Bucket createNewBucket() {
-        Bandwidth limit = Bandwidth.classic(capacity, Refill.intervally(capacity, Duration.ofSeconds(timeWindow)));
-        return Bucket.builder()
-                .addLimit(limit)
+    /**
+     * Бакеты хранятся в Redis и общие для всех подов. Чтобы не ходить в Redis на каждый запрос,
+     * узел расходует до max-unsynchronized-tokens токенов локально и синхронизируется с Redis
+     * не реже чем раз в max-unsynchronized-timeout: чем больше значения, тем меньше задержка
+     * и тем сильнее кластер может превысить лимит.
+     */
+    private Function<String, Bucket> distributedBucketFactory(RedissonClient redissonClient) {
+        ProxyManager<String> proxyManager = RedissonBasedProxyManager
+                .builderFor(((Redisson) redissonClient).getCommandExecutor())
+                .withExpirationStrategy(ExpirationAfterWriteStrategy
+                        .basedOnTimeForRefillingBucketUpToMax(Duration.ofSeconds(timeWindow)))
+                .build();
+
+        BucketConfiguration configuration = BucketConfiguration.builder()
+                .addLimit(bandwidth())
                 .build();
+
+        RemoteBucketBuilder<String> bucketBuilder = proxyManager.builder();
+        if (maxUnsynchronizedTokens > 0) {
+            bucketBuilder = bucketBuilder.withOptimization(Optimizations.delaying(new DelayParameters(
+                    maxUnsynchronizedTokens, Duration.ofMillis(maxUnsynchronizedTimeoutMillis))));
+        }
+        RemoteBucketBuilder<String> builder = bucketBuilder;
+        return key -> builder.build(REDIS_KEY_PREFIX + key, () -> configuration);
+    }
+
+    private Bandwidth bandwidth() {
+        return Bandwidth.classic(capacity, Refill.intervally(capacity, Duration.ofSeconds(timeWindow)));
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,67 @@
+package com.keycloak.userservice.config;
+
+import com.keycloak.userservice.cache.VerifiedJwtCache;
+import com.keycloak.userservice.service.TokenRevocationService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.config.annotation.method.configuration.EnableReactiveMethodSecurity;
+import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.ReactiveJwtAuthenticationConverterAdapter;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.security.web.server.context.NoOpServerSecurityContextRepository;
+
+/**
+ * Настройки безопасности для transport=reactive, повторяют {@link SecurityConfig}
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@EnableWebFluxSecurity
+@EnableReactiveMethodSecurity
+public class ReactiveSecurityConfig {
+
+    @Value("${spring.security.oauth2.resourceserver.jwt.jwk-set-uri}")
+    private String jwkSetUri;
+
+    @Bean
+    public SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http,
+                                                         InternedAuthoritiesConverter grantedAuthoritiesConverter) {
+        http
+            .csrf(csrf -> csrf.disable())
+            .cors(cors -> cors.disable())
+            .securityContextRepository(NoOpServerSecurityContextRepository.getInstance())
+            .authorizeExchange(exchange -> exchange
+                .pathMatchers("/api/v1/auth/**").permitAll()
+                .pathMatchers("/actuator/health/**", "/actuator/prometheus").permitAll()
+                .pathMatchers("/actuator/locks", "/actuator/locks/**").hasRole("admin")
+                .pathMatchers("/api/v1/me/**").hasRole("user")
+                .pathMatchers("/api/v1/admin/**").hasRole("admin")
+                .anyExchange().authenticated())
+            .oauth2ResourceServer(oauth2 -> oauth2
+                .jwt(jwt -> jwt
+                    .jwtAuthenticationConverter(new ReactiveJwtAuthenticationConverterAdapter(jwtAuthenticationConverter(grantedAuthoritiesConverter)))));
+
+        return http.build();
+    }
+
+    private JwtAuthenticationConverter jwtAuthenticationConverter(InternedAuthoritiesConverter grantedAuthoritiesConverter) {
+        JwtAuthenticationConverter jwtAuthenticationConverter = new JwtAuthenticationConverter();
+        jwtAuthenticationConverter.setJwtGrantedAuthoritiesConverter(grantedAuthoritiesConverter);
+        return jwtAuthenticationConverter;
+    }
+
+    /**
+     * JWKS загружается неблокирующим клиентом NimbusReactiveJwtDecoder; проверенные токены
+     * кэшируются и проверяются на отзыв так же, как в {@link JwtConfig}
+     */
+    @Bean
+    public ReactiveJwtDecoder reactiveJwtDecoder(VerifiedJwtCache verifiedJwtCache,
+                                                 TokenRevocationService tokenRevocationService) {
+        return tokenRevocationService.wrap(verifiedJwtCache.wrap(NimbusReactiveJwtDecoder.withJwkSetUri(jwkSetUri).build()));
+    }
+}
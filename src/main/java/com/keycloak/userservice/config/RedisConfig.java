@@ -1,20 +1,64 @@
 package com.keycloak.userservice.config;
 
+import com.keycloak.userservice.cache.ProtobufCacheCodec;
+import com.keycloak.userservice.cache.proto.CachedRole;
+import com.keycloak.userservice.cache.proto.CachedRoles;
+import com.keycloak.userservice.grpc.UserProfile;
+import io.lettuce.core.ReadFrom;
+import io.lettuce.core.cluster.ClusterClientOptions;
+import io.lettuce.core.cluster.ClusterTopologyRefreshOptions;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.redisson.Redisson;
 import org.redisson.api.RedissonClient;
+import org.redisson.config.ClusterServersConfig;
 import org.redisson.config.Config;
+import org.redisson.config.ReadMode;
+import org.redisson.config.SentinelServersConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.connection.RedisClusterConfiguration;
+import org.springframework.data.redis.connection.RedisConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConfiguration;
 import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnection;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.lettuce.LettucePoolingClientConfiguration;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Подключение к Redis для Lettuce (RedisTemplate) и Redisson (блокировки, rate limiting).
+ * Режим spring.redis.mode: standalone, sentinel или cluster; другое значение — ошибка запуска.
+ * При read-from=replica-preferred чтения кэша уходят на реплики. Основные клиенты Lettuce и Redisson
+ * всегда читают с мастера: блокировки, идемпотентность, ограничения входа, rate limiting и отзыв токенов
+ * не допускают отставания реплики. Чтения кэшей профилей и ролей идут через отдельные
+ * cacheRedissonClient и cacheUserRolesRedisTemplate.
+ */
 @Configuration
 public class RedisConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(RedisConfig.class);
+
+    private static final String STANDALONE = "standalone";
+    private static final String SENTINEL = "sentinel";
+    private static final String CLUSTER = "cluster";
+
+    @Value("${spring.redis.mode:standalone}")
+    private String mode;
+
     @Value("${spring.redis.host:localhost}")
     private String redisHost;
 
@@ -24,13 +68,126 @@ public class RedisConfig {
     @Value("${spring.redis.password:}")
     private String redisPassword;
 
+    @Value("${spring.redis.sentinel.master:mymaster}")
+    private String sentinelMaster;
+
+    @Value("${spring.redis.sentinel.nodes:}")
+    private String sentinelNodes;
+
+    @Value("${spring.redis.cluster.nodes:}")
+    private String clusterNodes;
+
+    @Value("${spring.redis.read-from:master}")
+    private String readFrom;
+
+    @Value("${spring.redis.pool.max-active:64}")
+    private int poolMaxActive;
+
+    @Value("${spring.redis.pool.max-idle:16}")
+    private int poolMaxIdle;
+
+    @Value("${spring.redis.pool.min-idle:4}")
+    private int poolMinIdle;
+
+    @Value("${spring.redis.pipelining-flush-threshold:16}")
+    private int pipeliningFlushThreshold;
+
+    @Value("${spring.redis.redisson.connection-pool-size:64}")
+    private int redissonPoolSize;
+
+    @Value("${spring.redis.redisson.connection-minimum-idle-size:24}")
+    private int redissonMinIdle;
+
+    @Value("${spring.redis.redisson.netty-threads:32}")
+    private int redissonNettyThreads;
+
+    @Value("${spring.redis.redisson.timeout:3000}")
+    private int redissonTimeout;
+
+    @Value("${spring.redis.redisson.retry-attempts:5}")
+    private int redissonRetryAttempts;
+
+    @Value("${spring.redis.redisson.retry-interval:1500}")
+    private int redissonRetryInterval;
+
+    @Value("${cache.lz4-threshold:1024}")
+    private int lz4Threshold;
+
+    /**
+     * Основное подключение Lettuce: всегда мастер, как и основной клиент Redisson
+     */
     @Bean
+    @Primary
     public RedisConnectionFactory redisConnectionFactory() {
-        RedisStandaloneConfiguration redisConfig = new RedisStandaloneConfiguration(redisHost, redisPort);
-        if (!redisPassword.isEmpty()) {
-            redisConfig.setPassword(redisPassword);
+        log.info("Redis mode: {}, cache reads from: {}", mode, readFrom);
+        return createConnectionFactory(ReadFrom.MASTER);
+    }
+
+    /**
+     * Подключение для чтения кэша ролей: при read-from=replica-preferred читает с реплик,
+     * иначе это основное подключение
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnExpression("!'${spring.redis.read-from:master}'.equalsIgnoreCase('replica-preferred')")
+    public RedisConnectionFactory cacheRedisConnectionFactory(RedisConnectionFactory redisConnectionFactory) {
+        return redisConnectionFactory;
+    }
+
+    @Bean(name = "cacheRedisConnectionFactory")
+    @ConditionalOnExpression("'${spring.redis.read-from:master}'.equalsIgnoreCase('replica-preferred')")
+    public RedisConnectionFactory replicaCacheRedisConnectionFactory() {
+        return createConnectionFactory(ReadFrom.REPLICA_PREFERRED);
+    }
+
+    LettuceConnectionFactory createConnectionFactory(ReadFrom lettuceReadFrom) {
+        GenericObjectPoolConfig<Object> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(poolMaxActive);
+        poolConfig.setMaxIdle(poolMaxIdle);
+        poolConfig.setMinIdle(poolMinIdle);
+
+        LettucePoolingClientConfiguration.LettucePoolingClientConfigurationBuilder clientConfig =
+                LettucePoolingClientConfiguration.builder().poolConfig(poolConfig);
+
+        RedisConfiguration redisConfig;
+        switch (mode()) {
+            case SENTINEL -> {
+                RedisSentinelConfiguration sentinelConfig = new RedisSentinelConfiguration(
+                        sentinelMaster, new HashSet<>(splitNodes(sentinelNodes)));
+                if (!redisPassword.isEmpty()) {
+                    sentinelConfig.setPassword(redisPassword);
+                }
+                clientConfig.readFrom(lettuceReadFrom);
+                redisConfig = sentinelConfig;
+            }
+            case CLUSTER -> {
+                RedisClusterConfiguration clusterConfig = new RedisClusterConfiguration(splitNodes(clusterNodes));
+                if (!redisPassword.isEmpty()) {
+                    clusterConfig.setPassword(redisPassword);
+                }
+                clientConfig.readFrom(lettuceReadFrom);
+                clientConfig.clientOptions(ClusterClientOptions.builder()
+                        .topologyRefreshOptions(ClusterTopologyRefreshOptions.builder()
+                                .enablePeriodicRefresh(Duration.ofSeconds(30))
+                                .enableAllAdaptiveRefreshTriggers()
+                                .build())
+                        .build());
+                redisConfig = clusterConfig;
+            }
+            case STANDALONE -> {
+                RedisStandaloneConfiguration standaloneConfig = new RedisStandaloneConfiguration(redisHost, redisPort);
+                if (!redisPassword.isEmpty()) {
+                    standaloneConfig.setPassword(redisPassword);
+                }
+                redisConfig = standaloneConfig;
+            }
+            // Опечатка в spring.redis.mode не должна молча запускать сервис на localhost
+            default -> throw new IllegalStateException(
+                    "Unsupported Redis mode: " + mode + " (expected standalone, sentinel or cluster)");
         }
-        return new LettuceConnectionFactory(redisConfig);
+
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(redisConfig, clientConfig.build());
+        factory.setPipeliningFlushPolicy(LettuceConnection.PipeliningFlushPolicy.buffered(pipeliningFlushThreshold));
+        return factory;
     }
 
     @Bean
@@ -46,16 +203,134 @@ public class RedisConfig {
     }
 
     @Bean
+    public ProtobufCacheCodec<UserProfile> userProfileCodec() {
+        return new ProtobufCacheCodec<>(UserProfile.parser(), lz4Threshold);
+    }
+
+    @Bean
+    public ProtobufCacheCodec<CachedRoles> cachedRolesCodec() {
+        return new ProtobufCacheCodec<>(CachedRoles.parser(), lz4Threshold);
+    }
+
+    @Bean
+    public ProtobufCacheCodec<CachedRole> cachedRoleCodec() {
+        return new ProtobufCacheCodec<>(CachedRole.parser(), lz4Threshold);
+    }
+
+    /**
+     * Запись, удаление и чтение ролей сразу после изменения — через мастер
+     */
+    @Bean
+    public RedisTemplate<String, CachedRoles> userRolesRedisTemplate(
+            RedisConnectionFactory connectionFactory,
+            ProtobufCacheCodec<CachedRoles> cachedRolesCodec) {
+        return rolesTemplate(connectionFactory, cachedRolesCodec);
+    }
+
+    /**
+     * Чтения кэша ролей через cacheRedisConnectionFactory
+     */
+    @Bean
+    public RedisTemplate<String, CachedRoles> cacheUserRolesRedisTemplate(
+            @Qualifier("cacheRedisConnectionFactory") RedisConnectionFactory connectionFactory,
+            ProtobufCacheCodec<CachedRoles> cachedRolesCodec) {
+        return rolesTemplate(connectionFactory, cachedRolesCodec);
+    }
+
+    private static RedisTemplate<String, CachedRoles> rolesTemplate(
+            RedisConnectionFactory connectionFactory,
+            ProtobufCacheCodec<CachedRoles> cachedRolesCodec) {
+        RedisTemplate<String, CachedRoles> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(cachedRolesCodec.asRedisSerializer());
+        template.afterPropertiesSet();
+        return template;
+    }
+
+    @Bean
+    @Primary
     public RedissonClient redissonClient() {
+        return createRedissonClient(ReadMode.MASTER);
+    }
+
+    /**
+     * Клиент для чтения кэшей профилей и ролей: при read-from=replica-preferred читает с реплик,
+     * иначе это основной клиент
+     */
+    @Bean(destroyMethod = "")
+    @ConditionalOnExpression("!'${spring.redis.read-from:master}'.equalsIgnoreCase('replica-preferred')")
+    public RedissonClient cacheRedissonClient(RedissonClient redissonClient) {
+        return redissonClient;
+    }
+
+    @Bean(name = "cacheRedissonClient")
+    @ConditionalOnExpression("'${spring.redis.read-from:master}'.equalsIgnoreCase('replica-preferred')")
+    public RedissonClient replicaCacheRedissonClient() {
+        log.info("Redis cache reads: replica-preferred");
+        return createRedissonClient(ReadMode.SLAVE);
+    }
+
+    private RedissonClient createRedissonClient(ReadMode readMode) {
+        return Redisson.create(redissonConfig(readMode));
+    }
+
+    Config redissonConfig(ReadMode readMode) {
         Config config = new Config();
-        String redisUrl = "redis://" + redisHost + ":" + redisPort;
-        if (!redisPassword.isEmpty()) {
-            redisUrl = "redis://" + redisPassword + "@" + redisHost + ":" + redisPort;
+        config.setNettyThreads(redissonNettyThreads);
+        String password = redisPassword.isEmpty() ? null : redisPassword;
+
+        switch (mode()) {
+            case SENTINEL -> {
+                SentinelServersConfig sentinelConfig = config.useSentinelServers()
+                        .setMasterName(sentinelMaster)
+                        .setReadMode(readMode)
+                        .setMasterConnectionPoolSize(redissonPoolSize)
+                        .setMasterConnectionMinimumIdleSize(redissonMinIdle)
+                        .setSlaveConnectionPoolSize(redissonPoolSize)
+                        .setSlaveConnectionMinimumIdleSize(redissonMinIdle)
+                        .setPassword(password)
+                        .setTimeout(redissonTimeout)
+                        .setRetryAttempts(redissonRetryAttempts)
+                        .setRetryInterval(redissonRetryInterval);
+                splitNodes(sentinelNodes).forEach(node -> sentinelConfig.addSentinelAddress("redis://" + node));
+            }
+            case CLUSTER -> {
+                ClusterServersConfig clusterConfig = config.useClusterServers()
+                        .setReadMode(readMode)
+                        .setMasterConnectionPoolSize(redissonPoolSize)
+                        .setMasterConnectionMinimumIdleSize(redissonMinIdle)
+                        .setSlaveConnectionPoolSize(redissonPoolSize)
+                        .setSlaveConnectionMinimumIdleSize(redissonMinIdle)
+                        .setPassword(password)
+                        .setTimeout(redissonTimeout)
+                        .setRetryAttempts(redissonRetryAttempts)
+                        .setRetryInterval(redissonRetryInterval);
+                splitNodes(clusterNodes).forEach(node -> clusterConfig.addNodeAddress("redis://" + node));
+            }
+            case STANDALONE -> config.useSingleServer()
+                    .setAddress("redis://" + redisHost + ":" + redisPort)
+                    .setConnectionPoolSize(redissonPoolSize)
+                    .setConnectionMinimumIdleSize(redissonMinIdle)
+                    .setPassword(password)
+                    .setTimeout(redissonTimeout)
+                    .setRetryAttempts(redissonRetryAttempts)
+                    .setRetryInterval(redissonRetryInterval);
+            // Опечатка в spring.redis.mode не должна молча запускать сервис на localhost
+            default -> throw new IllegalStateException(
+                    "Unsupported Redis mode: " + mode + " (expected standalone, sentinel or cluster)");
         }
-        config.useSingleServer()
-                .setAddress(redisUrl)
-                .setRetryAttempts(5)
-                .setRetryInterval(1500);
-        return Redisson.create(config);
+        return config;
+    }
+
+    private String mode() {
+        return mode.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static List<String> splitNodes(String nodes) {
+        return Arrays.stream(nodes.split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .toList();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,25 @@
+package com.keycloak.userservice.config;
+
+import io.opentelemetry.exporter.logging.otlp.OtlpJsonLoggingSpanExporter;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Дополнительные экспортеры спанов. Экспорт в коллектор OTLP настраивает Spring Boot
+ * (management.otlp.tracing.endpoint); здесь — вывод спанов в лог в формате OTLP JSON,
+ * чтобы трассировку можно было проверить локально или в тестах без коллектора.
+ */
+@Configuration
+public class TracingConfig {
+
+    /**
+     * Экспортер работает вместе с OTLP: Spring Boot передает процессору спанов все бины SpanExporter
+     */
+    @Bean
+    @ConditionalOnProperty(name = "tracing.logging-exporter.enabled", havingValue = "true")
+    public SpanExporter loggingSpanExporter() {
+        return OtlpJsonLoggingSpanExporter.create();
+    }
+}
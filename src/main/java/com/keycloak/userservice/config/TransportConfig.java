@@ -1,43 +1,221 @@
 package com.keycloak.userservice.config;
 
+import com.keycloak.userservice.context.GrpcRequestContextInterceptor;
 import com.keycloak.userservice.grpc.GrpcAuthService;
 import com.keycloak.userservice.grpc.GrpcUserService;
+import com.keycloak.userservice.interceptor.GrpcLoadSheddingInterceptor;
+import com.keycloak.userservice.interceptor.GrpcRateLimitInterceptor;
+import com.google.common.util.concurrent.MoreExecutors;
 import io.grpc.Server;
-import io.grpc.ServerBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.ServerChannel;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
 import io.grpc.protobuf.services.ProtoReflectionService;
+import io.micrometer.core.instrument.binder.grpc.ObservationGrpcServerInterceptor;
+import io.micrometer.observation.ObservationRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Conditional;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC-сервер на Netty. На Linux используется нативный транспорт epoll, иначе NIO.
+ * Прием соединений (boss) и ввод-вывод (worker) идут в отдельных группах event loop,
+ * обработчики вызовов - в ограниченном пуле или в виртуальных потоках.
+ */
 @Configuration
 public class TransportConfig {
 
+    private static final Logger log = LoggerFactory.getLogger(TransportConfig.class);
+
     @Value("${grpc.server.port:9090}")
     private int grpcPort;
 
     @Value("${transport:http}")
     private String transport;
 
+    @Value("${spring.threads.virtual.enabled:false}")
+    private boolean virtualThreads;
+
+    @Value("${grpc.server.netty.native-transport:true}")
+    private boolean nativeTransport;
+
+    @Value("${grpc.server.netty.boss-threads:1}")
+    private int bossThreads;
+
+    // 0 - значение Netty по умолчанию (2 x число ядер)
+    @Value("${grpc.server.netty.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${grpc.server.executor.core-size:16}")
+    private int executorCoreSize;
+
+    @Value("${grpc.server.executor.max-size:64}")
+    private int executorMaxSize;
+
+    @Value("${grpc.server.executor.queue-capacity:1000}")
+    private int executorQueueCapacity;
+
+    @Value("${grpc.server.max-concurrent-calls-per-connection:100}")
+    private int maxConcurrentCallsPerConnection;
+
+    @Value("${grpc.server.max-inbound-message-size:4194304}")
+    private int maxInboundMessageSize;
+
+    @Value("${grpc.server.max-inbound-metadata-size:8192}")
+    private int maxInboundMetadataSize;
+
+    @Value("${grpc.server.flow-control-window:1048576}")
+    private int flowControlWindow;
+
+    @Value("${grpc.server.keepalive-time:60}")
+    private long keepAliveTimeSeconds;
+
+    @Value("${grpc.server.keepalive-timeout:20}")
+    private long keepAliveTimeoutSeconds;
+
+    @Value("${grpc.server.permit-keepalive-time:30}")
+    private long permitKeepAliveTimeSeconds;
+
+    @Value("${grpc.server.max-connection-idle:300}")
+    private long maxConnectionIdleSeconds;
+
+    @Value("${grpc.server.max-connection-age:1800}")
+    private long maxConnectionAgeSeconds;
+
+    @Value("${grpc.server.max-connection-age-grace:30}")
+    private long maxConnectionAgeGraceSeconds;
+
     @Autowired
     private GrpcAuthService grpcAuthService;
 
     @Autowired
     private GrpcUserService grpcUserService;
 
+    @Autowired
+    private GrpcRequestContextInterceptor grpcRequestContextInterceptor;
+
+    @Autowired
+    private GrpcRateLimitInterceptor grpcRateLimitInterceptor;
+
+    @Bean(destroyMethod = "shutdownGracefully")
+    @Conditional(GrpcEnabledCondition.class)
+    public EventLoopGroup grpcBossGroup() {
+        return eventLoopGroup(bossThreads, "grpc-boss");
+    }
+
+    @Bean(destroyMethod = "shutdownGracefully")
+    @Conditional(GrpcEnabledCondition.class)
+    public EventLoopGroup grpcWorkerGroup() {
+        return eventLoopGroup(workerThreads, "grpc-worker");
+    }
+
+    /**
+     * Пул обработчиков вызовов. Вместо неограниченного кэширующего пула по умолчанию:
+     * при перегрузке вызовы ждут в очереди, а не порождают новые потоки. Вызовы сверх max-size + queue-capacity
+     * получают RESOURCE_EXHAUSTED от {@link GrpcLoadSheddingInterceptor} до постановки в пул.
+     */
     @Bean
     @Conditional(GrpcEnabledCondition.class)
-    public Server grpcServer() {
-        return ServerBuilder.forPort(grpcPort)
+    public Executor grpcExecutor() {
+        if (AsyncConfig.virtualThreadsActive(virtualThreads)) {
+            // Каждый вызов обрабатывается в отдельном виртуальном потоке
+            return new VirtualThreadTaskExecutor("grpc-");
+        }
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(executorCoreSize);
+        executor.setMaxPoolSize(executorMaxSize);
+        executor.setQueueCapacity(executorQueueCapacity);
+        executor.setThreadNamePrefix("grpc-");
+        executor.setWaitForTasksToCompleteOnShutdown(true);
+        executor.setAwaitTerminationSeconds(30);
+        // Задачи принятых вызовов не отклоняются: лишние вызовы отсекает GrpcLoadSheddingInterceptor
+        executor.setRejectedExecutionHandler(GrpcLoadSheddingInterceptor.awaitQueueSlot());
+        executor.initialize();
+        return executor;
+    }
+
+    @Bean
+    @Conditional(GrpcEnabledCondition.class)
+    public Server grpcServer(
+            @Qualifier("grpcBossGroup") EventLoopGroup bossGroup,
+            @Qualifier("grpcWorkerGroup") EventLoopGroup workerGroup,
+            @Qualifier("grpcExecutor") Executor grpcExecutor,
+            ObservationRegistry observationRegistry) {
+        Class<? extends ServerChannel> channelType = useEpoll()
+                ? EpollServerSocketChannel.class
+                : NioServerSocketChannel.class;
+        log.info("gRPC transport: {}, worker threads: {}", useEpoll() ? "epoll" : "nio",
+                workerThreads > 0 ? workerThreads : "default");
+
+        NettyServerBuilder builder = NettyServerBuilder.forPort(grpcPort)
+                .channelType(channelType)
+                .bossEventLoopGroup(bossGroup)
+                .workerEventLoopGroup(workerGroup)
+                .maxConcurrentCallsPerConnection(maxConcurrentCallsPerConnection)
+                .maxInboundMessageSize(maxInboundMessageSize)
+                .maxInboundMetadataSize(maxInboundMetadataSize)
+                .flowControlWindow(flowControlWindow)
+                .keepAliveTime(keepAliveTimeSeconds, TimeUnit.SECONDS)
+                .keepAliveTimeout(keepAliveTimeoutSeconds, TimeUnit.SECONDS)
+                .permitKeepAliveTime(permitKeepAliveTimeSeconds, TimeUnit.SECONDS)
+                .permitKeepAliveWithoutCalls(true)
+                .maxConnectionIdle(maxConnectionIdleSeconds, TimeUnit.SECONDS)
+                .maxConnectionAge(maxConnectionAgeSeconds, TimeUnit.SECONDS)
+                .maxConnectionAgeGrace(maxConnectionAgeGraceSeconds, TimeUnit.SECONDS)
                 .addService(grpcAuthService)
                 .addService(grpcUserService)
                 .addService(ProtoReflectionService.newInstance())
-                .build();
+                .intercept(grpcRequestContextInterceptor)
+                // Интерсепторы вызываются в обратном порядке: rate limit отсекает запрос первым
+                .intercept(grpcRateLimitInterceptor)
+                // Наблюдение вызывается первым: спан вызова начинается с контекста trace из
+                // метаданных клиента, и в нем видны в том числе запросы, отклоненные rate limit
+                .intercept(new ObservationGrpcServerInterceptor(observationRegistry));
+        if (grpcExecutor instanceof ThreadPoolTaskExecutor pool) {
+            // Выбор пула для вызова и сброс нагрузки - в потоке транспорта, до очереди пула.
+            // Интерсептор самый внешний: отклоненный вызов не доходит до наблюдения и rate limit
+            // Отклоненные вызовы закрываются в event loop: это неблокирующая работа
+            GrpcLoadSheddingInterceptor loadShedding =
+                    new GrpcLoadSheddingInterceptor(pool, workerGroup, executorMaxSize + executorQueueCapacity);
+            builder.executor(MoreExecutors.directExecutor())
+                    .addStreamTracerFactory(loadShedding)
+                    .callExecutor(loadShedding)
+                    .intercept(loadShedding);
+        } else {
+            builder.executor(grpcExecutor);
+        }
+        return builder.build();
     }
 
     @Bean
     public GrpcServerRunner grpcServerRunner(Server grpcServer) {
         return new GrpcServerRunner(grpcServer);
     }
-} 
\ No newline at end of file
+
+    private boolean useEpoll() {
+        return nativeTransport && Epoll.isAvailable();
+    }
+
+    private EventLoopGroup eventLoopGroup(int threads, String name) {
+        DefaultThreadFactory threadFactory = new DefaultThreadFactory(name, true);
+        return useEpoll()
+                ? new EpollEventLoopGroup(threads, threadFactory)
+                : new NioEventLoopGroup(threads, threadFactory);
+    }
+}
@@ -0,0 +1,27 @@
+package com.keycloak.userservice.config;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+import java.util.Map;
+
+/**
+ * При transport=reactive запускает приложение на WebFlux (Netty) вместо Tomcat.
+ * Тип веб-приложения нужно выбрать до создания контекста, поэтому он задается здесь,
+ * а не условием на бинах. Явно заданный spring.main.web-application-type имеет приоритет.
+ */
+public class TransportEnvironmentPostProcessor implements EnvironmentPostProcessor {
+
+    private static final String PROPERTY_SOURCE_NAME = "transportWebApplicationType";
+
+    @Override
+    public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+        String transport = environment.getProperty("transport", "http");
+        if ("reactive".equalsIgnoreCase(transport)) {
+            environment.getPropertySources().addLast(new MapPropertySource(PROPERTY_SOURCE_NAME,
+                    Map.of("spring.main.web-application-type", "reactive")));
+        }
+    }
+}
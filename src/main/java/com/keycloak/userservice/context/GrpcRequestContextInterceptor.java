@@ -0,0 +1,65 @@
+package com.keycloak.userservice.context;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Фиксирует {@link RequestContext} один раз на gRPC-вызов и кладет его в {@link Context},
+ * который gRPC сам переносит между потоками обработки вызова. Дедлайн и отмена вызова
+ * попадают в контекст как {@link RequestDeadline}.
+ */
+@Component
+public class GrpcRequestContextInterceptor implements ServerInterceptor {
+
+    static final Context.Key<RequestContext> REQUEST_CONTEXT_KEY = Context.key("request-context");
+    public static final Context.Key<String> IDEMPOTENCY_KEY = Context.key("idempotency-key");
+
+    private static final Metadata.Key<String> USER_AGENT =
+            Metadata.Key.of("user-agent", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> X_FORWARDED_FOR =
+            Metadata.Key.of("x-forwarded-for", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> IDEMPOTENCY_KEY_HEADER =
+            Metadata.Key.of("idempotency-key", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final TrustedProxies trustedProxies;
+
+    public GrpcRequestContextInterceptor(TrustedProxies trustedProxies) {
+        this.trustedProxies = trustedProxies;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        RequestContext requestContext = new RequestContext(
+                RequestContext.SOURCE_API,
+                trustedProxies.resolveClientIp(forwardedFor(headers), peerAddress(call)),
+                headers.containsKey(USER_AGENT) ? headers.get(USER_AGENT) : "unknown",
+                RequestDeadline.fromGrpc(Context.current()));
+        Context context = Context.current()
+                .withValue(REQUEST_CONTEXT_KEY, requestContext)
+                .withValue(IDEMPOTENCY_KEY, headers.get(IDEMPOTENCY_KEY_HEADER));
+        return Contexts.interceptCall(context, call, headers, next);
+    }
+
+    private static String forwardedFor(Metadata headers) {
+        Iterable<String> values = headers.getAll(X_FORWARDED_FOR);
+        return values != null ? String.join(",", values) : null;
+    }
+
+    private static String peerAddress(ServerCall<?, ?> call) {
+        SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        if (address instanceof InetSocketAddress inetAddress && inetAddress.getAddress() != null) {
+            return inetAddress.getAddress().getHostAddress();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,63 @@
+package com.keycloak.userservice.context;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Фиксирует {@link RequestContext} один раз на запрос WebFlux. Запрос обрабатывается
+ * в разных потоках event loop, поэтому контекст хранится в контексте Reactor, а не в ThreadLocal.
+ * Разрыв соединения клиентом отменяет подписку, поэтому отдельная отметка отмены здесь не нужна.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class ReactiveRequestContextFilter implements WebFilter {
+
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final TrustedProxies trustedProxies;
+
+    public ReactiveRequestContextFilter(
+            @Value("${request.default-timeout:0}") long defaultTimeoutMillis,
+            @Value("${request.max-timeout:60000}") long maxTimeoutMillis,
+            TrustedProxies trustedProxies) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.trustedProxies = trustedProxies;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        InetSocketAddress remoteAddress = request.getRemoteAddress();
+        List<String> forwardedFor = request.getHeaders().get("X-Forwarded-For");
+        RequestContext context = RequestContext.of(
+                request.getHeaders().getFirst("User-Agent"),
+                trustedProxies.resolveClientIp(
+                        forwardedFor != null ? String.join(",", forwardedFor) : null,
+                        remoteAddress != null && remoteAddress.getAddress() != null
+                                ? remoteAddress.getAddress().getHostAddress()
+                                : null),
+                RequestDeadline.fromTimeoutHeader(request.getHeaders().getFirst(RequestDeadline.TIMEOUT_HEADER),
+                        defaultTimeoutMillis, maxTimeoutMillis));
+        return chain.filter(exchange).contextWrite(ctx -> ctx.put(RequestContext.class, context));
+    }
+
+    /**
+     * Возвращает контекст текущего реактивного запроса или {@link RequestContext#SYSTEM}
+     */
+    public static Mono<RequestContext> current() {
+        return Mono.deferContextual(ctx -> Mono.just(ctx.getOrDefault(RequestContext.class, RequestContext.SYSTEM)));
+    }
+}
@@ -0,0 +1,96 @@
+package com.keycloak.userservice.context;
+
+import java.util.function.Supplier;
+
+/**
+ * Неизменяемый контекст входящего запроса (источник, IP-адрес и User-Agent клиента, срок ответа).
+ * Заполняется один раз на запрос фильтром HTTP или gRPC-интерсептором и явно передается
+ * в асинхронные потоки через {@link #wrap(Runnable)} / {@link #wrap(Supplier)}.
+ */
+public record RequestContext(String source, String ipAddress, String userAgent, RequestDeadline deadline) {
+
+    public static final String SOURCE_API = "API";
+    public static final String SOURCE_UI = "UI";
+    public static final String SOURCE_SYSTEM = "SYSTEM";
+
+    public static final RequestContext SYSTEM = new RequestContext(SOURCE_SYSTEM, "unknown", "unknown");
+
+    private static final ThreadLocal<RequestContext> CURRENT = new ThreadLocal<>();
+
+    public RequestContext(String source, String ipAddress, String userAgent) {
+        this(source, ipAddress, userAgent, RequestDeadline.NONE);
+    }
+
+    /**
+     * Возвращает контекст текущего запроса или {@link #SYSTEM}, если запрос отсутствует
+     */
+    public static RequestContext current() {
+        RequestContext context = CURRENT.get();
+        if (context != null) {
+            return context;
+        }
+        context = GrpcRequestContextInterceptor.REQUEST_CONTEXT_KEY.get();
+        return context != null ? context : SYSTEM;
+    }
+
+    /**
+     * Выполняет операцию с указанным контекстом, восстанавливая предыдущий по завершении
+     */
+    public static void runWith(RequestContext context, Runnable runnable) {
+        RequestContext previous = bind(context);
+        try {
+            runnable.run();
+        } finally {
+            restore(previous);
+        }
+    }
+
+    /**
+     * Связывает задачу с контекстом вызывающего потока для выполнения в другом потоке
+     */
+    public static Runnable wrap(Runnable runnable) {
+        RequestContext context = current();
+        return () -> runWith(context, runnable);
+    }
+
+    public static <T> Supplier<T> wrap(Supplier<T> supplier) {
+        RequestContext context = current();
+        return () -> {
+            RequestContext previous = bind(context);
+            try {
+                return supplier.get();
+            } finally {
+                restore(previous);
+            }
+        };
+    }
+
+    /**
+     * Срок ответа текущего запроса; проверяется между вызовами Keycloak
+     */
+    public static RequestDeadline currentDeadline() {
+        return current().deadline();
+    }
+
+    /**
+     * @param ipAddress адрес клиента, определенный {@link TrustedProxies}
+     */
+    static RequestContext of(String userAgent, String ipAddress, RequestDeadline deadline) {
+        String source = userAgent != null && userAgent.contains("Postman") ? SOURCE_API : SOURCE_UI;
+        return new RequestContext(source, ipAddress, userAgent != null ? userAgent : "unknown", deadline);
+    }
+
+    static RequestContext bind(RequestContext context) {
+        RequestContext previous = CURRENT.get();
+        CURRENT.set(context);
+        return previous;
+    }
+
+    static void restore(RequestContext previous) {
+        if (previous != null) {
+            CURRENT.set(previous);
+        } else {
+            CURRENT.remove();
+        }
+    }
+}
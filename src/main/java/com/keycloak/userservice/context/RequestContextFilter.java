@@ -0,0 +1,61 @@
+package com.keycloak.userservice.context;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Фиксирует {@link RequestContext} один раз на HTTP-запрос. Срок ответа задается заголовком
+ * {@value RequestDeadline#TIMEOUT_HEADER} (мс) или request.default-timeout.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class RequestContextFilter extends OncePerRequestFilter {
+
+    private final long defaultTimeoutMillis;
+    private final long maxTimeoutMillis;
+    private final TrustedProxies trustedProxies;
+
+    public RequestContextFilter(
+            @Value("${request.default-timeout:0}") long defaultTimeoutMillis,
+            @Value("${request.max-timeout:60000}") long maxTimeoutMillis,
+            TrustedProxies trustedProxies) {
+        this.defaultTimeoutMillis = defaultTimeoutMillis;
+        this.maxTimeoutMillis = maxTimeoutMillis;
+        this.trustedProxies = trustedProxies;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestContext context = RequestContext.of(
+                request.getHeader("User-Agent"),
+                trustedProxies.resolveClientIp(
+                        String.join(",", Collections.list(request.getHeaders("X-Forwarded-For"))),
+                        request.getRemoteAddr()),
+                RequestDeadline.fromTimeoutHeader(request.getHeader(RequestDeadline.TIMEOUT_HEADER),
+                        defaultTimeoutMillis, maxTimeoutMillis));
+        RequestContext previous = RequestContext.bind(context);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            RequestContext.restore(previous);
+        }
+    }
+
+    @Override
+    protected boolean shouldNotFilterAsyncDispatch() {
+        return false;
+    }
+}
@@ -0,0 +1,180 @@
+package com.keycloak.userservice.context;
+
+import io.grpc.Context;
+import io.grpc.Deadline;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Срок ответа и отмена входящего запроса. Берется из дедлайна gRPC-вызова
+ * или из заголовка {@value #TIMEOUT_HEADER} HTTP-запроса и переносится вместе с {@link RequestContext}.
+ * Сервисный слой ограничивает им ожидание блокировок и проверяет его между вызовами Keycloak,
+ * чтобы не продолжать работу для клиента, который уже не ждет ответа.
+ */
+public final class RequestDeadline {
+
+    public static final String TIMEOUT_HEADER = "X-Request-Timeout";
+
+    // Нестандартный статус nginx «клиент закрыл соединение»: ответ все равно никто не прочитает
+    public static final HttpStatusCode CLIENT_CLOSED_REQUEST = HttpStatusCode.valueOf(499);
+
+    public static final RequestDeadline NONE = new RequestDeadline(Long.MAX_VALUE, null);
+
+    // Момент истечения по System.nanoTime(); Long.MAX_VALUE — без ограничения
+    private final long deadlineNanos;
+    private final Context grpcContext;
+
+    private RequestDeadline(long deadlineNanos, Context grpcContext) {
+        this.deadlineNanos = deadlineNanos;
+        this.grpcContext = grpcContext;
+    }
+
+    /**
+     * Дедлайн и отмена gRPC-вызова. Контекст вызова отменяется и по истечении дедлайна,
+     * и при разрыве соединения клиентом.
+     */
+    public static RequestDeadline fromGrpc(Context context) {
+        Deadline deadline = context.getDeadline();
+        long deadlineNanos = deadline != null
+                ? saturatedAdd(System.nanoTime(), deadline.timeRemaining(TimeUnit.NANOSECONDS))
+                : Long.MAX_VALUE;
+        return new RequestDeadline(deadlineNanos, context);
+    }
+
+    /**
+     * Дедлайн HTTP-запроса из значения заголовка {@value #TIMEOUT_HEADER} в миллисекундах
+     *
+     * @param headerValue значение заголовка или null
+     * @param defaultTimeoutMillis срок, если заголовок не передан или некорректен; 0 — без ограничения
+     * @param maxTimeoutMillis верхняя граница срока, заданного клиентом
+     */
+    public static RequestDeadline fromTimeoutHeader(String headerValue, long defaultTimeoutMillis, long maxTimeoutMillis) {
+        long timeoutMillis = defaultTimeoutMillis;
+        if (headerValue != null) {
+            try {
+                long requested = Long.parseLong(headerValue.trim());
+                if (requested > 0) {
+                    timeoutMillis = Math.min(requested, maxTimeoutMillis);
+                }
+            } catch (NumberFormatException ignored) {
+                // Некорректный заголовок не должен ломать запрос, используем срок по умолчанию
+            }
+        }
+        if (timeoutMillis <= 0) {
+            return NONE;
+        }
+        return new RequestDeadline(saturatedAdd(System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(timeoutMillis)), null);
+    }
+
+    public boolean isBounded() {
+        return deadlineNanos != Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return isBounded() && System.nanoTime() - deadlineNanos >= 0;
+    }
+
+    public boolean isCancelled() {
+        return grpcContext != null && grpcContext.isCancelled();
+    }
+
+    public long remainingMillis() {
+        if (!isBounded()) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+    }
+
+    /**
+     * Оставшееся время или null, если срок не ограничен
+     */
+    public Duration remaining() {
+        return isBounded() ? Duration.ofMillis(remainingMillis()) : null;
+    }
+
+    /**
+     * Ограничивает время ожидания оставшимся сроком запроса
+     */
+    public long clampMillis(long timeoutMillis) {
+        return Math.min(timeoutMillis, remainingMillis());
+    }
+
+    /**
+     * Прерывает работу, если срок истек или клиент отменил запрос
+     *
+     * @throws ResponseStatusException 504 по истечении срока, 499 при отмене клиентом
+     */
+    public void check() {
+        if (isExpired()) {
+            throw exceeded();
+        }
+        if (isCancelled()) {
+            throw cancelled();
+        }
+    }
+
+    public static ResponseStatusException exceeded() {
+        return new ResponseStatusException(HttpStatus.GATEWAY_TIMEOUT, "Истек срок ожидания ответа клиентом");
+    }
+
+    public static ResponseStatusException cancelled() {
+        return new ResponseStatusException(CLIENT_CLOSED_REQUEST, "Запрос отменен клиентом");
+    }
+
+    /**
+     * Прерывает текущий поток при отмене запроса, пока не будет вызван возвращенный Runnable.
+     * Нужен для длительных ожиданий (блокировки), которые не проверяют отмену сами.
+     * Возвращенный Runnable вызывается в том же потоке: после него поток больше не прерывается,
+     * а выставленный подпиской флаг прерывания сброшен. Отмена, пришедшая уже после окончания
+     * ожидания, иначе сорвала бы освобождение блокировки и досталась бы следующей задаче пула;
+     * о самой отмене сообщает {@link #check()}.
+     *
+     * @return снятие подписки на отмену
+     */
+    public Runnable interruptOnCancel() {
+        if (grpcContext == null) {
+            return () -> {};
+        }
+        InterruptOnCancel listener = new InterruptOnCancel(Thread.currentThread());
+        grpcContext.addListener(listener, Runnable::run);
+        return () -> {
+            grpcContext.removeListener(listener);
+            listener.stop();
+        };
+    }
+
+    private static final class InterruptOnCancel implements Context.CancellationListener {
+
+        private final Thread waiter;
+        private boolean active = true;
+        private boolean interrupted;
+
+        InterruptOnCancel(Thread waiter) {
+            this.waiter = waiter;
+        }
+
+        @Override
+        public synchronized void cancelled(Context context) {
+            if (active) {
+                interrupted = true;
+                waiter.interrupt();
+            }
+        }
+
+        synchronized void stop() {
+            active = false;
+            if (interrupted) {
+                Thread.interrupted();
+            }
+        }
+    }
+
+    private static long saturatedAdd(long base, long delta) {
+        long result = base + delta;
+        return ((base ^ result) & (delta ^ result)) < 0 ? Long.MAX_VALUE : result;
+    }
+}
@@ -0,0 +1,75 @@
+package com.keycloak.userservice.context;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.web.util.matcher.IpAddressMatcher;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Определение IP-адреса клиента. X-Forwarded-For учитывается, только если соединение пришло
+ * от доверенного прокси (request.trusted-proxies, адреса и CIDR); цепочка разбирается справа налево
+ * до первого недоверенного адреса, поэтому адрес, подставленный самим клиентом, не принимается.
+ * Без доверенного прокси используется адрес соединения.
+ */
+@Component
+public class TrustedProxies {
+
+    // Только IP-литералы: имя хоста в заголовке привело бы к DNS-запросу при сравнении
+    private static final Pattern IPV4_LITERAL = Pattern.compile("\\d{1,3}(\\.\\d{1,3}){3}");
+    private static final Pattern IPV6_LITERAL = Pattern.compile("[0-9A-Fa-f]*:[0-9A-Fa-f:.]*");
+
+    private final List<IpAddressMatcher> proxies;
+
+    public TrustedProxies(@Value("${request.trusted-proxies:}") List<String> proxies) {
+        this.proxies = proxies.stream()
+                .map(String::trim)
+                .filter(proxy -> !proxy.isEmpty())
+                .map(IpAddressMatcher::new)
+                .toList();
+    }
+
+    /**
+     * @param forwardedFor значения X-Forwarded-For через запятую, может быть null
+     * @param remoteAddr адрес соединения
+     * @return адрес клиента или "unknown"
+     */
+    public String resolveClientIp(String forwardedFor, String remoteAddr) {
+        if (remoteAddr == null) {
+            return "unknown";
+        }
+        if (forwardedFor == null || forwardedFor.isBlank() || !isTrusted(remoteAddr)) {
+            return remoteAddr;
+        }
+        String client = remoteAddr;
+        String[] hops = forwardedFor.split(",");
+        for (int i = hops.length - 1; i >= 0; i--) {
+            String hop = hops[i].trim();
+            if (!isIpLiteral(hop)) {
+                break;
+            }
+            client = hop;
+            if (!isTrusted(hop)) {
+                break;
+            }
+        }
+        return client;
+    }
+
+    private boolean isTrusted(String address) {
+        if (!isIpLiteral(address)) {
+            return false;
+        }
+        for (IpAddressMatcher proxy : proxies) {
+            if (proxy.matches(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIpLiteral(String address) {
+        return IPV4_LITERAL.matcher(address).matches() || IPV6_LITERAL.matcher(address).matches();
+    }
+}
@@ -4,28 +4,43 @@ import com.keycloak.userservice.dto.AuthRequestDTO;
 import com.keycloak.userservice.dto.AuthResponseDTO;
 import com.keycloak.userservice.dto.RefreshTokenRequestDTO;
 import com.keycloak.userservice.dto.RegistrationRequestDTO;
+import com.keycloak.userservice.dto.TokenBatchValidationRequestDTO;
+import com.keycloak.userservice.dto.TokenValidationDTO;
+import com.keycloak.userservice.dto.TokenValidationRequestDTO;
 import com.keycloak.userservice.service.AuthService;
+import com.keycloak.userservice.service.TokenValidationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import jakarta.validation.Valid;
 
+import java.util.List;
+
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/auth")
 public class AuthController {
 
     private static final Logger log = LoggerFactory.getLogger(AuthController.class);
     private final AuthService authService;
+    private final TokenValidationService tokenValidationService;
 
     @Autowired
-    public AuthController(AuthService authService) {
+    public AuthController(AuthService authService, TokenValidationService tokenValidationService) {
         this.authService = authService;
+        this.tokenValidationService = tokenValidationService;
     }
 
     @PostMapping("/login")
@@ -41,8 +56,33 @@ public class AuthController {
     }
 
     @PostMapping("/register")
-    public ResponseEntity<AuthResponseDTO> register(@Valid @RequestBody RegistrationRequestDTO request) {
+    public ResponseEntity<AuthResponseDTO> register(
+            @Valid @RequestBody RegistrationRequestDTO request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
         log.info("Запрос на регистрацию пользователя: {}", request.username);
-        return ResponseEntity.ok(authService.register(request));
+        return ResponseEntity.ok(authService.register(request, idempotencyKey));
+    }
+
+    /**
+     * Завершает сессию Keycloak и отзывает access-токен, с которым выполнен запрос
+     */
+    @PostMapping("/logout")
+    public ResponseEntity<Void> logout(@AuthenticationPrincipal Jwt jwt) {
+        if (jwt == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Требуется access-токен");
+        }
+        log.info("Запрос на выход пользователя: {}", jwt.getSubject());
+        authService.logout(jwt);
+        return ResponseEntity.ok().build();
+    }
+
+    @PostMapping("/token/validate")
+    public ResponseEntity<TokenValidationDTO> validateToken(@Valid @RequestBody TokenValidationRequestDTO request) {
+        return ResponseEntity.ok(tokenValidationService.validate(request.token, request.audience));
+    }
+
+    @PostMapping("/token/validate:batch")
+    public ResponseEntity<List<TokenValidationDTO>> validateTokens(@Valid @RequestBody TokenBatchValidationRequestDTO request) {
+        return ResponseEntity.ok(tokenValidationService.validateAll(request.tokens, request.audience));
     }
-} 
\ No newline at end of file
+}
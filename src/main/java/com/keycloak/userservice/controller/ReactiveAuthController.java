@@ -0,0 +1,94 @@
+package com.keycloak.userservice.controller;
+
+import com.keycloak.userservice.dto.AuthRequestDTO;
+import com.keycloak.userservice.dto.AuthResponseDTO;
+import com.keycloak.userservice.dto.RefreshTokenRequestDTO;
+import com.keycloak.userservice.dto.RegistrationRequestDTO;
+import com.keycloak.userservice.dto.TokenBatchValidationRequestDTO;
+import com.keycloak.userservice.dto.TokenValidationDTO;
+import com.keycloak.userservice.dto.TokenValidationRequestDTO;
+import com.keycloak.userservice.service.ReactiveAuthService;
+import com.keycloak.userservice.service.TokenValidationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import jakarta.validation.Valid;
+
+import java.util.List;
+
+import static com.keycloak.userservice.util.ReactiveCallGuard.callBlocking;
+
+/**
+ * WebFlux-аналог {@link AuthController} для transport=reactive
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/auth")
+public class ReactiveAuthController {
+
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAuthController.class);
+    private final ReactiveAuthService authService;
+    private final TokenValidationService tokenValidationService;
+
+    @Autowired
+    public ReactiveAuthController(ReactiveAuthService authService, TokenValidationService tokenValidationService) {
+        this.authService = authService;
+        this.tokenValidationService = tokenValidationService;
+    }
+
+    @PostMapping("/login")
+    public Mono<ResponseEntity<AuthResponseDTO>> login(@Valid @RequestBody AuthRequestDTO request) {
+        log.info("Запрос на аутентификацию пользователя: {}", request.username);
+        return authService.login(request).map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/refresh")
+    public Mono<ResponseEntity<AuthResponseDTO>> refreshToken(@Valid @RequestBody RefreshTokenRequestDTO request) {
+        log.info("Запрос на обновление токена");
+        return authService.refreshToken(request).map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/register")
+    public Mono<ResponseEntity<AuthResponseDTO>> register(
+            @Valid @RequestBody RegistrationRequestDTO request,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        log.info("Запрос на регистрацию пользователя: {}", request.username);
+        return authService.register(request, idempotencyKey).map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/logout")
+    public Mono<ResponseEntity<Void>> logout(@AuthenticationPrincipal Jwt jwt) {
+        if (jwt == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Требуется access-токен");
+        }
+        log.info("Запрос на выход пользователя: {}", jwt.getSubject());
+        return authService.logout(jwt).thenReturn(ResponseEntity.ok().build());
+    }
+
+    /**
+     * Проверка токена не обращается к сети, кроме редкого обновления JWKS,
+     * но декодер блокирующий, поэтому вызов выполняется вне event loop
+     */
+    @PostMapping("/token/validate")
+    public Mono<ResponseEntity<TokenValidationDTO>> validateToken(@Valid @RequestBody TokenValidationRequestDTO request) {
+        return callBlocking(() -> tokenValidationService.validate(request.token, request.audience)).map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/token/validate:batch")
+    public Mono<ResponseEntity<List<TokenValidationDTO>>> validateTokens(@Valid @RequestBody TokenBatchValidationRequestDTO request) {
+        return callBlocking(() -> tokenValidationService.validateAll(request.tokens, request.audience)).map(ResponseEntity::ok);
+    }
+}
@@ -0,0 +1,108 @@
+package com.keycloak.userservice.controller;
+
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.dto.UserBatchGetRequestDTO;
+import com.keycloak.userservice.dto.UserLookupDTO;
+import com.keycloak.userservice.service.ReactiveKeycloakService;
+import com.keycloak.userservice.util.ProfileETags;
+import jakarta.validation.Valid;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * WebFlux-аналог {@link UserController} для transport=reactive
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequestMapping("/api/v1")
+public class ReactiveUserController {
+
+    private final ReactiveKeycloakService keycloakService;
+
+    @Autowired
+    public ReactiveUserController(ReactiveKeycloakService keycloakService) {
+        this.keycloakService = keycloakService;
+    }
+
+    /**
+     * При совпадении If-None-Match с ETag профиля отвечает 304; актуальный профиль из кэша
+     * проверяется без обращения к Keycloak
+     */
+    @GetMapping("/me")
+    @PreAuthorize("hasRole('user')")
+    public Mono<ResponseEntity<KeycloakUserDTO>> getMyProfile(
+            @RequestHeader("X-User-ID") String userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Mono<KeycloakUserDTO> user = ifNoneMatch == null
+                ? keycloakService.getUser(userId)
+                : keycloakService.getCurrentUser(userId);
+        return user.map(profile -> ProfileETags.respond(ifNoneMatch, profile));
+    }
+
+    @PutMapping("/me")
+    @PreAuthorize("hasRole('user')")
+    public Mono<ResponseEntity<Void>> updateMyProfile(
+            @RequestHeader("X-User-ID") String userId,
+            @Valid @RequestBody KeycloakUserDTO userDTO) {
+        userDTO.setEnabled(true);
+        return keycloakService.updateUser(userId, userDTO).thenReturn(ResponseEntity.ok().build());
+    }
+
+    @DeleteMapping("/me")
+    @PreAuthorize("hasRole('user')")
+    public Mono<ResponseEntity<Void>> deactivateMyProfile(@RequestHeader("X-User-ID") String userId) {
+        return keycloakService.getUser(userId)
+                .flatMap(userDTO -> {
+                    userDTO.setEnabled(false);
+                    return keycloakService.updateUser(userId, userDTO);
+                })
+                .thenReturn(ResponseEntity.ok().build());
+    }
+
+    @GetMapping("/admin/users")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<List<KeycloakUserDTO>>> getAllUsers() {
+        return keycloakService.getAllUsers().map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/admin/users:batchGet")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<List<UserLookupDTO>>> getUsersByIds(@Valid @RequestBody UserBatchGetRequestDTO request) {
+        return keycloakService.getUsersByIds(request.userIds).map(ResponseEntity::ok);
+    }
+
+    @PostMapping("/admin/users")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<String>> createUser(
+            @Valid @RequestBody KeycloakUserDTO userDTO,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        return keycloakService.createUser(userDTO, idempotencyKey).map(ResponseEntity::ok);
+    }
+
+    @PutMapping("/admin/users/{userId}")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<Void>> updateUser(
+            @PathVariable String userId,
+            @Valid @RequestBody KeycloakUserDTO userDTO) {
+        return keycloakService.updateUser(userId, userDTO).thenReturn(ResponseEntity.ok().build());
+    }
+
+    @PostMapping("/admin/users/{userId}/sessions:revoke")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<Void>> revokeUserSessions(@PathVariable String userId) {
+        return keycloakService.revokeUserSessions(userId).thenReturn(ResponseEntity.ok().build());
+    }
+
+    @DeleteMapping("/admin/users/{userId}")
+    @PreAuthorize("hasRole('admin')")
+    public Mono<ResponseEntity<Void>> deleteUser(@PathVariable String userId) {
+        return keycloakService.deleteUser(userId).thenReturn(ResponseEntity.ok().build());
+    }
+}
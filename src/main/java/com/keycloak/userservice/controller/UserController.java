@@ -1,16 +1,23 @@
 package com.keycloak.userservice.controller;
 
 import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.dto.UserBatchGetRequestDTO;
+import com.keycloak.userservice.dto.UserLookupDTO;
 import com.keycloak.userservice.service.KeycloakService;
+import com.keycloak.userservice.util.ProfileETags;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
-import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.access.annotation.Secured;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/v1")
 public class UserController {
 
@@ -21,14 +28,23 @@ public class UserController {
         this.keycloakService = keycloakService;
     }
 
+    /**
+     * При совпадении If-None-Match с ETag профиля отвечает 304; актуальный профиль из кэша
+     * проверяется без обращения к Keycloak
+     */
     @GetMapping("/me")
-    @PreAuthorize("hasRole('user')")
-    public ResponseEntity<KeycloakUserDTO> getMyProfile(@RequestHeader("X-User-ID") String userId) {
-        return ResponseEntity.ok(keycloakService.getUser(userId));
+    @Secured("ROLE_user")
+    public CompletableFuture<ResponseEntity<KeycloakUserDTO>> getMyProfile(
+            @RequestHeader("X-User-ID") String userId,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        CompletableFuture<KeycloakUserDTO> user = ifNoneMatch == null
+                ? keycloakService.getUserAsync(userId)
+                : keycloakService.getCurrentUserAsync(userId);
+        return user.thenApply(profile -> ProfileETags.respond(ifNoneMatch, profile));
     }
 
     @PutMapping("/me")
-    @PreAuthorize("hasRole('user')")
+    @Secured("ROLE_user")
     public ResponseEntity<Void> updateMyProfile(
             @RequestHeader("X-User-ID") String userId,
             @Valid @RequestBody KeycloakUserDTO userDTO) {
@@ -38,7 +54,7 @@ public class UserController {
     }
 
     @DeleteMapping("/me")
-    @PreAuthorize("hasRole('user')")
+    @Secured("ROLE_user")
     public ResponseEntity<Void> deactivateMyProfile(@RequestHeader("X-User-ID") String userId) {
         KeycloakUserDTO userDTO = keycloakService.getUser(userId);
         userDTO.setEnabled(false);
@@ -47,20 +63,28 @@ public class UserController {
     }
 
     @GetMapping("/admin/users")
-    @PreAuthorize("hasRole('admin')")
+    @Secured("ROLE_admin")
     public ResponseEntity<List<KeycloakUserDTO>> getAllUsers() {
         return ResponseEntity.ok(keycloakService.getAllUsers());
     }
 
+    @PostMapping("/admin/users:batchGet")
+    @Secured("ROLE_admin")
+    public ResponseEntity<List<UserLookupDTO>> getUsersByIds(@Valid @RequestBody UserBatchGetRequestDTO request) {
+        return ResponseEntity.ok(keycloakService.getUsersByIds(request.userIds));
+    }
+
     @PostMapping("/admin/users")
-    @PreAuthorize("hasRole('admin')")
-    public ResponseEntity<String> createUser(@Valid @RequestBody KeycloakUserDTO userDTO) {
-        String userId = keycloakService.createUser(userDTO);
+    @Secured("ROLE_admin")
+    public ResponseEntity<String> createUser(
+            @Valid @RequestBody KeycloakUserDTO userDTO,
+            @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey) {
+        String userId = keycloakService.createUser(userDTO, idempotencyKey);
         return ResponseEntity.ok(userId);
     }
 
     @PutMapping("/admin/users/{userId}")
-    @PreAuthorize("hasRole('admin')")
+    @Secured("ROLE_admin")
     public ResponseEntity<Void> updateUser(
             @PathVariable String userId,
             @Valid @RequestBody KeycloakUserDTO userDTO) {
@@ -68,8 +92,15 @@ public class UserController {
         return ResponseEntity.ok().build();
     }
 
+    @PostMapping("/admin/users/{userId}/sessions:revoke")
+    @Secured("ROLE_admin")
+    public ResponseEntity<Void> revokeUserSessions(@PathVariable String userId) {
+        keycloakService.revokeUserSessions(userId);
+        return ResponseEntity.ok().build();
+    }
+
     @DeleteMapping("/admin/users/{userId}")
-    @PreAuthorize("hasRole('admin')")
+    @Secured("ROLE_admin")
     public ResponseEntity<Void> deleteUser(@PathVariable String userId) {
         keycloakService.deleteUser(userId);
         return ResponseEntity.ok().build();
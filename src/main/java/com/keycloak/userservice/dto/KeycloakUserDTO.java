@@ -33,6 +33,9 @@ public class KeycloakUserDTO {
     private String phoneNumber;
     private String preferences;
 
+    // Версия профиля в кэше этого сервиса, для согласованности кэша; в запросах на изменение не учитывается
+    private Long version;
+
     public String getId() {
         return id;
     }
@@ -120,4 +123,12 @@ public class KeycloakUserDTO {
     public void setPreferences(String preferences) {
         this.preferences = preferences;
     }
-} 
\ No newline at end of file
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+}
\ No newline at end of file
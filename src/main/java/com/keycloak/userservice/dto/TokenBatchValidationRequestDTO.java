@@ -0,0 +1,21 @@
+package com.keycloak.userservice.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class TokenBatchValidationRequestDTO {
+
+    @NotEmpty(message = "Список токенов обязателен")
+    public List<String> tokens;
+
+    public String audience;
+
+    public TokenBatchValidationRequestDTO() {
+    }
+
+    public TokenBatchValidationRequestDTO(List<String> tokens, String audience) {
+        this.tokens = tokens;
+        this.audience = audience;
+    }
+}
@@ -0,0 +1,38 @@
+package com.keycloak.userservice.dto;
+
+import java.util.List;
+
+/**
+ * Результат локальной проверки токена: subject, username и roles заполнены только при valid = true,
+ * error — только при valid = false
+ */
+public class TokenValidationDTO {
+
+    public boolean valid;
+    public String subject;
+    public String username;
+    public List<String> roles;
+    public Long expiresAt;
+    public String error;
+
+    public TokenValidationDTO() {
+    }
+
+    public TokenValidationDTO(boolean valid, String subject, String username, List<String> roles,
+                              Long expiresAt, String error) {
+        this.valid = valid;
+        this.subject = subject;
+        this.username = username;
+        this.roles = roles;
+        this.expiresAt = expiresAt;
+        this.error = error;
+    }
+
+    public static TokenValidationDTO valid(String subject, String username, List<String> roles, Long expiresAt) {
+        return new TokenValidationDTO(true, subject, username, roles, expiresAt, null);
+    }
+
+    public static TokenValidationDTO invalid(String error) {
+        return new TokenValidationDTO(false, null, null, List.of(), null, error);
+    }
+}
@@ -0,0 +1,19 @@
+package com.keycloak.userservice.dto;
+
+import jakarta.validation.constraints.NotBlank;
+
+public class TokenValidationRequestDTO {
+
+    @NotBlank(message = "Токен обязателен")
+    public String token;
+
+    public String audience;
+
+    public TokenValidationRequestDTO() {
+    }
+
+    public TokenValidationRequestDTO(String token, String audience) {
+        this.token = token;
+        this.audience = audience;
+    }
+}
@@ -0,0 +1,19 @@
+package com.keycloak.userservice.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+
+import java.util.List;
+
+public class UserBatchGetRequestDTO {
+
+    @NotEmpty(message = "Список идентификаторов обязателен")
+    public List<@NotBlank(message = "Идентификатор пользователя не может быть пустым") String> userIds;
+
+    public UserBatchGetRequestDTO() {
+    }
+
+    public UserBatchGetRequestDTO(List<String> userIds) {
+        this.userIds = userIds;
+    }
+}
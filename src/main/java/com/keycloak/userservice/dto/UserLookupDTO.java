@@ -0,0 +1,28 @@
+package com.keycloak.userservice.dto;
+
+/**
+ * Результат пакетного поиска пользователя: user заполнен только при found = true
+ */
+public class UserLookupDTO {
+
+    public String userId;
+    public boolean found;
+    public KeycloakUserDTO user;
+
+    public UserLookupDTO() {
+    }
+
+    public UserLookupDTO(String userId, boolean found, KeycloakUserDTO user) {
+        this.userId = userId;
+        this.found = found;
+        this.user = user;
+    }
+
+    public static UserLookupDTO found(String userId, KeycloakUserDTO user) {
+        return new UserLookupDTO(userId, true, user);
+    }
+
+    public static UserLookupDTO notFound(String userId) {
+        return new UserLookupDTO(userId, false, null);
+    }
+}
@@ -1,22 +1,34 @@
 package com.keycloak.userservice.grpc;
 
+import com.keycloak.userservice.context.GrpcRequestContextInterceptor;
 import com.keycloak.userservice.dto.AuthRequestDTO;
 import com.keycloak.userservice.dto.AuthResponseDTO;
 import com.keycloak.userservice.dto.RefreshTokenRequestDTO;
 import com.keycloak.userservice.dto.RegistrationRequestDTO;
+import com.keycloak.userservice.dto.TokenValidationDTO;
 import com.keycloak.userservice.service.AuthService;
+import com.keycloak.userservice.service.TokenValidationService;
+import io.grpc.Status;
 import io.grpc.stub.StreamObserver;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.stereotype.Service;
 
 @Service
 public class GrpcAuthService extends AuthServiceGrpc.AuthServiceImplBase {
 
     private final AuthService authService;
+    private final TokenValidationService tokenValidationService;
+    private final JwtDecoder jwtDecoder;
 
     @Autowired
-    public GrpcAuthService(AuthService authService) {
+    public GrpcAuthService(AuthService authService, TokenValidationService tokenValidationService,
+                           JwtDecoder jwtDecoder) {
         this.authService = authService;
+        this.tokenValidationService = tokenValidationService;
+        this.jwtDecoder = jwtDecoder;
     }
 
     @Override
@@ -38,7 +50,7 @@ public class GrpcAuthService extends AuthServiceGrpc.AuthServiceImplBase {
             responseObserver.onNext(grpcResponse);
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
@@ -63,7 +75,7 @@ public class GrpcAuthService extends AuthServiceGrpc.AuthServiceImplBase {
             responseObserver.onNext(grpcResponse);
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
@@ -79,7 +91,8 @@ public class GrpcAuthService extends AuthServiceGrpc.AuthServiceImplBase {
                     request.getPhoneNumber()
             );
             
-            AuthResponseDTO response = authService.register(registerRequest);
+            AuthResponseDTO response = authService.register(registerRequest,
+                    GrpcRequestContextInterceptor.IDEMPOTENCY_KEY.get());
             
             AuthResponse grpcResponse = AuthResponse.newBuilder()
                     .setAccessToken(response.accessToken)
@@ -94,7 +107,64 @@ public class GrpcAuthService extends AuthServiceGrpc.AuthServiceImplBase {
             responseObserver.onNext(grpcResponse);
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
-} 
\ No newline at end of file
+
+    @Override
+    public void validateToken(ValidateTokenRequest request, StreamObserver<TokenValidation> responseObserver) {
+        try {
+            TokenValidationDTO result = tokenValidationService.validate(request.getToken(), request.getAudience());
+            responseObserver.onNext(toProto(result));
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
+        }
+    }
+
+    @Override
+    public void validateTokens(ValidateTokensRequest request, StreamObserver<ValidateTokensResponse> responseObserver) {
+        try {
+            ValidateTokensResponse.Builder response = ValidateTokensResponse.newBuilder();
+            tokenValidationService.validateAll(request.getTokensList(), request.getAudience())
+                    .forEach(result -> response.addResults(toProto(result)));
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
+        }
+    }
+
+    @Override
+    public void logout(LogoutRequest request, StreamObserver<LogoutResponse> responseObserver) {
+        try {
+            Jwt jwt = jwtDecoder.decode(request.getAccessToken());
+            authService.logout(jwt);
+            responseObserver.onNext(LogoutResponse.getDefaultInstance());
+            responseObserver.onCompleted();
+        } catch (BadJwtException e) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription(e.getMessage()).asRuntimeException());
+        } catch (Exception e) {
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
+        }
+    }
+
+    private static TokenValidation toProto(TokenValidationDTO result) {
+        TokenValidation.Builder builder = TokenValidation.newBuilder()
+                .setValid(result.valid)
+                .addAllRoles(result.roles);
+        if (result.subject != null) {
+            builder.setSubject(result.subject);
+        }
+        if (result.username != null) {
+            builder.setUsername(result.username);
+        }
+        if (result.expiresAt != null) {
+            builder.setExpiresAt(result.expiresAt);
+        }
+        if (result.error != null) {
+            builder.setError(result.error);
+        }
+        return builder.build();
+    }
+}
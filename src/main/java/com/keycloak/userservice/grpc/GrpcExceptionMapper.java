@@ -0,0 +1,65 @@
+package com.keycloak.userservice.grpc;
+
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Преобразует исключения сервисного слоя в статусы gRPC
+ */
+public final class GrpcExceptionMapper {
+
+    private static final Metadata.Key<String> RETRY_AFTER =
+            Metadata.Key.of("retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
+    private GrpcExceptionMapper() {
+    }
+
+    public static StatusRuntimeException toStatusException(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return toStatusException(e.getCause());
+        }
+        if (e instanceof StatusRuntimeException statusException) {
+            return statusException;
+        }
+        if (e instanceof ResponseStatusException responseStatusException) {
+            return toStatus(responseStatusException.getStatusCode().value())
+                    .withDescription(responseStatusException.getReason())
+                    .withCause(e)
+                    .asRuntimeException(trailers(responseStatusException));
+        }
+        return Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException();
+    }
+
+    /**
+     * Заголовок Retry-After передается в trailer retry-after, как при превышении rate limit
+     */
+    private static Metadata trailers(ResponseStatusException e) {
+        Metadata trailers = new Metadata();
+        String retryAfter = e.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (retryAfter != null) {
+            trailers.put(RETRY_AFTER, retryAfter);
+        }
+        return trailers;
+    }
+
+    private static Status toStatus(int httpStatus) {
+        return switch (httpStatus) {
+            case 400 -> Status.INVALID_ARGUMENT;
+            case 401 -> Status.UNAUTHENTICATED;
+            case 403 -> Status.PERMISSION_DENIED;
+            case 404 -> Status.NOT_FOUND;
+            case 409 -> Status.ALREADY_EXISTS;
+            case 422 -> Status.FAILED_PRECONDITION;
+            case 429 -> Status.RESOURCE_EXHAUSTED;
+            case 499 -> Status.CANCELLED;
+            case 503 -> Status.UNAVAILABLE;
+            case 504 -> Status.DEADLINE_EXCEEDED;
+            default -> httpStatus >= 500 ? Status.INTERNAL : Status.UNKNOWN;
+        };
+    }
+}
@@ -1,13 +1,14 @@
 package com.keycloak.userservice.grpc;
 
+import com.keycloak.userservice.context.GrpcRequestContextInterceptor;
 import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.dto.UserLookupDTO;
 import com.keycloak.userservice.service.KeycloakService;
 import io.grpc.stub.StreamObserver;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,26 +23,30 @@ public class GrpcUserService extends UserServiceGrpc.UserServiceImplBase {
 
     @Override
     public void getMyProfile(GetMyProfileRequest request, StreamObserver<UserProfile> responseObserver) {
-        try {
-            KeycloakUserDTO user = keycloakService.getUser(request.getUserId());
-            UserProfile profile = convertToGrpcUserProfile(user);
-            responseObserver.onNext(profile);
-            responseObserver.onCompleted();
-        } catch (Exception e) {
-            responseObserver.onError(e);
-        }
+        keycloakService.getUserAsync(request.getUserId()).whenComplete((user, error) -> {
+            if (error != null) {
+                responseObserver.onError(GrpcExceptionMapper.toStatusException(error));
+                return;
+            }
+            try {
+                responseObserver.onNext(UserProfileMapper.toProto(user));
+                responseObserver.onCompleted();
+            } catch (Exception e) {
+                responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
+            }
+        });
     }
 
     @Override
     public void updateMyProfile(UpdateMyProfileRequest request, StreamObserver<Empty> responseObserver) {
         try {
-            KeycloakUserDTO userDTO = convertFromGrpcUserProfile(request.getProfile());
+            KeycloakUserDTO userDTO = UserProfileMapper.fromProto(request.getProfile());
             userDTO.setEnabled(true);
             keycloakService.updateUser(request.getUserId(), userDTO);
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
@@ -54,7 +59,7 @@ public class GrpcUserService extends UserServiceGrpc.UserServiceImplBase {
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
@@ -64,111 +69,83 @@ public class GrpcUserService extends UserServiceGrpc.UserServiceImplBase {
             List<KeycloakUserDTO> users = keycloakService.getAllUsers();
             UserList userList = UserList.newBuilder()
                     .addAllUsers(users.stream()
-                            .map(this::convertToGrpcUserProfile)
+                            .map(UserProfileMapper::toProto)
                             .collect(Collectors.toList()))
                     .build();
             responseObserver.onNext(userList);
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
+        }
+    }
+
+    @Override
+    public void getUsersByIds(GetUsersByIdsRequest request, StreamObserver<GetUsersByIdsResponse> responseObserver) {
+        try {
+            List<UserLookupDTO> lookups = keycloakService.getUsersByIds(request.getUserIdsList());
+            GetUsersByIdsResponse.Builder response = GetUsersByIdsResponse.newBuilder();
+            for (UserLookupDTO lookup : lookups) {
+                UserLookupResult.Builder result = UserLookupResult.newBuilder()
+                        .setUserId(lookup.userId)
+                        .setFound(lookup.found);
+                if (lookup.found) {
+                    result.setProfile(UserProfileMapper.toProto(lookup.user));
+                }
+                response.addResults(result);
+            }
+            responseObserver.onNext(response.build());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
     @Override
     public void createUser(CreateUserRequest request, StreamObserver<CreateUserResponse> responseObserver) {
         try {
-            KeycloakUserDTO userDTO = convertFromGrpcUserProfile(request.getProfile());
-            String userId = keycloakService.createUser(userDTO);
+            KeycloakUserDTO userDTO = UserProfileMapper.fromProto(request.getProfile());
+            String userId = keycloakService.createUser(userDTO, GrpcRequestContextInterceptor.IDEMPOTENCY_KEY.get());
             CreateUserResponse response = CreateUserResponse.newBuilder()
                     .setUserId(userId)
                     .build();
             responseObserver.onNext(response);
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
     @Override
     public void updateUser(UpdateUserRequest request, StreamObserver<Empty> responseObserver) {
         try {
-            KeycloakUserDTO userDTO = convertFromGrpcUserProfile(request.getProfile());
+            KeycloakUserDTO userDTO = UserProfileMapper.fromProto(request.getProfile());
             keycloakService.updateUser(request.getUserId(), userDTO);
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
     }
 
     @Override
-    public void deleteUser(DeleteUserRequest request, StreamObserver<Empty> responseObserver) {
+    public void revokeUserSessions(RevokeUserSessionsRequest request, StreamObserver<Empty> responseObserver) {
         try {
-            keycloakService.deleteUser(request.getUserId());
+            keycloakService.revokeUserSessions(request.getUserId());
             responseObserver.onNext(Empty.getDefaultInstance());
             responseObserver.onCompleted();
         } catch (Exception e) {
-            responseObserver.onError(e);
-        }
-    }
-
-    private UserProfile convertToGrpcUserProfile(KeycloakUserDTO user) {
-        UserProfile.Builder builder = UserProfile.newBuilder()
-                .setId(user.getId())
-                .setUsername(user.getUsername())
-                .setEmail(user.getEmail())
-                .setFirstName(user.getFirstName())
-                .setLastName(user.getLastName())
-                .setEnabled(user.getEnabled())
-                .setEmailVerified(user.getEmailVerified())
-                .addAllRoles(user.getRoles());
-
-        Map<String, List<String>> attributes = user.getAttributes();
-        if (attributes != null) {
-            attributes.forEach((key, values) -> {
-                if (values != null && !values.isEmpty()) {
-                    builder.putAttributes(key, values.get(0));
-                }
-            });
-        }
-
-        if (user.getPhoneNumber() != null) {
-            builder.setPhoneNumber(user.getPhoneNumber());
-        }
-
-        if (user.getPreferences() != null) {
-            builder.setPreferences(user.getPreferences());
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
-
-        return builder.build();
     }
 
-    private KeycloakUserDTO convertFromGrpcUserProfile(UserProfile profile) {
-        KeycloakUserDTO userDTO = new KeycloakUserDTO();
-        userDTO.setId(profile.getId());
-        userDTO.setUsername(profile.getUsername());
-        userDTO.setEmail(profile.getEmail());
-        userDTO.setFirstName(profile.getFirstName());
-        userDTO.setLastName(profile.getLastName());
-        userDTO.setEnabled(profile.getEnabled());
-        userDTO.setEmailVerified(profile.getEmailVerified());
-        userDTO.setRoles(profile.getRolesList());
-
-        Map<String, List<String>> attributes = profile.getAttributesMap().entrySet().stream()
-                .collect(Collectors.toMap(
-                        Map.Entry::getKey,
-                        entry -> List.of(entry.getValue())
-                ));
-        userDTO.setAttributes(attributes);
-
-        if (!profile.getPhoneNumber().isEmpty()) {
-            userDTO.setPhoneNumber(profile.getPhoneNumber());
-        }
-
-        if (!profile.getPreferences().isEmpty()) {
-            userDTO.setPreferences(profile.getPreferences());
+    @Override
+    public void deleteUser(DeleteUserRequest request, StreamObserver<Empty> responseObserver) {
+        try {
+            keycloakService.deleteUser(request.getUserId());
+            responseObserver.onNext(Empty.getDefaultInstance());
+            responseObserver.onCompleted();
+        } catch (Exception e) {
+            responseObserver.onError(GrpcExceptionMapper.toStatusException(e));
         }
-
-        return userDTO;
     }
-} 
\ No newline at end of file
+}
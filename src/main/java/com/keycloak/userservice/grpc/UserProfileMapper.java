@@ -0,0 +1,102 @@
+package com.keycloak.userservice.grpc;
+
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Преобразование профиля пользователя между {@link KeycloakUserDTO} и protobuf {@link UserProfile}.
+ * Используется gRPC-транспортом и бинарным кэшем профилей.
+ */
+public final class UserProfileMapper {
+
+    private UserProfileMapper() {
+    }
+
+    public static UserProfile toProto(KeycloakUserDTO user) {
+        UserProfile.Builder builder = UserProfile.newBuilder();
+        if (user.getId() != null) {
+            builder.setId(user.getId());
+        }
+        if (user.getUsername() != null) {
+            builder.setUsername(user.getUsername());
+        }
+        if (user.getEmail() != null) {
+            builder.setEmail(user.getEmail());
+        }
+        if (user.getFirstName() != null) {
+            builder.setFirstName(user.getFirstName());
+        }
+        if (user.getLastName() != null) {
+            builder.setLastName(user.getLastName());
+        }
+        if (user.getEnabled() != null) {
+            builder.setEnabled(user.getEnabled());
+        }
+        if (user.getEmailVerified() != null) {
+            builder.setEmailVerified(user.getEmailVerified());
+        }
+        if (user.getRoles() != null) {
+            builder.addAllRoles(user.getRoles());
+        }
+
+        Map<String, List<String>> attributes = user.getAttributes();
+        if (attributes != null) {
+            attributes.forEach((key, values) -> {
+                if (values != null && !values.isEmpty()) {
+                    builder.putAttributes(key, values.get(0));
+                }
+            });
+        }
+
+        if (user.getPhoneNumber() != null) {
+            builder.setPhoneNumber(user.getPhoneNumber());
+        }
+
+        if (user.getPreferences() != null) {
+            builder.setPreferences(user.getPreferences());
+        }
+
+        if (user.getVersion() != null) {
+            builder.setVersion(user.getVersion());
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Обратное преобразование. В proto3 строка без значения читается как пустая,
+     * поэтому пустые строки возвращаются как null, как в профиле до {@link #toProto}.
+     */
+    public static KeycloakUserDTO fromProto(UserProfile profile) {
+        KeycloakUserDTO userDTO = new KeycloakUserDTO();
+        userDTO.setId(emptyToNull(profile.getId()));
+        userDTO.setUsername(emptyToNull(profile.getUsername()));
+        userDTO.setEmail(emptyToNull(profile.getEmail()));
+        userDTO.setFirstName(emptyToNull(profile.getFirstName()));
+        userDTO.setLastName(emptyToNull(profile.getLastName()));
+        userDTO.setEnabled(profile.hasEnabled() ? profile.getEnabled() : null);
+        userDTO.setEmailVerified(profile.hasEmailVerified() ? profile.getEmailVerified() : null);
+        userDTO.setRoles(profile.getRolesList());
+
+        Map<String, List<String>> attributes = profile.getAttributesMap().entrySet().stream()
+                .collect(Collectors.toMap(
+                        Map.Entry::getKey,
+                        entry -> List.of(entry.getValue())
+                ));
+        userDTO.setAttributes(attributes);
+
+        userDTO.setPhoneNumber(emptyToNull(profile.getPhoneNumber()));
+        userDTO.setPreferences(emptyToNull(profile.getPreferences()));
+
+        userDTO.setVersion(profile.getVersion());
+
+        return userDTO;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
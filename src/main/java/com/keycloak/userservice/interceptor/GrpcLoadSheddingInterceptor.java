@@ -0,0 +1,133 @@
+package com.keycloak.userservice.interceptor;
+
+import com.keycloak.userservice.ratelimit.ServiceOverloadedException;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallExecutorSupplier;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Сброс нагрузки для ограниченного пула обработчиков gRPC. Интерсептор сам выполняется в пуле,
+ * поэтому при занятых потоках и полной очереди он не успел бы ответить, а пул отклонил бы вызов
+ * исключением в потоке транспорта. Поэтому решение принимается раньше, в потоке транспорта при создании
+ * потока HTTP/2 ({@link #newServerStreamTracer}): сверх maxCalls открытых вызовов новый вызов
+ * выполняется не в пуле, а в shedExecutor, где интерсептор сразу закрывает его со статусом
+ * RESOURCE_EXHAUSTED и trailer retry-after. У вызова в пуле не больше одной задачи одновременно,
+ * поэтому при maxCalls не больше суммы потоков и очереди пул не отклоняет задачи принятых вызовов.
+ * Сервер должен использовать directExecutor, а этот объект - как фабрику трассировщиков,
+ * callExecutor и самый внешний интерсептор; пулу нужна политика {@link #awaitQueueSlot()}.
+ */
+public class GrpcLoadSheddingInterceptor extends ServerStreamTracer.Factory
+        implements ServerCallExecutorSupplier, ServerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(GrpcLoadSheddingInterceptor.class);
+
+    // Отметка решения для getExecutor и интерсептора; одноименный заголовок клиента удаляется
+    private static final Metadata.Key<String> SHED =
+            Metadata.Key.of("x-internal-load-shed", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> RETRY_AFTER =
+            Metadata.Key.of("retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
+    // Поток пула берет следующую задачу из очереди за микросекунды; запас на паузу GC
+    private static final long QUEUE_SLOT_TIMEOUT_MS = 100;
+
+    private static final ServerStreamTracer NOOP_TRACER = new ServerStreamTracer() {
+    };
+
+    private final Executor pool;
+    private final Executor shedExecutor;
+    private final int maxCalls;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * @param pool пул обработчиков вызовов
+     * @param shedExecutor неблокирующий исполнитель для закрытия отклоненных вызовов, например event loop Netty
+     * @param maxCalls сколько вызовов одновременно обрабатывается в пуле, включая ожидающие в очереди
+     */
+    public GrpcLoadSheddingInterceptor(Executor pool, Executor shedExecutor, int maxCalls) {
+        this.pool = pool;
+        this.shedExecutor = shedExecutor;
+        this.maxCalls = maxCalls;
+    }
+
+    /**
+     * Вызывается для каждого потока HTTP/2 до выбора исполнителя; streamClosed трассировщика
+     * вызывается при любом завершении, в том числе при отмене клиентом
+     */
+    @Override
+    public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+        headers.discardAll(SHED);
+        if (inFlight.incrementAndGet() > maxCalls) {
+            inFlight.decrementAndGet();
+            headers.put(SHED, "1");
+            return NOOP_TRACER;
+        }
+        AtomicBoolean closed = new AtomicBoolean();
+        return new ServerStreamTracer() {
+            @Override
+            public void streamClosed(Status status) {
+                if (closed.compareAndSet(false, true)) {
+                    inFlight.decrementAndGet();
+                }
+            }
+        };
+    }
+
+    @Override
+    public <ReqT, RespT> Executor getExecutor(ServerCall<ReqT, RespT> call, Metadata headers) {
+        return headers.containsKey(SHED) ? shedExecutor : pool;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        if (!headers.containsKey(SHED)) {
+            return next.startCall(call, headers);
+        }
+        log.debug("gRPC executor is saturated, rejecting {}", call.getMethodDescriptor().getFullMethodName());
+        Metadata trailers = new Metadata();
+        trailers.put(RETRY_AFTER, String.valueOf(ServiceOverloadedException.RETRY_AFTER_SECONDS));
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription("Server is overloaded"), trailers);
+        return new ServerCall.Listener<>() {
+        };
+    }
+
+    /**
+     * Политика отказа пула для гонки передачи задачи: поток пула уже завершил задачу, но еще не взял
+     * следующую из очереди, и заполненная очередь отклоняет задачу принятого вызова. При не более чем
+     * maxCalls вызовах в этот момент хотя бы один поток пула свободен, поэтому место в очереди освобождается
+     * почти сразу; ожидание ограничено, так как идет в потоке транспорта.
+     */
+    public static RejectedExecutionHandler awaitQueueSlot() {
+        return (task, executor) -> {
+            try {
+                if (executor.isShutdown()
+                        || !executor.getQueue().offer(task, QUEUE_SLOT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    throw new RejectedExecutionException("gRPC executor queue is full: " + executor);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException("Interrupted while waiting for gRPC executor queue", e);
+            }
+        };
+    }
+
+    /**
+     * @return число принятых и еще не завершенных вызовов
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+}
@@ -0,0 +1,63 @@
+package com.keycloak.userservice.interceptor;
+
+import com.keycloak.userservice.ratelimit.RateLimitBucketStore;
+import io.github.bucket4j.ConsumptionProbe;
+import io.grpc.Grpc;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+
+/**
+ * Rate limiting для gRPC. Использует то же хранилище бакетов и те же ключи (API-ключ или IP клиента),
+ * что и {@link RateLimitInterceptor}, поэтому клиент, работающий по обоим транспортам, ограничивается один раз.
+ */
+@Component
+public class GrpcRateLimitInterceptor implements ServerInterceptor {
+
+    private static final Metadata.Key<String> API_KEY =
+            Metadata.Key.of("x-api-key", Metadata.ASCII_STRING_MARSHALLER);
+    private static final Metadata.Key<String> RETRY_AFTER =
+            Metadata.Key.of("retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final RateLimitBucketStore bucketStore;
+
+    @Autowired
+    public GrpcRateLimitInterceptor(RateLimitBucketStore bucketStore) {
+        this.bucketStore = bucketStore;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(
+            ServerCall<ReqT, RespT> call, Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        String apiKey = headers.get(API_KEY);
+        if (apiKey == null) {
+            apiKey = peerAddress(call);
+        }
+
+        ConsumptionProbe probe = bucketStore.resolveBucket(apiKey).tryConsumeAndReturnRemaining(1);
+        if (probe.isConsumed()) {
+            return next.startCall(call, headers);
+        }
+
+        Metadata trailers = new Metadata();
+        trailers.put(RETRY_AFTER, String.valueOf(RateLimitInterceptor.retryAfterSeconds(probe)));
+        call.close(Status.RESOURCE_EXHAUSTED.withDescription("Rate limit exceeded"), trailers);
+        return new ServerCall.Listener<>() {
+        };
+    }
+
+    private static String peerAddress(ServerCall<?, ?> call) {
+        SocketAddress address = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        if (address instanceof InetSocketAddress inetAddress && inetAddress.getAddress() != null) {
+            return inetAddress.getAddress().getHostAddress();
+        }
+        return String.valueOf(address);
+    }
+}
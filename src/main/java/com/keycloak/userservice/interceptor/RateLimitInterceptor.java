@@ -1,26 +1,25 @@
 package com.keycloak.userservice.interceptor;
 
-import io.github.bucket4j.Bandwidth;
-import io.github.bucket4j.Bucket;
-import io.github.bucket4j.Refill;
+import com.keycloak.userservice.ratelimit.RateLimitBucketStore;
+import io.github.bucket4j.ConsumptionProbe;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.HandlerInterceptor;
 
-import java.time.Duration;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class RateLimitInterceptor implements HandlerInterceptor {
-    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final RateLimitBucketStore bucketStore;
 
-    private Bucket createNewBucket() {
-        return Bucket.builder()
-                .addLimit(Bandwidth.classic(100, Refill.intervally(100, Duration.ofMinutes(1))))
-                .build();
+    @Autowired
+    public RateLimitInterceptor(RateLimitBucketStore bucketStore) {
+        this.bucketStore = bucketStore;
     }
 
     @Override
@@ -30,13 +29,18 @@ public class RateLimitInterceptor implements HandlerInterceptor {
             apiKey = request.getRemoteAddr();
         }
 
-        Bucket bucket = buckets.computeIfAbsent(apiKey, k -> createNewBucket());
+        ConsumptionProbe probe = bucketStore.resolveBucket(apiKey).tryConsumeAndReturnRemaining(1);
 
-        if (bucket.tryConsume(1)) {
+        if (probe.isConsumed()) {
             return true;
         }
 
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds(probe)));
         response.sendError(HttpStatus.TOO_MANY_REQUESTS.value(), "Rate limit exceeded");
         return false;
     }
-} 
\ No newline at end of file
+
+    static long retryAfterSeconds(ConsumptionProbe probe) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(probe.getNanosToWaitForRefill() + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+}
@@ -0,0 +1,58 @@
+package com.keycloak.userservice.interceptor;
+
+import com.keycloak.userservice.ratelimit.RateLimitBucketStore;
+import io.github.bucket4j.ConsumptionProbe;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Rate limiting для transport=reactive, аналог {@link RateLimitInterceptor}
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@Order(Ordered.HIGHEST_PRECEDENCE + 1)
+public class ReactiveRateLimitFilter implements WebFilter {
+    private final RateLimitBucketStore bucketStore;
+
+    @Autowired
+    public ReactiveRateLimitFilter(RateLimitBucketStore bucketStore) {
+        this.bucketStore = bucketStore;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        ServerHttpRequest request = exchange.getRequest();
+        if (!request.getPath().value().startsWith("/api/")) {
+            return chain.filter(exchange);
+        }
+
+        String apiKey = request.getHeaders().getFirst("X-api-key");
+        if (apiKey == null) {
+            InetSocketAddress remoteAddress = request.getRemoteAddress();
+            apiKey = remoteAddress != null ? remoteAddress.getAddress().getHostAddress() : "unknown";
+        }
+
+        ConsumptionProbe probe = bucketStore.resolveBucket(apiKey).tryConsumeAndReturnRemaining(1);
+
+        if (probe.isConsumed()) {
+            return chain.filter(exchange);
+        }
+
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.TOO_MANY_REQUESTS);
+        response.getHeaders().set("Retry-After", String.valueOf(RateLimitInterceptor.retryAfterSeconds(probe)));
+        return response.setComplete();
+    }
+}
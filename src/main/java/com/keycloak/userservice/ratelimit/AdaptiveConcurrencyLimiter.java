@@ -0,0 +1,292 @@
+package com.keycloak.userservice.ratelimit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.ws.rs.ProcessingException;
+import jakarta.ws.rs.WebApplicationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Адаптивный ограничитель числа одновременных обращений к Keycloak (AIMD по задержке).
+ * Пока задержка вызова не превышает базовую более чем в tolerance раз, лимит растет на единицу
+ * при загрузке не менее половины лимита; при превышении или сбое Keycloak (5xx, таймаут) лимит умножается на backoff-ratio.
+ * Базовая задержка — скользящее среднее (доля нового замера — smoothing) всех успешных вызовов,
+ * поэтому после устойчивого роста задержки Keycloak она догоняет новый уровень и лимит снова растет.
+ * Запросы сверх лимита сразу отклоняются с 503 и Retry-After, а не накапливаются на потоках Tomcat и блокировках Redis.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter implements MeterBinder {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveConcurrencyLimiter.class);
+
+    private final boolean enabled;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+    private final double backoffRatio;
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile int limit;
+    private double estimatedLimit;
+    private double baselineRttNanos;
+    private Counter rejected;
+
+    public AdaptiveConcurrencyLimiter(
+            @Value("${concurrency-limit.enabled:true}") boolean enabled,
+            @Value("${concurrency-limit.initial-limit:20}") int initialLimit,
+            @Value("${concurrency-limit.min-limit:5}") int minLimit,
+            @Value("${concurrency-limit.max-limit:200}") int maxLimit,
+            @Value("${concurrency-limit.tolerance:2.0}") double tolerance,
+            @Value("${concurrency-limit.backoff-ratio:0.9}") double backoffRatio,
+            @Value("${concurrency-limit.smoothing:0.05}") double smoothing) {
+        this.enabled = enabled;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.backoffRatio = backoffRatio;
+        this.smoothing = smoothing;
+        this.limit = initialLimit;
+        this.estimatedLimit = initialLimit;
+    }
+
+    /**
+     * Выполняет операцию, если не превышен текущий лимит одновременных вызовов
+     *
+     * @param supplier поставщик результата операции
+     * @param <T> тип результата
+     * @return результат выполнения операции
+     * @throws ServiceOverloadedException 503, если лимит исчерпан
+     */
+    public <T> T execute(Supplier<T> supplier) {
+        return executeTimed(permit -> supplier.get());
+    }
+
+    /**
+     * Вариант {@link #execute(Supplier)} для вызовов под распределенной блокировкой: разрешение
+     * берется до ожидания блокировки, а задержка отсчитывается от {@link Permit#timed(Supplier)}
+     *
+     * @param action операция, получающая разрешение
+     * @param <T> тип результата
+     * @return результат выполнения операции
+     * @throws ServiceOverloadedException 503, если лимит исчерпан
+     */
+    public <T> T executeTimed(Function<Permit, T> action) {
+        Permit permit = new Permit();
+        if (!enabled) {
+            return action.apply(permit);
+        }
+        if (!tryAcquire()) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            throw new ServiceOverloadedException();
+        }
+
+        boolean dropped = true;
+        try {
+            T result = action.apply(permit);
+            dropped = false;
+            return result;
+        } catch (RuntimeException | Error e) {
+            dropped = isDropped(e);
+            throw e;
+        } finally {
+            release(System.nanoTime() - permit.start, dropped);
+        }
+    }
+
+    /**
+     * Выполняет операцию без результата, если не превышен текущий лимит одновременных вызовов
+     *
+     * @param runnable операция для выполнения
+     */
+    public void execute(Runnable runnable) {
+        execute(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    /**
+     * Вариант {@link #executeTimed(Function)} без результата
+     */
+    public void runTimed(Consumer<Permit> action) {
+        executeTimed(permit -> {
+            action.accept(permit);
+            return null;
+        });
+    }
+
+    /**
+     * Асинхронный вариант {@link #execute(Supplier)}: разрешение освобождается по завершении future
+     *
+     * @param action асинхронная операция
+     * @param <T> тип результата
+     * @return future с результатом операции или 503, если лимит исчерпан
+     */
+    public <T> CompletableFuture<T> executeAsync(Supplier<CompletableFuture<T>> action) {
+        return executeTimedAsync(permit -> action.get());
+    }
+
+    /**
+     * Асинхронный вариант {@link #executeTimed(Function)}
+     */
+    public <T> CompletableFuture<T> executeTimedAsync(Function<Permit, CompletableFuture<T>> action) {
+        Permit permit = new Permit();
+        if (!enabled) {
+            return action.apply(permit);
+        }
+        if (!tryAcquire()) {
+            if (rejected != null) {
+                rejected.increment();
+            }
+            return CompletableFuture.failedFuture(new ServiceOverloadedException());
+        }
+
+        CompletableFuture<T> result;
+        try {
+            result = action.apply(permit);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        return result.whenComplete((value, error) -> {
+            release(System.nanoTime() - permit.start, isDropped(error));
+        });
+    }
+
+    /**
+     * Признак перегрузки Keycloak: 5xx, ошибка соединения или таймаут. Ответы 4xx (нет пользователя,
+     * конфликт, неверный пароль) — нормальный результат вызова и лимит не уменьшают.
+     * Исходная ошибка ищется в цепочке причин: сервисы заворачивают ее в свой ResponseStatusException
+     * (например, вход превращает любую ошибку в 401), поэтому решает самая внутренняя ошибка вызова.
+     * Прочие ошибки без ответа Keycloak считаются сбросом, как и раньше.
+     */
+    static boolean isDropped(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        ResponseStatusException innermostStatus = null;
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof WebApplicationException webException) {
+                return webException.getResponse() == null || webException.getResponse().getStatus() >= 500;
+            }
+            if (e instanceof WebClientResponseException responseException) {
+                return responseException.getStatusCode().is5xxServerError();
+            }
+            if (e instanceof ProcessingException || e instanceof WebClientRequestException
+                    || e instanceof TimeoutException || e instanceof SocketTimeoutException) {
+                return true;
+            }
+            if (e instanceof ResponseStatusException statusException) {
+                innermostStatus = statusException;
+            }
+        }
+        if (innermostStatus != null) {
+            return innermostStatus.getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release(long rttNanos, boolean dropped) {
+        update(rttNanos, dropped, inFlight.getAndDecrement());
+    }
+
+    void update(long rttNanos, boolean dropped, int inFlightBeforeRelease) {
+        synchronized (this) {
+            if (baselineRttNanos == 0) {
+                baselineRttNanos = rttNanos;
+            }
+
+            if (dropped || rttNanos > baselineRttNanos * tolerance) {
+                estimatedLimit = Math.max(minLimit, estimatedLimit * backoffRatio);
+            } else if (inFlightBeforeRelease * 2 >= limit) {
+                estimatedLimit = Math.min(maxLimit, estimatedLimit + 1);
+            }
+            // Ошибки и таймауты не говорят о задержке Keycloak; медленные успешные вызовы учитываются,
+            // иначе при выросшей задержке базовая не обновится и лимит останется минимальным
+            if (!dropped) {
+                baselineRttNanos = baselineRttNanos * (1 - smoothing) + rttNanos * smoothing;
+            }
+
+            int newLimit = (int) estimatedLimit;
+            if (newLimit != limit) {
+                log.debug("Keycloak concurrency limit changed: {} -> {}", limit, newLimit);
+                limit = newLimit;
+            }
+        }
+    }
+
+    /**
+     * Разрешение на вызов. Задержка для оценки лимита отсчитывается от получения разрешения
+     * или, если вызов обернут в {@link #timed(Supplier)}, от начала обернутой операции:
+     * ожидание распределенной блокировки под разрешением не попадает в замер
+     */
+    public static final class Permit {
+
+        private volatile long start = System.nanoTime();
+
+        public <T> Supplier<T> timed(Supplier<T> action) {
+            return () -> {
+                start = System.nanoTime();
+                return action.get();
+            };
+        }
+
+        public Runnable timed(Runnable action) {
+            return () -> {
+                start = System.nanoTime();
+                action.run();
+            };
+        }
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("keycloak.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .description("Current adaptive concurrency limit for Keycloak calls")
+                .register(registry);
+        Gauge.builder("keycloak.concurrency.in-flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .description("Keycloak calls currently in flight")
+                .register(registry);
+        rejected = Counter.builder("keycloak.concurrency.rejected")
+                .description("Requests shed because the concurrency limit was reached")
+                .register(registry);
+    }
+}
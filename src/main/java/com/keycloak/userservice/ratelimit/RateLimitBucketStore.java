@@ -0,0 +1,63 @@
+package com.keycloak.userservice.ratelimit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.github.bucket4j.Bucket;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Ограниченное по размеру хранилище бакетов rate limiting.
+ * Бакеты вытесняются по W-TinyLFU при превышении лимита и после простоя дольше idleExpiry.
+ * Если idleExpiry не меньше окна пополнения, вытеснение не меняет поведение лимита:
+ * за это время бакет все равно успел бы заполниться полностью.
+ */
+public class RateLimitBucketStore implements MeterBinder {
+
+    private static final String CACHE_NAME = "rate-limit-buckets";
+
+    private final Cache<String, Bucket> buckets;
+    private final Function<String, Bucket> bucketFactory;
+
+    public RateLimitBucketStore(Function<String, Bucket> bucketFactory, long maxBuckets, Duration idleExpiry) {
+        this(bucketFactory, maxBuckets, idleExpiry, Ticker.systemTicker());
+    }
+
+    RateLimitBucketStore(Function<String, Bucket> bucketFactory, long maxBuckets, Duration idleExpiry, Ticker ticker) {
+        this.bucketFactory = bucketFactory;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(idleExpiry)
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Возвращает бакет для ключа, создавая его при первом обращении
+     *
+     * @param key ключ клиента (API-ключ или IP-адрес)
+     * @return бакет клиента
+     */
+    public Bucket resolveBucket(String key) {
+        return buckets.get(key, bucketFactory);
+    }
+
+    public long estimatedSize() {
+        return buckets.estimatedSize();
+    }
+
+    void cleanUp() {
+        buckets.cleanUp();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, buckets, CACHE_NAME);
+    }
+}
@@ -0,0 +1,35 @@
+package com.keycloak.userservice.ratelimit;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+/**
+ * 503 с заголовком Retry-After: сервис перегружен (лимит {@link AdaptiveConcurrencyLimiter}
+ * или заполнена очередь пула), и запрос можно повторить. Заголовок добавляют обработчики
+ * {@link ResponseStatusException} Spring MVC и WebFlux, для gRPC — GrpcExceptionMapper.
+ */
+public class ServiceOverloadedException extends ResponseStatusException {
+
+    public static final long RETRY_AFTER_SECONDS = 1;
+
+    private static final String REASON = "Сервис перегружен, повторите запрос позже";
+
+    private final HttpHeaders headers;
+
+    public ServiceOverloadedException() {
+        this(null);
+    }
+
+    public ServiceOverloadedException(Throwable cause) {
+        super(HttpStatus.SERVICE_UNAVAILABLE, REASON, cause);
+        HttpHeaders retryAfter = new HttpHeaders();
+        retryAfter.set(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+        this.headers = HttpHeaders.readOnlyHttpHeaders(retryAfter);
+    }
+
+    @Override
+    public HttpHeaders getHeaders() {
+        return headers;
+    }
+}
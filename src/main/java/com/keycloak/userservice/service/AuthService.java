@@ -1,5 +1,8 @@
 package com.keycloak.userservice.service;
 
+import com.keycloak.userservice.cache.RoleCatalogCache;
+import com.keycloak.userservice.cache.UserProfileCache;
+import com.keycloak.userservice.context.RequestContext;
 import com.keycloak.userservice.dto.AuthRequestDTO;
 import com.keycloak.userservice.dto.AuthResponseDTO;
 import com.keycloak.userservice.dto.RefreshTokenRequestDTO;
@@ -7,11 +10,15 @@ import com.keycloak.userservice.dto.RegistrationRequestDTO;
 import com.keycloak.userservice.dto.KeycloakUserDTO;
 import com.keycloak.userservice.dto.SimpleAuthRequestDTO;
 import com.keycloak.userservice.event.UserEventType;
+import com.keycloak.userservice.ratelimit.AdaptiveConcurrencyLimiter;
 import com.keycloak.userservice.util.CreatedResponseUtil;
 import com.keycloak.userservice.util.DistributedLockUtil;
+import com.keycloak.userservice.util.OutboundMetrics;
 import jakarta.ws.rs.client.Client;
 import jakarta.ws.rs.client.ClientBuilder;
 import jakarta.ws.rs.client.Entity;
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.client.WebTarget;
 import jakarta.ws.rs.core.Form;
 import jakarta.ws.rs.core.MediaType;
@@ -28,6 +35,7 @@ import org.keycloak.representations.idm.UserRepresentation;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.stereotype.Service;
 import org.springframework.web.server.ResponseStatusException;
 
@@ -36,6 +44,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -49,10 +58,17 @@ public class AuthService {
     private final String clientSecret;
     private final DistributedLockUtil lockUtil;
     private final UserEventService userEventService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final LoginThrottleService loginThrottle;
+    private final IdempotencyService idempotencyService;
+    private final UserProfileCache userProfileCache;
+    private final RoleCatalogCache roleCatalogCache;
+    private final OutboundMetrics outboundMetrics;
+    private final TokenRevocationService tokenRevocationService;
 
     private static final String LOGIN_LOCK_PREFIX = "lock:login:";
     private static final String REFRESH_LOCK_PREFIX = "lock:refresh:";
-    private static final String REGISTER_LOCK_PREFIX = "lock:register:";
+    private static final String REGISTER_IDEMPOTENCY_SCOPE = "register:";
 
     @Autowired
     public AuthService(
@@ -62,7 +78,14 @@ public class AuthService {
             @Value("${keycloak.resource}") String clientId,
             @Value("${keycloak.credentials.secret}") String clientSecret,
             DistributedLockUtil lockUtil,
-            UserEventService userEventService) {
+            UserEventService userEventService,
+            AdaptiveConcurrencyLimiter concurrencyLimiter,
+            LoginThrottleService loginThrottle,
+            IdempotencyService idempotencyService,
+            UserProfileCache userProfileCache,
+            RoleCatalogCache roleCatalogCache,
+            OutboundMetrics outboundMetrics,
+            TokenRevocationService tokenRevocationService) {
         this.adminKeycloak = adminKeycloak;
         this.authServerUrl = authServerUrl;
         this.realm = realm;
@@ -70,16 +93,28 @@ public class AuthService {
         this.clientSecret = clientSecret;
         this.lockUtil = lockUtil;
         this.userEventService = userEventService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.loginThrottle = loginThrottle;
+        this.idempotencyService = idempotencyService;
+        this.userProfileCache = userProfileCache;
+        this.roleCatalogCache = roleCatalogCache;
+        this.outboundMetrics = outboundMetrics;
+        this.tokenRevocationService = tokenRevocationService;
     }
 
     public AuthResponseDTO login(AuthRequestDTO request) {
+        loginThrottle.checkAllowed(request.username, RequestContext.current().ipAddress());
+        return concurrencyLimiter.executeTimed(permit -> loginWithLock(request, permit));
+    }
+
+    private AuthResponseDTO loginWithLock(AuthRequestDTO request, AdaptiveConcurrencyLimiter.Permit permit) {
         SimpleAuthRequestDTO simpleRequest = new SimpleAuthRequestDTO();
         simpleRequest.setUsername(request.username);
         simpleRequest.setPassword(request.password);
         
         String lockKey = LOGIN_LOCK_PREFIX + simpleRequest.getUsername();
         
-        return lockUtil.executeWithLock(lockKey, () -> {
+        return lockUtil.executeWithLock(lockKey, permit.timed(() -> {
             try {
                 Keycloak keycloak = KeycloakBuilder.builder()
                         .serverUrl(authServerUrl)
@@ -90,9 +125,11 @@ public class AuthService {
                         .password(simpleRequest.getPassword())
                         .build();
 
-                AccessTokenResponse tokenResponse = keycloak.tokenManager().getAccessToken();
+                AccessTokenResponse tokenResponse = call("token.password-grant", () -> keycloak.tokenManager().getAccessToken());
+                loginThrottle.recordSuccess(simpleRequest.getUsername());
                 
-                List<UserRepresentation> users = adminKeycloak.realm(realm).users().search(simpleRequest.getUsername(), true);
+                List<UserRepresentation> users = call("users.search",
+                        () -> adminKeycloak.realm(realm).users().search(simpleRequest.getUsername(), true));
                 if (users.isEmpty()) {
                     userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, simpleRequest.getUsername(), 
                         Map.of("reason", "User not found"));
@@ -100,10 +137,14 @@ public class AuthService {
                 }
                 String userId = users.get(0).getId();
                 
-                List<String> roles = adminKeycloak.realm(realm).users().get(userId).roles()
-                        .realmLevel().listAll().stream()
-                        .map(RoleRepresentation::getName)
-                        .collect(Collectors.toList());
+                List<String> roles = userProfileCache.getRoles(userId);
+                if (roles == null) {
+                    roles = call("roles.list", () -> adminKeycloak.realm(realm).users().get(userId).roles()
+                            .realmLevel().listAll().stream()
+                            .map(RoleRepresentation::getName)
+                            .collect(Collectors.toList()));
+                    userProfileCache.putRoles(userId, roles);
+                }
 
                 AuthResponseDTO response = new AuthResponseDTO();
                 response.accessToken = tokenResponse.getToken();
@@ -120,18 +161,21 @@ public class AuthService {
                 return response;
             } catch (Exception e) {
                 log.error("Ошибка при аутентификации пользователя", e);
-                userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username, 
-                    Map.of("reason", e.getMessage()));
-                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Неверные учетные данные");
+                if (e instanceof NotAuthorizedException) {
+                    loginThrottle.recordFailure(request.username, RequestContext.current().ipAddress());
+                }
+                loginThrottle.reportFailedLogin(request.username, e.getMessage());
+                // Причина сохраняется: по ней ограничитель отличает сбой Keycloak от неверного пароля
+                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Неверные учетные данные", e);
             }
-        });
+        }));
     }
 
     public AuthResponseDTO refreshToken(RefreshTokenRequestDTO request) {
         String refreshToken = request.refreshToken;
         String lockKey = REFRESH_LOCK_PREFIX + refreshToken.hashCode();
         
-        return lockUtil.executeWithLock(lockKey, () -> {
+        return concurrencyLimiter.executeTimed(permit -> lockUtil.executeWithLock(lockKey, permit.timed(() -> {
             try {
                 Client client = ClientBuilder.newClient();
                 WebTarget target = client.target(authServerUrl)
@@ -143,8 +187,8 @@ public class AuthService {
                 form.param("grant_type", "refresh_token");
                 form.param("refresh_token", refreshToken);
                 
-                Response response = target.request(MediaType.APPLICATION_FORM_URLENCODED)
-                        .post(Entity.form(form));
+                Response response = call("token.refresh", () -> target.request(MediaType.APPLICATION_FORM_URLENCODED)
+                        .post(Entity.form(form)));
                 
                 if (response.getStatus() != 200) {
                     userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, "unknown", 
@@ -172,65 +216,115 @@ public class AuthService {
                     Map.of("reason", "Refresh token error: " + e.getMessage()));
                 throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Недействительный refresh токен");
             }
-        });
+        })));
     }
 
-    public AuthResponseDTO register(RegistrationRequestDTO request) {
-        String lockKey = REGISTER_LOCK_PREFIX + request.username;
-        
-        return lockUtil.executeWithLock(lockKey, () -> {
-            try {
-                UserRepresentation user = new UserRepresentation();
-                user.setUsername(request.username);
-                user.setEmail(request.email);
-                user.setFirstName(request.firstName);
-                user.setLastName(request.lastName);
-                user.setEmailVerified(false);
-                user.setEnabled(true);
-
-                Map<String, List<String>> attributes = new HashMap<>();
-                if (request.phoneNumber != null) {
-                    attributes.put("phoneNumber", Collections.singletonList(request.phoneNumber));
+    /**
+     * Выход: завершает сессию Keycloak, к которой относится токен, чтобы refresh-токен сессии
+     * перестал действовать, и отзывает сам access-токен до истечения его срока.
+     * Сессия завершается первой: при ошибке Keycloak токен остается действительным и выход можно повторить.
+     */
+    public void logout(Jwt jwt) {
+        String sessionId = sessionId(jwt);
+        if (sessionId != null) {
+            concurrencyLimiter.execute(() -> {
+                try {
+                    run("sessions.delete", () -> adminKeycloak.realm(realm).deleteSession(sessionId));
+                } catch (NotFoundException e) {
+                    log.debug("Сессия {} уже завершена", sessionId);
                 }
-                user.setAttributes(attributes);
+            });
+        } else {
+            log.warn("В токене пользователя {} нет идентификатора сессии, отзывается только access-токен", jwt.getSubject());
+        }
+        tokenRevocationService.revokeToken(jwt);
+    }
 
-                Response response = adminKeycloak.realm(realm).users().create(user);
-                String userId = CreatedResponseUtil.getCreatedId(response);
-                
-                if (userId == null) {
-                    userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username, 
-                        Map.of("reason", "Failed to create user"));
-                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при создании пользователя");
-                }
+    /**
+     * Идентификатор сессии Keycloak: claim sid, в токенах старых версий Keycloak — session_state
+     */
+    static String sessionId(Jwt jwt) {
+        String sessionId = jwt.getClaimAsString("sid");
+        return sessionId != null ? sessionId : jwt.getClaimAsString("session_state");
+    }
 
-                CredentialRepresentation passwordCred = new CredentialRepresentation();
-                passwordCred.setTemporary(false);
-                passwordCred.setType(CredentialRepresentation.PASSWORD);
-                passwordCred.setValue(request.password);
-                
-                UserResource userResource = adminKeycloak.realm(realm).users().get(userId);
-                userResource.resetPassword(passwordCred);
+    /**
+     * Регистрирует пользователя и выполняет вход. По Idempotency-Key сохраняется только идентификатор
+     * созданного пользователя: токены при повторе выдаются заново по паролю из запроса.
+     */
+    public AuthResponseDTO register(RegistrationRequestDTO request, String idempotencyKey) {
+        String scope = REGISTER_IDEMPOTENCY_SCOPE + request.username;
 
-                RoleRepresentation userRole = adminKeycloak.realm(realm).roles().get("user").toRepresentation();
-                userResource.roles().realmLevel().add(Collections.singletonList(userRole));
+        idempotencyService.execute(scope, idempotencyKey, registrationFingerprint(request), String.class,
+                () -> concurrencyLimiter.execute(() -> createAccount(request)));
 
-                userEventService.sendUserEvent(UserEventType.USER_REGISTERED, userId, 
-                    Map.of("username", request.username, "email", request.email));
+        AuthRequestDTO authRequest = new AuthRequestDTO();
+        authRequest.username = request.username;
+        authRequest.password = request.password;
+        return concurrencyLimiter.executeTimed(permit -> loginWithLock(authRequest, permit));
+    }
 
-                AuthRequestDTO authRequest = new AuthRequestDTO();
-                authRequest.username = request.username;
-                authRequest.password = request.password;
-                return login(authRequest);
-                
-            } catch (Exception e) {
-                log.error("Ошибка при регистрации пользователя", e);
+    static String registrationFingerprint(RegistrationRequestDTO request) {
+        return IdempotencyService.fingerprint(request.username, request.email, request.firstName,
+                request.lastName, request.phoneNumber);
+    }
+
+    private String createAccount(RegistrationRequestDTO request) {
+        try {
+            UserRepresentation user = new UserRepresentation();
+            user.setUsername(request.username);
+            user.setEmail(request.email);
+            user.setFirstName(request.firstName);
+            user.setLastName(request.lastName);
+            user.setEmailVerified(false);
+            user.setEnabled(true);
+
+            Map<String, List<String>> attributes = new HashMap<>();
+            if (request.phoneNumber != null) {
+                attributes.put("phoneNumber", Collections.singletonList(request.phoneNumber));
+            }
+            user.setAttributes(attributes);
+
+            Response response = call("users.create", () -> adminKeycloak.realm(realm).users().create(user));
+            String userId = CreatedResponseUtil.getCreatedId(response);
+            
+            if (userId == null) {
                 userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username, 
-                    Map.of("reason", "Registration error: " + e.getMessage()));
-                if (e instanceof ResponseStatusException) {
-                    throw e;
-                }
-                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при регистрации: " + e.getMessage());
+                    Map.of("reason", "Failed to create user"));
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при создании пользователя");
+            }
+
+            CredentialRepresentation passwordCred = new CredentialRepresentation();
+            passwordCred.setTemporary(false);
+            passwordCred.setType(CredentialRepresentation.PASSWORD);
+            passwordCred.setValue(request.password);
+            
+            UserResource userResource = adminKeycloak.realm(realm).users().get(userId);
+            run("users.reset-password", () -> userResource.resetPassword(passwordCred));
+
+            roleCatalogCache.withRealmRoles(Collections.singletonList("user"),
+                    roles -> run("roles.add", () -> userResource.roles().realmLevel().add(roles)));
+
+            userEventService.sendUserEvent(UserEventType.USER_REGISTERED, userId, 
+                Map.of("username", request.username, "email", request.email));
+            return userId;
+            
+        } catch (Exception e) {
+            log.error("Ошибка при регистрации пользователя", e);
+            userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username, 
+                Map.of("reason", "Registration error: " + e.getMessage()));
+            if (e instanceof ResponseStatusException) {
+                throw e;
             }
-        });
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при регистрации: " + e.getMessage());
+        }
+    }
+
+    private <T> T call(String operation, Supplier<T> call) {
+        return outboundMetrics.record(OutboundMetrics.KEYCLOAK, operation, call);
+    }
+
+    private void run(String operation, Runnable call) {
+        outboundMetrics.run(OutboundMetrics.KEYCLOAK, operation, call);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,232 @@
+package com.keycloak.userservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.redisson.api.RBucket;
+import org.redisson.api.RScript;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Хранилище ключей идемпотентности в Redis. Первый запрос с ключом ставит отметку о выполнении,
+ * по завершении сохраняется результат; повторы с тем же ключом получают сохраненный результат
+ * без повторного обращения к Keycloak.
+ * Сохраняется только несекретный результат (например, идентификатор пользователя) вместе с хэшем
+ * запроса: повтор с тем же ключом, но другим телом, отклоняется. Отметка о выполнении принадлежит
+ * запустившему операцию запросу и снимается или заменяется результатом только им.
+ */
+@Service
+public class IdempotencyService {
+
+    private static final Logger log = LoggerFactory.getLogger(IdempotencyService.class);
+
+    private static final String KEY_PREFIX = "idempotency:";
+    private static final String IN_PROGRESS_PREFIX = "IN_PROGRESS:";
+    private static final char FINGERPRINT_SEPARATOR = ':';
+
+    // Результат записывается, только если отметка все еще принадлежит этому запросу
+    private static final String STORE_IF_OWNER_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then "
+                    + "redis.call('set', KEYS[1], ARGV[2], 'EX', ARGV[3]); return 1; "
+                    + "end; return 0;";
+
+    private final RedissonClient redissonClient;
+    private final ObjectMapper objectMapper;
+    private final long ttlSeconds;
+    private final Duration inProgressTtl;
+
+    @Autowired
+    public IdempotencyService(
+            RedissonClient redissonClient,
+            ObjectMapper objectMapper,
+            @Value("${idempotency.ttl:86400}") long ttlSeconds,
+            @Value("${idempotency.in-progress-ttl:60}") long inProgressTtlSeconds) {
+        this.redissonClient = redissonClient;
+        this.objectMapper = objectMapper;
+        this.ttlSeconds = ttlSeconds;
+        this.inProgressTtl = Duration.ofSeconds(inProgressTtlSeconds);
+    }
+
+    /**
+     * Выполняет операцию не более одного раза для ключа идемпотентности
+     *
+     * @param scope область ключа (операция и ее параметры), чтобы один ключ не переиспользовался для другого запроса
+     * @param idempotencyKey ключ идемпотентности клиента; если не задан, операция выполняется как обычно
+     * @param fingerprint хэш значимых полей запроса, см. {@link #fingerprint(Object...)}
+     * @param resultType тип результата для восстановления из Redis; результат не должен содержать секретов
+     * @param action операция
+     * @param <T> тип результата
+     * @return результат операции или сохраненный результат первого выполнения
+     * @throws ResponseStatusException 409, если запрос с этим ключом еще выполняется;
+     *                                 422, если ключ уже использован с другим телом запроса
+     */
+    public <T> T execute(String scope, String idempotencyKey, String fingerprint, Class<T> resultType, Supplier<T> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+
+        RBucket<String> record = redissonClient.getBucket(KEY_PREFIX + scope + ":" + idempotencyKey, StringCodec.INSTANCE);
+        String marker = IN_PROGRESS_PREFIX + UUID.randomUUID();
+        while (!record.setIfAbsent(marker, inProgressTtl)) {
+            String stored = record.get();
+            if (stored == null) {
+                continue;
+            }
+            log.debug("Возвращен сохраненный результат для Idempotency-Key {}", idempotencyKey);
+            return replay(stored, fingerprint, resultType);
+        }
+
+        T result;
+        try {
+            result = action.get();
+        } catch (RuntimeException e) {
+            release(record, marker);
+            throw e;
+        }
+        String value = serialize(result, fingerprint, idempotencyKey);
+        if (value == null) {
+            release(record, marker);
+        } else if (!storeIfOwner(record, marker, value)) {
+            log.warn("Отметка Idempotency-Key {} истекла до завершения операции, результат не сохранен", idempotencyKey);
+        }
+        return result;
+    }
+
+    /**
+     * Неблокирующий вариант {@link #execute(String, String, String, Class, Supplier)} для асинхронных операций
+     */
+    public <T> CompletableFuture<T> executeAsync(String scope, String idempotencyKey, String fingerprint, Class<T> resultType,
+                                                 Supplier<CompletableFuture<T>> action) {
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return action.get();
+        }
+
+        RBucket<String> record = redissonClient.getBucket(KEY_PREFIX + scope + ":" + idempotencyKey, StringCodec.INSTANCE);
+        String marker = IN_PROGRESS_PREFIX + UUID.randomUUID();
+        return record.setIfAbsentAsync(marker, inProgressTtl).toCompletableFuture().thenCompose(acquired -> {
+            if (!acquired) {
+                return record.getAsync().toCompletableFuture().thenCompose(stored -> {
+                    if (stored == null) {
+                        return executeAsync(scope, idempotencyKey, fingerprint, resultType, action);
+                    }
+                    log.debug("Возвращен сохраненный результат для Idempotency-Key {}", idempotencyKey);
+                    try {
+                        return CompletableFuture.completedFuture(replay(stored, fingerprint, resultType));
+                    } catch (RuntimeException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                });
+            }
+
+            CompletableFuture<T> result;
+            try {
+                result = action.get();
+            } catch (RuntimeException e) {
+                result = CompletableFuture.failedFuture(e);
+            }
+            return result
+                    .whenComplete((value, error) -> {
+                        if (error != null) {
+                            releaseAsync(record, marker);
+                        }
+                    })
+                    .thenCompose(value -> storeAsync(record, marker, idempotencyKey, fingerprint, value)
+                            .thenApply(ignored -> value));
+        });
+    }
+
+    /**
+     * Хэш значимых полей запроса для сравнения повторов. Секреты (пароли) передавать не нужно:
+     * хэш хранится в Redis вместе с результатом.
+     */
+    public static String fingerprint(Object... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (Object part : parts) {
+                digest.update(String.valueOf(part).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    private <T> T replay(String stored, String fingerprint, Class<T> resultType) {
+        if (stored.startsWith(IN_PROGRESS_PREFIX)) {
+            throw new ResponseStatusException(HttpStatus.CONFLICT, "Запрос с этим Idempotency-Key уже выполняется");
+        }
+        int separator = stored.indexOf(FINGERPRINT_SEPARATOR);
+        if (separator < 0 || !stored.substring(0, separator).equals(fingerprint)) {
+            throw new ResponseStatusException(HttpStatus.UNPROCESSABLE_ENTITY,
+                    "Idempotency-Key уже использован с другим запросом");
+        }
+        try {
+            return objectMapper.readValue(stored.substring(separator + 1), resultType);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Поврежденная запись идемпотентности", e);
+        }
+    }
+
+    private String serialize(Object result, String fingerprint, String idempotencyKey) {
+        try {
+            return fingerprint + FINGERPRINT_SEPARATOR + objectMapper.writeValueAsString(result);
+        } catch (JsonProcessingException e) {
+            log.error("Не удалось сохранить результат для Idempotency-Key {}", idempotencyKey, e);
+            return null;
+        }
+    }
+
+    private boolean storeIfOwner(RBucket<String> record, String marker, String value) {
+        return redissonClient.getScript(StringCodec.INSTANCE).eval(record.getName(), RScript.Mode.READ_WRITE,
+                STORE_IF_OWNER_SCRIPT, RScript.ReturnType.BOOLEAN, List.of(record.getName()),
+                marker, value, String.valueOf(ttlSeconds));
+    }
+
+    private CompletableFuture<Void> storeAsync(RBucket<String> record, String marker, String idempotencyKey,
+                                               String fingerprint, Object result) {
+        String value = serialize(result, fingerprint, idempotencyKey);
+        if (value == null) {
+            releaseAsync(record, marker);
+            return CompletableFuture.completedFuture(null);
+        }
+        return redissonClient.getScript(StringCodec.INSTANCE).<Boolean>evalAsync(record.getName(), RScript.Mode.READ_WRITE,
+                        STORE_IF_OWNER_SCRIPT, RScript.ReturnType.BOOLEAN, List.of(record.getName()),
+                        marker, value, String.valueOf(ttlSeconds))
+                .toCompletableFuture()
+                .thenAccept(stored -> {
+                    if (!stored) {
+                        log.warn("Отметка Idempotency-Key {} истекла до завершения операции, результат не сохранен", idempotencyKey);
+                    }
+                });
+    }
+
+    /**
+     * Снимает отметку, только если она принадлежит этому запросу: после истечения отметки
+     * ключ мог занять другой запрос
+     */
+    private static void release(RBucket<String> record, String marker) {
+        record.compareAndSet(marker, null);
+    }
+
+    private static void releaseAsync(RBucket<String> record, String marker) {
+        record.compareAndSetAsync(marker, null);
+    }
+}
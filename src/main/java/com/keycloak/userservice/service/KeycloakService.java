@@ -1,9 +1,17 @@
 package com.keycloak.userservice.service;
 
+import com.keycloak.userservice.cache.RoleCatalogCache;
+import com.keycloak.userservice.cache.UserProfileCache;
+import com.keycloak.userservice.context.RequestContext;
 import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.dto.UserLookupDTO;
 import com.keycloak.userservice.event.UserEventType;
+import com.keycloak.userservice.ratelimit.AdaptiveConcurrencyLimiter;
+import com.keycloak.userservice.ratelimit.ServiceOverloadedException;
 import com.keycloak.userservice.util.CreatedResponseUtil;
 import com.keycloak.userservice.util.DistributedLockUtil;
+import com.keycloak.userservice.util.OutboundMetrics;
+import jakarta.ws.rs.NotFoundException;
 import jakarta.ws.rs.core.Response;
 import org.keycloak.admin.client.Keycloak;
 import org.keycloak.admin.client.resource.UserResource;
@@ -11,10 +19,20 @@ import org.keycloak.representations.idm.CredentialRepresentation;
 import org.keycloak.representations.idm.RoleRepresentation;
 import org.keycloak.representations.idm.UserRepresentation;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
 
 @Service
 public class KeycloakService {
@@ -23,228 +41,314 @@ public class KeycloakService {
     private final String realm;
     private final DistributedLockUtil lockUtil;
     private final UserEventService userEventService;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final AsyncTaskExecutor keycloakExecutor;
+    private final IdempotencyService idempotencyService;
+    private final UserProfileCache userProfileCache;
+    private final RoleCatalogCache roleCatalogCache;
+    private final TokenRevocationService tokenRevocationService;
+    private final OutboundMetrics outboundMetrics;
+    private final int batchMaxSize;
+    private final int batchParallelism;
 
-    private static final String CREATE_USER_LOCK_PREFIX = "lock:create-user:";
     private static final String UPDATE_USER_LOCK_PREFIX = "lock:update-user:";
     private static final String DELETE_USER_LOCK_PREFIX = "lock:delete-user:";
     private static final String GET_USER_LOCK_PREFIX = "lock:get-user:";
     private static final String GET_ALL_USERS_LOCK = "lock:get-all-users";
+    private static final String CREATE_USER_IDEMPOTENCY_SCOPE = "create-user:";
 
     @Autowired
     public KeycloakService(
             Keycloak keycloak, 
             @Value("${keycloak.realm}") String realm,
             DistributedLockUtil lockUtil,
-            UserEventService userEventService) {
+            UserEventService userEventService,
+            AdaptiveConcurrencyLimiter concurrencyLimiter,
+            @Qualifier("keycloakExecutor") AsyncTaskExecutor keycloakExecutor,
+            IdempotencyService idempotencyService,
+            UserProfileCache userProfileCache,
+            RoleCatalogCache roleCatalogCache,
+            TokenRevocationService tokenRevocationService,
+            OutboundMetrics outboundMetrics,
+            @Value("${users.batch.max-size:100}") int batchMaxSize,
+            @Value("${users.batch.parallelism:8}") int batchParallelism) {
         this.keycloak = keycloak;
         this.realm = realm;
         this.lockUtil = lockUtil;
         this.userEventService = userEventService;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.keycloakExecutor = keycloakExecutor;
+        this.idempotencyService = idempotencyService;
+        this.userProfileCache = userProfileCache;
+        this.roleCatalogCache = roleCatalogCache;
+        this.tokenRevocationService = tokenRevocationService;
+        this.outboundMetrics = outboundMetrics;
+        this.batchMaxSize = batchMaxSize;
+        this.batchParallelism = batchParallelism;
     }
 
-    public String createUser(KeycloakUserDTO userDTO) {
-        String lockKey = CREATE_USER_LOCK_PREFIX + userDTO.getUsername();
+    public String createUser(KeycloakUserDTO userDTO, String idempotencyKey) {
+        String scope = CREATE_USER_IDEMPOTENCY_SCOPE + userDTO.getUsername();
         
-        return lockUtil.executeWithLock(lockKey, () -> {
-            UserRepresentation user = new UserRepresentation();
-            user.setUsername(userDTO.getUsername());
-            user.setEmail(userDTO.getEmail());
-            user.setFirstName(userDTO.getFirstName());
-            user.setLastName(userDTO.getLastName());
-            user.setEmailVerified(userDTO.getEmailVerified());
+        return idempotencyService.execute(scope, idempotencyKey, createUserFingerprint(userDTO), String.class,
+                () -> concurrencyLimiter.execute(() -> {
+            RequestContext.currentDeadline().check();
+            UserRepresentation user = toNewUserRepresentation(userDTO);
             
-            Map<String, List<String>> attributes = new HashMap<>();
-            
-            if (userDTO.getPhoneNumber() != null) {
-                attributes.put("phoneNumber", Collections.singletonList(userDTO.getPhoneNumber()));
-            }
-            
-            if (userDTO.getPreferences() != null) {
-                attributes.put("preferences", Collections.singletonList(userDTO.getPreferences()));
-            }
-            
-            user.setAttributes(attributes);
-            
-            Response response = keycloak.realm(realm).users().create(user);
+            Response response = call("users.create", () -> keycloak.realm(realm).users().create(user));
             String userId = CreatedResponseUtil.getCreatedId(response);
             
             if (userId != null) {
-                CredentialRepresentation passwordCred = new CredentialRepresentation();
-                passwordCred.setTemporary(false);
-                passwordCred.setType(CredentialRepresentation.PASSWORD);
-                passwordCred.setValue(userDTO.getUsername() + "123");
-                
                 UserResource userResource = keycloak.realm(realm).users().get(userId);
-                userResource.resetPassword(passwordCred);
+                run("users.reset-password", () -> userResource.resetPassword(initialPassword(userDTO)));
 
                 if (userDTO.getRoles() != null && !userDTO.getRoles().isEmpty()) {
-                    List<RoleRepresentation> rolesToAdd = new ArrayList<>();
-                    userDTO.getRoles().forEach(roleName -> {
-                        RoleRepresentation role = keycloak.realm(realm).roles().get(roleName).toRepresentation();
-                        rolesToAdd.add(role);
-                    });
-                    userResource.roles().realmLevel().add(rolesToAdd);
+                    roleCatalogCache.withRealmRoles(userDTO.getRoles(),
+                            rolesToAdd -> run("roles.add", () -> userResource.roles().realmLevel().add(rolesToAdd)));
                 }
             }
             
             return userId;
-        });
+        }));
     }
 
     public void updateUser(String userId, KeycloakUserDTO userDTO) {
         String lockKey = UPDATE_USER_LOCK_PREFIX + userId;
         
-        lockUtil.executeWithLock(lockKey, () -> {
-            UserRepresentation user = keycloak.realm(realm).users().get(userId).toRepresentation();
+        concurrencyLimiter.runTimed(permit -> lockUtil.executeWithLock(lockKey, permit.timed(() -> {
+            UserRepresentation user = call("users.get", () -> keycloak.realm(realm).users().get(userId).toRepresentation());
+            Map<String, Object> changes = applyUpdate(user, userDTO);
             
-
-            Map<String, Object> oldValues = new HashMap<>();
-            oldValues.put("email", user.getEmail());
-            oldValues.put("firstName", user.getFirstName());
-            oldValues.put("lastName", user.getLastName());
-            oldValues.put("enabled", user.isEnabled());
-            oldValues.put("emailVerified", user.isEmailVerified());
-            oldValues.put("attributes", user.getAttributes());
-            
-            user.setEmail(userDTO.getEmail());
-            user.setFirstName(userDTO.getFirstName());
-            user.setLastName(userDTO.getLastName());
-            user.setEnabled(userDTO.getEnabled());
-            user.setEmailVerified(userDTO.getEmailVerified());
-            
-            Map<String, List<String>> attributes = new HashMap<>();
-            if (userDTO.getPhoneNumber() != null) {
-                attributes.put("phoneNumber", Collections.singletonList(userDTO.getPhoneNumber()));
-            }
-            if (userDTO.getPreferences() != null) {
-                attributes.put("preferences", Collections.singletonList(userDTO.getPreferences()));
-            }
-            user.setAttributes(attributes);
-            
-            keycloak.realm(realm).users().get(userId).update(user);
-
-
-            Map<String, Object> changes = new HashMap<>();
-            if (!Objects.equals(oldValues.get("email"), userDTO.getEmail())) {
-                changes.put("email", userDTO.getEmail());
-            }
-            if (!Objects.equals(oldValues.get("firstName"), userDTO.getFirstName())) {
-                changes.put("firstName", userDTO.getFirstName());
-            }
-            if (!Objects.equals(oldValues.get("lastName"), userDTO.getLastName())) {
-                changes.put("lastName", userDTO.getLastName());
-            }
-            if (!Objects.equals(oldValues.get("enabled"), userDTO.getEnabled())) {
-                changes.put("enabled", userDTO.getEnabled());
-            }
-            if (!Objects.equals(oldValues.get("emailVerified"), userDTO.getEmailVerified())) {
-                changes.put("emailVerified", userDTO.getEmailVerified());
-            }
-            if (!Objects.equals(oldValues.get("attributes"), attributes)) {
-                changes.put("attributes", attributes);
-            }
+            RequestContext.currentDeadline().check();
+            run("users.update", () -> keycloak.realm(realm).users().get(userId).update(user));
+            userProfileCache.evict(userId);
 
             userEventService.sendUserEvent(UserEventType.PROFILE_UPDATED, userId, changes);
-        });
+        })));
     }
 
     public void deleteUser(String userId) {
         String lockKey = DELETE_USER_LOCK_PREFIX + userId;
         
-        lockUtil.executeWithLock(lockKey, () -> {
+        concurrencyLimiter.runTimed(permit -> lockUtil.executeWithLock(lockKey, permit.timed(() -> {
 
-            UserRepresentation user = keycloak.realm(realm).users().get(userId).toRepresentation();
+            UserRepresentation user = call("users.get", () -> keycloak.realm(realm).users().get(userId).toRepresentation());
             
-            keycloak.realm(realm).users().delete(userId);
+            RequestContext.currentDeadline().check();
+            call("users.delete", () -> keycloak.realm(realm).users().delete(userId));
+            userProfileCache.evict(userId);
 
             userEventService.sendUserEvent(UserEventType.USER_DELETED, userId, 
                 Map.of("username", user.getUsername(), "email", user.getEmail()));
-        });
+        })));
     }
 
     public KeycloakUserDTO getUser(String userId) {
+        KeycloakUserDTO cached = userProfileCache.getProfile(userId);
+        if (cached != null) {
+            sendProfileViewed(userId);
+            return cached;
+        }
+
         String lockKey = GET_USER_LOCK_PREFIX + userId;
         
-        return lockUtil.executeWithLock(lockKey, () -> {
-            UserRepresentation user = keycloak.realm(realm).users().get(userId).toRepresentation();
-            KeycloakUserDTO userDTO = new KeycloakUserDTO();
-            userDTO.setId(user.getId());
-            userDTO.setUsername(user.getUsername());
-            userDTO.setEmail(user.getEmail());
-            userDTO.setFirstName(user.getFirstName());
-            userDTO.setLastName(user.getLastName());
-            userDTO.setEnabled(user.isEnabled());
-            userDTO.setEmailVerified(user.isEmailVerified());
-            
-            Map<String, List<String>> attributes = user.getAttributes();
-            if (attributes != null) {
-                if (attributes.containsKey("phoneNumber")) {
-                    userDTO.setPhoneNumber(attributes.get("phoneNumber").get(0));
-                }
-                if (attributes.containsKey("preferences")) {
-                    userDTO.setPreferences(attributes.get("preferences").get(0));
-                }
+        return concurrencyLimiter.executeTimed(permit -> lockUtil.executeWithLock(lockKey, permit.timed(() -> loadUser(userId))));
+    }
+
+    /**
+     * Асинхронный вариант {@link #getUser(String)}: ожидание блокировки не занимает поток,
+     * а вызовы Keycloak выполняются в пуле keycloakExecutor
+     */
+    public CompletableFuture<KeycloakUserDTO> getUserAsync(String userId) {
+        return getUserAsync(userId, userProfileCache.getProfileAsync(userId));
+    }
+
+    /**
+     * Профиль для ответа на If-None-Match: из кэша, только если версия кэшированного профиля
+     * совпадает с текущей, иначе из Keycloak
+     */
+    public CompletableFuture<KeycloakUserDTO> getCurrentUserAsync(String userId) {
+        return getUserAsync(userId, userProfileCache.getCurrentProfileAsync(userId));
+    }
+
+    private CompletableFuture<KeycloakUserDTO> getUserAsync(String userId, CompletableFuture<KeycloakUserDTO> cachedProfile) {
+        String lockKey = GET_USER_LOCK_PREFIX + userId;
+        Supplier<KeycloakUserDTO> loader = RequestContext.wrap(() -> loadUser(userId));
+        Runnable profileViewed = RequestContext.wrap(() -> sendProfileViewed(userId));
+        
+        return cachedProfile.thenCompose(cached -> {
+            if (cached != null) {
+                profileViewed.run();
+                return CompletableFuture.completedFuture(cached);
             }
-            
-            List<String> roles = keycloak.realm(realm).users().get(userId).roles()
-                    .realmLevel().listAll().stream()
-                    .map(RoleRepresentation::getName)
-                    .toList();
-            
-            userDTO.setRoles(roles);
+            return concurrencyLimiter.executeTimedAsync(permit -> lockUtil.executeWithLockAsync(lockKey,
+                    permit.timed(() -> supplyAsync(loader))));
+        });
+    }
 
-            userEventService.sendUserEvent(UserEventType.PROFILE_VIEWED, userId, 
-                Map.of("viewedBy", "SYSTEM"));
-            
-            return userDTO;
+    /**
+     * Запуск в пуле keycloakExecutor; заполненная очередь пула означает перегрузку, и клиент
+     * получает 503 с Retry-After вместо 500 от TaskRejectedException
+     */
+    private <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, keycloakExecutor);
+        } catch (TaskRejectedException e) {
+            throw new ServiceOverloadedException(e);
+        }
+    }
+
+    private KeycloakUserDTO loadUser(String userId) {
+        KeycloakUserDTO userDTO = fetchProfile(userId);
+        sendProfileViewed(userId);
+        
+        return userDTO;
+    }
+
+    private KeycloakUserDTO fetchProfile(String userId) {
+        // Версия читается до загрузки: изменение во время загрузки даст новую версию, и профиль не попадет в кэш
+        Long version = userProfileCache.getVersion(userId);
+        UserRepresentation user = call("users.get", () -> keycloak.realm(realm).users().get(userId).toRepresentation());
+        KeycloakUserDTO userDTO = toUserDTO(user);
+        
+        RequestContext.currentDeadline().check();
+        List<String> roles = realmRoleNames(userId);
+        
+        userDTO.setRoles(roles);
+        userDTO.setVersion(version);
+        userProfileCache.putProfile(userDTO);
+        userProfileCache.putRoles(userId, roles);
+        
+        return userDTO;
+    }
+
+    private void sendProfileViewed(String userId) {
+        userEventService.sendUserEvent(UserEventType.PROFILE_VIEWED, userId, 
+            Map.of("viewedBy", "SYSTEM"));
+    }
+
+    /**
+     * Пакетное получение профилей по идентификаторам. Повторы отбрасываются, найденные в кэше
+     * профили возвращаются без обращения к Keycloak, остальные загружаются параллельно
+     * (не более users.batch.parallelism одновременно) в пуле keycloakExecutor.
+     * В отличие от {@link #getUser(String)} не берет блокировку и не отправляет PROFILE_VIEWED:
+     * это разрешение идентификаторов в профили, а не просмотр профиля.
+     *
+     * @param userIds идентификаторы пользователей
+     * @return результаты в порядке первого появления идентификатора, с отметкой для ненайденных
+     * @throws ResponseStatusException 400, если идентификаторов больше users.batch.max-size или среди них есть пустые
+     */
+    public List<UserLookupDTO> getUsersByIds(List<String> userIds) {
+        Set<String> uniqueIds = uniqueBatchIds(userIds, batchMaxSize);
+
+        Map<String, KeycloakUserDTO> users = new ConcurrentHashMap<>(userProfileCache.getProfiles(uniqueIds));
+        List<String> misses = uniqueIds.stream()
+                .filter(userId -> !users.containsKey(userId))
+                .toList();
+
+        if (!misses.isEmpty()) {
+            fetchUsers(misses, users);
+        }
+
+        return uniqueIds.stream()
+                .map(userId -> users.containsKey(userId)
+                        ? UserLookupDTO.found(userId, users.get(userId))
+                        : UserLookupDTO.notFound(userId))
+                .toList();
+    }
+
+    /**
+     * @throws ResponseStatusException 400, если идентификаторов больше maxSize или среди них есть пустые
+     */
+    static Set<String> uniqueBatchIds(List<String> userIds, int maxSize) {
+        Set<String> uniqueIds = new LinkedHashSet<>();
+        for (String userId : userIds) {
+            if (userId == null || userId.isBlank()) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Пустой идентификатор пользователя в запросе");
+            }
+            uniqueIds.add(userId);
+        }
+        if (uniqueIds.size() > maxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Слишком много идентификаторов в запросе, максимум " + maxSize);
+        }
+        return uniqueIds;
+    }
+
+    /**
+     * Разрешение ограничителя берется на каждый профиль, а не на весь пакет: пакет не занимает
+     * одно разрешение на время всех загрузок, и ограничитель получает задержку отдельного вызова
+     */
+    private void fetchUsers(List<String> userIds, Map<String, KeycloakUserDTO> users) {
+        Queue<String> pending = new ConcurrentLinkedQueue<>(userIds);
+        Runnable worker = RequestContext.wrap(() -> {
+            String next;
+            while ((next = pending.poll()) != null) {
+                String userId = next;
+                RequestContext.currentDeadline().check();
+                KeycloakUserDTO user = concurrencyLimiter.execute(() -> {
+                    try {
+                        return fetchProfile(userId);
+                    } catch (NotFoundException e) {
+                        // Отсутствующий пользователь попадет в ответ с found = false
+                        return null;
+                    }
+                });
+                if (user != null) {
+                    users.put(userId, user);
+                }
+            }
         });
+
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[Math.min(batchParallelism, userIds.size())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = supplyAsync(() -> {
+                worker.run();
+                return null;
+            });
+        }
+        try {
+            CompletableFuture.allOf(workers).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Завершает все сессии пользователя: Keycloak больше не выдает токены по его refresh-токенам,
+     * а уже выданные access-токены отклоняются до истечения срока
+     */
+    public void revokeUserSessions(String userId) {
+        concurrencyLimiter.execute(() -> run("users.logout", () -> keycloak.realm(realm).users().get(userId).logout()));
+        tokenRevocationService.revokeUserTokens(userId, "ADMIN_REVOKE");
     }
 
     public List<KeycloakUserDTO> getAllUsers() {
-        return lockUtil.executeWithLock(GET_ALL_USERS_LOCK, () -> {
-            return keycloak.realm(realm).users().list().stream()
+        return concurrencyLimiter.executeTimed(permit -> lockUtil.executeWithLock(GET_ALL_USERS_LOCK, permit.timed(() -> {
+            return call("users.list", () -> keycloak.realm(realm).users().list()).stream()
                     .map(user -> {
-                        KeycloakUserDTO userDTO = new KeycloakUserDTO();
-                        userDTO.setId(user.getId());
-                        userDTO.setUsername(user.getUsername());
-                        userDTO.setEmail(user.getEmail());
-                        userDTO.setFirstName(user.getFirstName());
-                        userDTO.setLastName(user.getLastName());
-                        userDTO.setEnabled(user.isEnabled());
-                        userDTO.setEmailVerified(user.isEmailVerified());
+                        RequestContext.currentDeadline().check();
+                        KeycloakUserDTO userDTO = toUserDTO(user);
                         
-                        Map<String, List<String>> attributes = user.getAttributes();
-                        if (attributes != null) {
-                            if (attributes.containsKey("phoneNumber")) {
-                                userDTO.setPhoneNumber(attributes.get("phoneNumber").get(0));
-                            }
-                            if (attributes.containsKey("preferences")) {
-                                userDTO.setPreferences(attributes.get("preferences").get(0));
-                            }
-                        }
-                        
-                        List<String> roles = keycloak.realm(realm).users().get(user.getId()).roles()
-                                .realmLevel().listAll().stream()
-                                .map(RoleRepresentation::getName)
-                                .toList();
+                        List<String> roles = realmRoleNames(user.getId());
                         
                         userDTO.setRoles(roles);
                         
                         return userDTO;
                     })
                     .toList();
-        });
+        })));
     }
 
     public void updateUserRoles(String userId, List<String> roles) {
         String lockKey = UPDATE_USER_LOCK_PREFIX + userId;
         
-        lockUtil.executeWithLock(lockKey, () -> {
+        concurrencyLimiter.runTimed(permit -> lockUtil.executeWithLock(lockKey, permit.timed(() -> {
 
-            List<String> currentRoles = keycloak.realm(realm).users().get(userId).roles()
-                    .realmLevel().listAll().stream()
-                    .map(RoleRepresentation::getName)
-                    .toList();
+            List<String> currentRoles = realmRoleNames(userId);
             
 
             List<String> rolesToAdd = roles.stream()
@@ -255,12 +359,13 @@ public class KeycloakService {
                     .filter(role -> !roles.contains(role))
                     .toList();
             
+            RequestContext.currentDeadline().check();
 
             if (!rolesToAdd.isEmpty()) {
                 List<RoleRepresentation> rolesToAddRep = rolesToAdd.stream()
-                        .map(roleName -> keycloak.realm(realm).roles().get(roleName).toRepresentation())
+                        .map(roleCatalogCache::getRealmRole)
                         .toList();
-                keycloak.realm(realm).users().get(userId).roles().realmLevel().add(rolesToAddRep);
+                run("roles.add", () -> keycloak.realm(realm).users().get(userId).roles().realmLevel().add(rolesToAddRep));
                 
                 userEventService.sendUserEvent(UserEventType.ROLE_ASSIGNED, userId, 
                     Map.of("roles", rolesToAdd));
@@ -269,13 +374,136 @@ public class KeycloakService {
 
             if (!rolesToRemove.isEmpty()) {
                 List<RoleRepresentation> rolesToRemoveRep = rolesToRemove.stream()
-                        .map(roleName -> keycloak.realm(realm).roles().get(roleName).toRepresentation())
+                        .map(roleCatalogCache::getRealmRole)
                         .toList();
-                keycloak.realm(realm).users().get(userId).roles().realmLevel().remove(rolesToRemoveRep);
+                run("roles.remove", () -> keycloak.realm(realm).users().get(userId).roles().realmLevel().remove(rolesToRemoveRep));
                 
                 userEventService.sendUserEvent(UserEventType.ROLE_REMOVED, userId, 
                     Map.of("roles", rolesToRemove));
             }
-        });
+
+            if (!rolesToAdd.isEmpty() || !rolesToRemove.isEmpty()) {
+                userProfileCache.evict(userId);
+            }
+        })));
+    }
+
+    private List<String> realmRoleNames(String userId) {
+        return call("roles.list", () -> keycloak.realm(realm).users().get(userId).roles()
+                .realmLevel().listAll().stream()
+                .map(RoleRepresentation::getName)
+                .toList());
+    }
+
+    private <T> T call(String operation, Supplier<T> call) {
+        return outboundMetrics.record(OutboundMetrics.KEYCLOAK, operation, call);
+    }
+
+    private void run(String operation, Runnable call) {
+        outboundMetrics.run(OutboundMetrics.KEYCLOAK, operation, call);
+    }
+
+    static UserRepresentation toNewUserRepresentation(KeycloakUserDTO userDTO) {
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(userDTO.getUsername());
+        user.setEmail(userDTO.getEmail());
+        user.setFirstName(userDTO.getFirstName());
+        user.setLastName(userDTO.getLastName());
+        user.setEmailVerified(userDTO.getEmailVerified());
+        user.setAttributes(profileAttributes(userDTO));
+        return user;
+    }
+
+    static String createUserFingerprint(KeycloakUserDTO userDTO) {
+        return IdempotencyService.fingerprint(userDTO.getUsername(), userDTO.getEmail(), userDTO.getFirstName(),
+                userDTO.getLastName(), userDTO.getEnabled(), userDTO.getEmailVerified(), userDTO.getRoles(),
+                userDTO.getAttributes() != null ? new TreeMap<>(userDTO.getAttributes()) : null,
+                userDTO.getPhoneNumber(), userDTO.getPreferences());
+    }
+
+    static CredentialRepresentation initialPassword(KeycloakUserDTO userDTO) {
+        CredentialRepresentation passwordCred = new CredentialRepresentation();
+        passwordCred.setTemporary(false);
+        passwordCred.setType(CredentialRepresentation.PASSWORD);
+        passwordCred.setValue(userDTO.getUsername() + "123");
+        return passwordCred;
+    }
+
+    /**
+     * Переносит изменения профиля в представление Keycloak
+     *
+     * @return измененные поля для события PROFILE_UPDATED
+     */
+    static Map<String, Object> applyUpdate(UserRepresentation user, KeycloakUserDTO userDTO) {
+        Map<String, Object> oldValues = new HashMap<>();
+        oldValues.put("email", user.getEmail());
+        oldValues.put("firstName", user.getFirstName());
+        oldValues.put("lastName", user.getLastName());
+        oldValues.put("enabled", user.isEnabled());
+        oldValues.put("emailVerified", user.isEmailVerified());
+        oldValues.put("attributes", user.getAttributes());
+        
+        user.setEmail(userDTO.getEmail());
+        user.setFirstName(userDTO.getFirstName());
+        user.setLastName(userDTO.getLastName());
+        user.setEnabled(userDTO.getEnabled());
+        user.setEmailVerified(userDTO.getEmailVerified());
+        
+        Map<String, List<String>> attributes = profileAttributes(userDTO);
+        user.setAttributes(attributes);
+
+        Map<String, Object> changes = new HashMap<>();
+        if (!Objects.equals(oldValues.get("email"), userDTO.getEmail())) {
+            changes.put("email", userDTO.getEmail());
+        }
+        if (!Objects.equals(oldValues.get("firstName"), userDTO.getFirstName())) {
+            changes.put("firstName", userDTO.getFirstName());
+        }
+        if (!Objects.equals(oldValues.get("lastName"), userDTO.getLastName())) {
+            changes.put("lastName", userDTO.getLastName());
+        }
+        if (!Objects.equals(oldValues.get("enabled"), userDTO.getEnabled())) {
+            changes.put("enabled", userDTO.getEnabled());
+        }
+        if (!Objects.equals(oldValues.get("emailVerified"), userDTO.getEmailVerified())) {
+            changes.put("emailVerified", userDTO.getEmailVerified());
+        }
+        if (!Objects.equals(oldValues.get("attributes"), attributes)) {
+            changes.put("attributes", attributes);
+        }
+        return changes;
+    }
+
+    static KeycloakUserDTO toUserDTO(UserRepresentation user) {
+        KeycloakUserDTO userDTO = new KeycloakUserDTO();
+        userDTO.setId(user.getId());
+        userDTO.setUsername(user.getUsername());
+        userDTO.setEmail(user.getEmail());
+        userDTO.setFirstName(user.getFirstName());
+        userDTO.setLastName(user.getLastName());
+        userDTO.setEnabled(user.isEnabled());
+        userDTO.setEmailVerified(user.isEmailVerified());
+        
+        Map<String, List<String>> attributes = user.getAttributes();
+        if (attributes != null) {
+            if (attributes.containsKey("phoneNumber")) {
+                userDTO.setPhoneNumber(attributes.get("phoneNumber").get(0));
+            }
+            if (attributes.containsKey("preferences")) {
+                userDTO.setPreferences(attributes.get("preferences").get(0));
+            }
+        }
+        return userDTO;
+    }
+
+    private static Map<String, List<String>> profileAttributes(KeycloakUserDTO userDTO) {
+        Map<String, List<String>> attributes = new HashMap<>();
+        if (userDTO.getPhoneNumber() != null) {
+            attributes.put("phoneNumber", Collections.singletonList(userDTO.getPhoneNumber()));
+        }
+        if (userDTO.getPreferences() != null) {
+            attributes.put("preferences", Collections.singletonList(userDTO.getPreferences()));
+        }
+        return attributes;
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,295 @@
+package com.keycloak.userservice.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.keycloak.userservice.event.UserEventType;
+import org.redisson.api.RAtomicLong;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Локальный ограничитель неудачных попыток входа по имени пользователя и IP-адресу.
+ * Счетчики хранятся в памяти как скользящее окно из двух интервалов и синхронизируются
+ * между подами через Redis; заблокированные попытки отклоняются до обращения к Redis-блокировкам и Keycloak.
+ */
+@Service
+public class LoginThrottleService {
+
+    private static final Logger log = LoggerFactory.getLogger(LoginThrottleService.class);
+
+    private static final String COUNTER_PREFIX = "login-throttle:";
+    private static final String BLOCK_TOPIC = "login-throttle:blocks";
+    private static final String USER_KEY_PREFIX = "user:";
+    private static final String IP_KEY_PREFIX = "ip:";
+
+    private final RedissonClient redissonClient;
+    private final UserEventService userEventService;
+    private final boolean enabled;
+    private final int maxFailures;
+    private final long windowMillis;
+    private final long baseBackoffMillis;
+    private final long maxBackoffMillis;
+
+    private final Cache<String, FailureWindow> windows;
+    private final Map<String, LongAdder> rejectedAttempts = new ConcurrentHashMap<>();
+    private final Map<FailedLogin, LongAdder> failedLogins = new ConcurrentHashMap<>();
+    private final RTopic blockTopic;
+
+    @Autowired
+    public LoginThrottleService(
+            RedissonClient redissonClient,
+            UserEventService userEventService,
+            @Value("${login-throttle.enabled:true}") boolean enabled,
+            @Value("${login-throttle.max-failures:5}") int maxFailures,
+            @Value("${login-throttle.window:300}") long windowSeconds,
+            @Value("${login-throttle.base-backoff:1}") long baseBackoffSeconds,
+            @Value("${login-throttle.max-backoff:900}") long maxBackoffSeconds,
+            @Value("${login-throttle.max-tracked-keys:100000}") long maxTrackedKeys) {
+        this.redissonClient = redissonClient;
+        this.userEventService = userEventService;
+        this.enabled = enabled;
+        this.maxFailures = maxFailures;
+        this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.baseBackoffMillis = TimeUnit.SECONDS.toMillis(baseBackoffSeconds);
+        this.maxBackoffMillis = TimeUnit.SECONDS.toMillis(maxBackoffSeconds);
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maxTrackedKeys)
+                .expireAfterAccess(Duration.ofMillis(Math.max(windowMillis * 2, maxBackoffMillis)))
+                .build();
+        this.blockTopic = redissonClient.getTopic(BLOCK_TOPIC, StringCodec.INSTANCE);
+        this.blockTopic.addListenerAsync(String.class, (channel, message) -> onRemoteBlock(message));
+    }
+
+    /**
+     * Проверяет, не заблокированы ли попытки входа для пользователя или IP-адреса
+     *
+     * @param username имя пользователя
+     * @param ipAddress IP-адрес клиента
+     * @throws ResponseStatusException 429, если попытки временно заблокированы
+     */
+    public void checkAllowed(String username, String ipAddress) {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (isBlocked(userKey(username), now) || isBlocked(ipKey(ipAddress), now)) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS,
+                    "Слишком много неудачных попыток входа, повторите позже");
+        }
+    }
+
+    public void recordFailure(String username, String ipAddress) {
+        if (!enabled) {
+            return;
+        }
+        recordFailure(userKey(username));
+        recordFailure(ipKey(ipAddress));
+    }
+
+    /**
+     * Сбрасывает счетчик неудач пользователя: локальное окно и счетчики текущего и предыдущего
+     * интервалов в Redis, иначе следующая неудача на любом поде продолжит старый счет
+     */
+    public void recordSuccess(String username) {
+        String key = userKey(username);
+        if (!enabled || key == null) {
+            return;
+        }
+        windows.invalidate(key);
+        long windowIndex = System.currentTimeMillis() / windowMillis;
+        redissonClient.getKeys().deleteAsync(counterKey(key, windowIndex), counterKey(key, windowIndex - 1))
+                .whenComplete((deleted, error) -> {
+                    if (error != null) {
+                        log.warn("Не удалось сбросить счетчик неудачных входов {}", key, error);
+                    }
+                });
+    }
+
+    /**
+     * Учитывает неудачный вход для агрегированного события USER_LOGIN_FAILED: при переборе паролей
+     * событие на каждую попытку нагружало бы Kafka так же, как сам перебор. Учитывается и при выключенном ограничителе.
+     *
+     * @param username имя пользователя из запроса
+     * @param reason причина отказа
+     */
+    public void reportFailedLogin(String username, String reason) {
+        FailedLogin login = new FailedLogin(username == null || username.isEmpty() ? "unknown" : username,
+                String.valueOf(reason));
+        failedLogins.computeIfAbsent(login, k -> new LongAdder()).increment();
+    }
+
+    /**
+     * Отправляет агрегированные события USER_LOGIN_FAILED по неудачным и отклоненным попыткам
+     * вместо события на каждую попытку
+     */
+    @Scheduled(fixedDelayString = "${login-throttle.report-interval:60000}")
+    public void reportRejectedAttempts() {
+        failedLogins.forEach((login, counter) -> {
+            long count = counter.sumThenReset();
+            if (count == 0) {
+                failedLogins.remove(login, counter);
+                return;
+            }
+            userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, login.username(),
+                    Map.of("reason", login.reason(), "failedAttempts", count));
+        });
+        rejectedAttempts.forEach((key, counter) -> {
+            long count = counter.sumThenReset();
+            if (count == 0) {
+                rejectedAttempts.remove(key, counter);
+                return;
+            }
+            boolean userKey = key.startsWith(USER_KEY_PREFIX);
+            String subject = key.substring(key.indexOf(':') + 1);
+            userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, userKey ? subject : "unknown",
+                    Map.of("reason", "Throttled",
+                            userKey ? "username" : "ipAddress", subject,
+                            "rejectedAttempts", count));
+        });
+    }
+
+    private boolean isBlocked(String key, long now) {
+        if (key == null) {
+            return false;
+        }
+        FailureWindow window = windows.getIfPresent(key);
+        if (window == null || window.blockedUntil <= now) {
+            return false;
+        }
+        rejectedAttempts.computeIfAbsent(key, k -> new LongAdder()).increment();
+        return true;
+    }
+
+    private void recordFailure(String key) {
+        if (key == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        FailureWindow window = windows.get(key, k -> new FailureWindow());
+        window.recordLocalFailure(now, windowMillis);
+        evaluate(key, window, now);
+
+        long windowIndex = now / windowMillis;
+        RAtomicLong counter = redissonClient.getAtomicLong(counterKey(key, windowIndex));
+        counter.incrementAndGetAsync().whenComplete((total, error) -> {
+            if (error != null) {
+                log.warn("Не удалось синхронизировать счетчик неудачных входов {}", key, error);
+                return;
+            }
+            if (total == 1) {
+                counter.expireAsync(Duration.ofMillis(windowMillis * 2));
+            }
+            long at = System.currentTimeMillis();
+            window.mergeClusterCount(windowIndex, total, at, windowMillis);
+            evaluate(key, window, at);
+        });
+    }
+
+    private void evaluate(String key, FailureWindow window, long now) {
+        double failures = window.estimate(now, windowMillis);
+        if (failures < maxFailures) {
+            return;
+        }
+        int exponent = (int) Math.min(30, failures - maxFailures);
+        long backoff = Math.min(maxBackoffMillis, baseBackoffMillis << exponent);
+        if (window.blockUntil(now + backoff)) {
+            blockTopic.publishAsync(key + "|" + window.blockedUntil);
+        }
+    }
+
+    /**
+     * Блокировка, объявленная другим подом; сообщение с неизвестным форматом пропускается,
+     * чтобы исключение не уходило в слушатель Redisson
+     */
+    void onRemoteBlock(String message) {
+        int separator = message == null ? -1 : message.lastIndexOf('|');
+        String key = separator > 0 ? message.substring(0, separator) : null;
+        if (key == null || !(key.startsWith(USER_KEY_PREFIX) || key.startsWith(IP_KEY_PREFIX))) {
+            log.warn("Пропущено некорректное сообщение о блокировке входа: {}", message);
+            return;
+        }
+        long blockedUntil;
+        try {
+            blockedUntil = Long.parseLong(message.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            log.warn("Пропущено некорректное сообщение о блокировке входа: {}", message);
+            return;
+        }
+        windows.get(key, k -> new FailureWindow()).blockUntil(blockedUntil);
+    }
+
+    private static String counterKey(String key, long windowIndex) {
+        return COUNTER_PREFIX + key + ":" + windowIndex;
+    }
+
+    private static String userKey(String username) {
+        return username == null || username.isEmpty() ? null : USER_KEY_PREFIX + username.toLowerCase();
+    }
+
+    private static String ipKey(String ipAddress) {
+        return ipAddress == null || "unknown".equals(ipAddress) ? null : IP_KEY_PREFIX + ipAddress;
+    }
+
+    private record FailedLogin(String username, String reason) {
+    }
+
+    /**
+     * Скользящее окно из двух интервалов: текущий счетчик плюс взвешенная доля предыдущего
+     */
+    static final class FailureWindow {
+        private long windowIndex = Long.MIN_VALUE;
+        private long current;
+        private long previous;
+        private volatile long blockedUntil;
+
+        synchronized void recordLocalFailure(long now, long windowMillis) {
+            rotate(now / windowMillis);
+            current++;
+        }
+
+        synchronized void mergeClusterCount(long index, long total, long now, long windowMillis) {
+            rotate(now / windowMillis);
+            if (index == windowIndex) {
+                current = Math.max(current, total);
+            }
+        }
+
+        synchronized double estimate(long now, long windowMillis) {
+            rotate(now / windowMillis);
+            double elapsed = (double) (now % windowMillis) / windowMillis;
+            return current + previous * (1 - elapsed);
+        }
+
+        synchronized boolean blockUntil(long until) {
+            if (until <= blockedUntil) {
+                return false;
+            }
+            blockedUntil = until;
+            return true;
+        }
+
+        private void rotate(long index) {
+            if (index == windowIndex) {
+                return;
+            }
+            previous = index == windowIndex + 1 ? current : 0;
+            current = 0;
+            windowIndex = index;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.cache.UserProfileCache;
+import com.keycloak.userservice.context.ReactiveRequestContextFilter;
+import com.keycloak.userservice.dto.AuthRequestDTO;
+import com.keycloak.userservice.dto.AuthResponseDTO;
+import com.keycloak.userservice.dto.RefreshTokenRequestDTO;
+import com.keycloak.userservice.dto.RegistrationRequestDTO;
+import com.keycloak.userservice.event.UserEventType;
+import com.keycloak.userservice.util.ReactiveCallGuard;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.keycloak.userservice.util.ReactiveCallGuard.callBlocking;
+import static com.keycloak.userservice.util.ReactiveCallGuard.runBlocking;
+
+/**
+ * Реактивный аналог {@link AuthService} для transport=reactive
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveAuthService {
+    private static final Logger log = LoggerFactory.getLogger(ReactiveAuthService.class);
+
+    private static final String LOGIN_LOCK_PREFIX = "lock:login:";
+    private static final String REFRESH_LOCK_PREFIX = "lock:refresh:";
+    private static final String REGISTER_IDEMPOTENCY_SCOPE = "register:";
+
+    private final ReactiveKeycloakClient keycloakClient;
+    private final ReactiveCallGuard callGuard;
+    private final ReactiveUserEventService userEventService;
+    private final LoginThrottleService loginThrottle;
+    private final IdempotencyService idempotencyService;
+    private final UserProfileCache userProfileCache;
+    private final TokenRevocationService tokenRevocationService;
+
+    @Autowired
+    public ReactiveAuthService(
+            ReactiveKeycloakClient keycloakClient,
+            ReactiveCallGuard callGuard,
+            ReactiveUserEventService userEventService,
+            LoginThrottleService loginThrottle,
+            IdempotencyService idempotencyService,
+            UserProfileCache userProfileCache,
+            TokenRevocationService tokenRevocationService) {
+        this.keycloakClient = keycloakClient;
+        this.callGuard = callGuard;
+        this.userEventService = userEventService;
+        this.loginThrottle = loginThrottle;
+        this.idempotencyService = idempotencyService;
+        this.userProfileCache = userProfileCache;
+        this.tokenRevocationService = tokenRevocationService;
+    }
+
+    public Mono<AuthResponseDTO> login(AuthRequestDTO request) {
+        return ReactiveRequestContextFilter.current()
+                .doOnNext(context -> loginThrottle.checkAllowed(request.username, context.ipAddress()))
+                .then(loginWithLock(request));
+    }
+
+    private Mono<AuthResponseDTO> loginWithLock(AuthRequestDTO request) {
+        String lockKey = LOGIN_LOCK_PREFIX + request.username;
+
+        return callGuard.limitedWithLock(lockKey, () -> keycloakClient.passwordGrant(request.username, request.password)
+                .doOnNext(tokenResponse -> loginThrottle.recordSuccess(request.username))
+                .flatMap(tokenResponse -> keycloakClient.searchByUsername(request.username)
+                        .flatMap(users -> {
+                            if (users.isEmpty()) {
+                                return userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username,
+                                                Map.of("reason", "User not found"))
+                                        .then(Mono.error(new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователь не найден")));
+                            }
+                            String userId = users.get(0).getId();
+                            return userRoles(userId).flatMap(roles -> {
+                                AuthResponseDTO response = toAuthResponse(tokenResponse, roles);
+                                response.userId = userId;
+                                return userEventService.sendUserEvent(UserEventType.USER_LOGGED_IN, userId,
+                                                Map.of("roles", roles, "tokenExpiresIn", tokenResponse.getExpiresIn()))
+                                        .thenReturn(response);
+                            });
+                        }))
+                .onErrorResume(e -> {
+                    log.error("Ошибка при аутентификации пользователя", e);
+                    loginThrottle.reportFailedLogin(request.username, e.getMessage());
+                    Mono<Void> recordFailure = Mono.empty();
+                    if (e instanceof ResponseStatusException statusException
+                            && statusException.getStatusCode() == HttpStatus.UNAUTHORIZED) {
+                        recordFailure = ReactiveRequestContextFilter.current()
+                                .doOnNext(context -> loginThrottle.recordFailure(request.username, context.ipAddress()))
+                                .then();
+                    }
+                    return recordFailure
+                            .then(Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Неверные учетные данные", e)));
+                }));
+    }
+
+    public Mono<AuthResponseDTO> refreshToken(RefreshTokenRequestDTO request) {
+        String refreshToken = request.refreshToken;
+        String lockKey = REFRESH_LOCK_PREFIX + refreshToken.hashCode();
+
+        return callGuard.limitedWithLock(lockKey, () -> keycloakClient.refreshGrant(refreshToken)
+                .flatMap(tokenResponse -> userEventService.sendUserEvent(UserEventType.USER_LOGGED_IN, "unknown",
+                                Map.of("tokenExpiresIn", tokenResponse.getExpiresIn(), "isRefresh", true))
+                        .thenReturn(toAuthResponse(tokenResponse, Collections.emptyList())))
+                .onErrorResume(e -> {
+                    log.error("Ошибка при обновлении токена", e);
+                    return userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, "unknown",
+                                    Map.of("reason", "Refresh token error: " + e.getMessage()))
+                            .then(Mono.error(new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Недействительный refresh токен")));
+                }));
+    }
+
+    /**
+     * Реактивный вариант {@link AuthService#logout(Jwt)}
+     */
+    public Mono<Void> logout(Jwt jwt) {
+        String sessionId = AuthService.sessionId(jwt);
+        Mono<Void> endSession;
+        if (sessionId != null) {
+            endSession = callGuard.limited(() -> keycloakClient.deleteSession(sessionId)
+                    .onErrorResume(ResponseStatusException.class, e -> e.getStatusCode() == HttpStatus.NOT_FOUND
+                            ? Mono.empty()
+                            : Mono.error(e)));
+        } else {
+            log.warn("В токене пользователя {} нет идентификатора сессии, отзывается только access-токен", jwt.getSubject());
+            endSession = Mono.empty();
+        }
+        return endSession.then(runBlocking(() -> tokenRevocationService.revokeToken(jwt)));
+    }
+
+    /**
+     * Регистрирует пользователя и выполняет вход. По Idempotency-Key сохраняется только идентификатор
+     * созданного пользователя: токены при повторе выдаются заново по паролю из запроса.
+     */
+    public Mono<AuthResponseDTO> register(RegistrationRequestDTO request, String idempotencyKey) {
+        String scope = REGISTER_IDEMPOTENCY_SCOPE + request.username;
+
+        Mono<String> createAccount = callGuard.limited(() -> keycloakClient.createUser(toUserRepresentation(request))
+                .flatMap(userId -> keycloakClient.resetPassword(userId, password(request.password))
+                        .then(keycloakClient.getRealmRole("user"))
+                        .flatMap(userRole -> keycloakClient.addRealmRoleMappings(userId, List.of(userRole)))
+                        .then(userEventService.sendUserEvent(UserEventType.USER_REGISTERED, userId,
+                                Map.of("username", request.username, "email", request.email)))
+                        .thenReturn(userId))
+                .onErrorResume(e -> {
+                    log.error("Ошибка при регистрации пользователя", e);
+                    ResponseStatusException error = e instanceof ResponseStatusException statusException
+                            ? statusException
+                            : new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при регистрации: " + e.getMessage());
+                    return userEventService.sendUserEvent(UserEventType.USER_LOGIN_FAILED, request.username,
+                                    Map.of("reason", "Registration error: " + e.getMessage()))
+                            .then(Mono.<String>error(error));
+                }));
+
+        return Mono.deferContextual(ctx -> Mono.fromFuture(() -> idempotencyService.executeAsync(
+                        scope, idempotencyKey, AuthService.registrationFingerprint(request), String.class,
+                        () -> createAccount.contextWrite(ctx).toFuture())))
+                .then(Mono.defer(() -> {
+                    AuthRequestDTO authRequest = new AuthRequestDTO();
+                    authRequest.username = request.username;
+                    authRequest.password = request.password;
+                    return loginWithLock(authRequest);
+                }));
+    }
+
+    private Mono<List<String>> userRoles(String userId) {
+        return callBlocking(() -> userProfileCache.getRoles(userId))
+                .switchIfEmpty(Mono.defer(() -> keycloakClient.getRealmRoleMappings(userId)
+                        .map(roles -> roles.stream()
+                                .map(RoleRepresentation::getName)
+                                .toList())
+                        .flatMap(roles -> runBlocking(() -> userProfileCache.putRoles(userId, roles)).thenReturn(roles))));
+    }
+
+    private static AuthResponseDTO toAuthResponse(AccessTokenResponse tokenResponse, List<String> roles) {
+        AuthResponseDTO response = new AuthResponseDTO();
+        response.accessToken = tokenResponse.getToken();
+        response.refreshToken = tokenResponse.getRefreshToken();
+        response.tokenType = tokenResponse.getTokenType();
+        response.expiresIn = tokenResponse.getExpiresIn();
+        response.refreshExpiresIn = tokenResponse.getRefreshExpiresIn();
+        response.roles = roles;
+        return response;
+    }
+
+    private static UserRepresentation toUserRepresentation(RegistrationRequestDTO request) {
+        UserRepresentation user = new UserRepresentation();
+        user.setUsername(request.username);
+        user.setEmail(request.email);
+        user.setFirstName(request.firstName);
+        user.setLastName(request.lastName);
+        user.setEmailVerified(false);
+        user.setEnabled(true);
+
+        Map<String, List<String>> attributes = new HashMap<>();
+        if (request.phoneNumber != null) {
+            attributes.put("phoneNumber", Collections.singletonList(request.phoneNumber));
+        }
+        user.setAttributes(attributes);
+        return user;
+    }
+
+    private static CredentialRepresentation password(String value) {
+        CredentialRepresentation passwordCred = new CredentialRepresentation();
+        passwordCred.setTemporary(false);
+        passwordCred.setType(CredentialRepresentation.PASSWORD);
+        passwordCred.setValue(value);
+        return passwordCred;
+    }
+}
@@ -0,0 +1,241 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.util.OutboundMetrics;
+import org.keycloak.representations.AccessTokenResponse;
+import org.keycloak.representations.idm.CredentialRepresentation;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.keycloak.representations.idm.UserRepresentation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Неблокирующий клиент Keycloak (токены и Admin REST API) на WebClient для transport=reactive.
+ * Токен сервисного клиента (client_credentials) кэшируется до истечения срока действия.
+ * Каждый вызов измеряется {@link OutboundMetrics} под тем же именем операции, что и в блокирующих сервисах.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveKeycloakClient {
+
+    private static final ParameterizedTypeReference<List<UserRepresentation>> USER_LIST =
+            new ParameterizedTypeReference<>() {};
+    private static final ParameterizedTypeReference<List<RoleRepresentation>> ROLE_LIST =
+            new ParameterizedTypeReference<>() {};
+    // Токен обновляется заранее, чтобы не отправить запрос с истекающим токеном
+    private static final long TOKEN_REFRESH_MARGIN_SECONDS = 30;
+
+    private final WebClient webClient;
+    private final String realm;
+    private final String clientId;
+    private final String clientSecret;
+    private final Mono<String> adminToken;
+    private final OutboundMetrics outboundMetrics;
+
+    @Autowired
+    public ReactiveKeycloakClient(
+            WebClient.Builder webClientBuilder,
+            @Value("${keycloak.auth-server-url}") String authServerUrl,
+            @Value("${keycloak.realm}") String realm,
+            @Value("${keycloak.resource}") String clientId,
+            @Value("${keycloak.credentials.secret}") String clientSecret,
+            OutboundMetrics outboundMetrics) {
+        this.webClient = webClientBuilder.baseUrl(authServerUrl).build();
+        this.realm = realm;
+        this.clientId = clientId;
+        this.clientSecret = clientSecret;
+        this.outboundMetrics = outboundMetrics;
+        this.adminToken = tokenRequest("token.client-credentials", baseForm("client_credentials"))
+                .cache(token -> Duration.ofSeconds(Math.max(0, token.getExpiresIn() - TOKEN_REFRESH_MARGIN_SECONDS)),
+                        error -> Duration.ZERO,
+                        () -> Duration.ZERO)
+                .map(AccessTokenResponse::getToken);
+    }
+
+    public Mono<AccessTokenResponse> passwordGrant(String username, String password) {
+        MultiValueMap<String, String> form = baseForm("password");
+        form.add("username", username);
+        form.add("password", password);
+        return tokenRequest("token.password-grant", form);
+    }
+
+    public Mono<AccessTokenResponse> refreshGrant(String refreshToken) {
+        MultiValueMap<String, String> form = baseForm("refresh_token");
+        form.add("refresh_token", refreshToken);
+        return tokenRequest("token.refresh", form);
+    }
+
+    public Mono<UserRepresentation> getUser(String userId) {
+        return adminGet("users.get", "/users/{userId}", UserRepresentation.class, userId);
+    }
+
+    public Mono<List<UserRepresentation>> listUsers() {
+        return adminToken.flatMap(token -> measure("users.list", webClient.get()
+                .uri("/admin/realms/{realm}/users", realm)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .bodyToMono(USER_LIST)));
+    }
+
+    public Mono<List<UserRepresentation>> searchByUsername(String username) {
+        return adminToken.flatMap(token -> measure("users.search", webClient.get()
+                .uri(uri -> uri.path("/admin/realms/{realm}/users")
+                        .queryParam("username", username)
+                        .queryParam("exact", true)
+                        .build(realm))
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .bodyToMono(USER_LIST)));
+    }
+
+    /**
+     * @return идентификатор созданного пользователя из заголовка Location
+     */
+    public Mono<String> createUser(UserRepresentation user) {
+        return adminToken.flatMap(token -> measure("users.create", webClient.post()
+                .uri("/admin/realms/{realm}/users", realm)
+                .headers(headers -> headers.setBearerAuth(token))
+                .bodyValue(user)
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .toBodilessEntity())
+                .flatMap(response -> {
+                    URI location = response.getHeaders().getLocation();
+                    if (location == null) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Ошибка при создании пользователя"));
+                    }
+                    String path = location.getPath();
+                    return Mono.just(path.substring(path.lastIndexOf('/') + 1));
+                }));
+    }
+
+    public Mono<Void> updateUser(String userId, UserRepresentation user) {
+        return adminWrite("users.update", HttpMethod.PUT, "/users/{userId}", user, userId);
+    }
+
+    public Mono<Void> deleteUser(String userId) {
+        return adminToken.flatMap(token -> measure("users.delete", webClient.delete()
+                .uri("/admin/realms/{realm}/users/{userId}", realm, userId)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .toBodilessEntity()
+                .then()));
+    }
+
+    public Mono<Void> resetPassword(String userId, CredentialRepresentation credential) {
+        return adminWrite("users.reset-password", HttpMethod.PUT, "/users/{userId}/reset-password", credential, userId);
+    }
+
+    public Mono<Void> logoutUser(String userId) {
+        return adminToken.flatMap(token -> measure("users.logout", webClient.post()
+                .uri("/admin/realms/{realm}/users/{userId}/logout", realm, userId)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .toBodilessEntity()
+                .then()));
+    }
+
+    public Mono<Void> deleteSession(String sessionId) {
+        return adminToken.flatMap(token -> measure("sessions.delete", webClient.delete()
+                .uri("/admin/realms/{realm}/sessions/{sessionId}", realm, sessionId)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .toBodilessEntity()
+                .then()));
+    }
+
+    public Mono<RoleRepresentation> getRealmRole(String roleName) {
+        return adminGet("roles.get", "/roles/{roleName}", RoleRepresentation.class, roleName);
+    }
+
+    public Mono<List<RoleRepresentation>> getRealmRoleMappings(String userId) {
+        return adminToken.flatMap(token -> measure("roles.list", webClient.get()
+                .uri("/admin/realms/{realm}/users/{userId}/role-mappings/realm", realm, userId)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .bodyToMono(ROLE_LIST)));
+    }
+
+    public Mono<Void> addRealmRoleMappings(String userId, List<RoleRepresentation> roles) {
+        return adminWrite("roles.add", HttpMethod.POST, "/users/{userId}/role-mappings/realm", roles, userId);
+    }
+
+    public Mono<Void> removeRealmRoleMappings(String userId, List<RoleRepresentation> roles) {
+        return adminWrite("roles.remove", HttpMethod.DELETE, "/users/{userId}/role-mappings/realm", roles, userId);
+    }
+
+    private <T> Mono<T> adminGet(String operation, String path, Class<T> type, String id) {
+        return adminToken.flatMap(token -> measure(operation, webClient.get()
+                .uri("/admin/realms/{realm}" + path, realm, id)
+                .headers(headers -> headers.setBearerAuth(token))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .bodyToMono(type)));
+    }
+
+    private Mono<Void> adminWrite(String operation, HttpMethod method, String path, Object body, String id) {
+        return adminToken.flatMap(token -> measure(operation, webClient.method(method)
+                .uri("/admin/realms/{realm}" + path, realm, id)
+                .headers(headers -> headers.setBearerAuth(token))
+                .bodyValue(body)
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .toBodilessEntity()
+                .then()));
+    }
+
+    private Mono<AccessTokenResponse> tokenRequest(String operation, MultiValueMap<String, String> form) {
+        return measure(operation, webClient.post()
+                .uri("/realms/{realm}/protocol/openid-connect/token", realm)
+                .body(BodyInserters.fromFormData(form))
+                .retrieve()
+                .onStatus(HttpStatusCode::isError, ReactiveKeycloakClient::toStatusException)
+                .bodyToMono(AccessTokenResponse.class));
+    }
+
+    /**
+     * Измеряется только HTTP-вызов, без ожидания токена сервисного клиента
+     */
+    private <T> Mono<T> measure(String operation, Mono<T> call) {
+        return outboundMetrics.recordMono(OutboundMetrics.KEYCLOAK, operation, call);
+    }
+
+    private MultiValueMap<String, String> baseForm(String grantType) {
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("client_id", clientId);
+        form.add("client_secret", clientSecret);
+        form.add("grant_type", grantType);
+        return form;
+    }
+
+    private static Mono<? extends Throwable> toStatusException(ClientResponse response) {
+        HttpStatus status = switch (response.statusCode().value()) {
+            case 400, 401, 403, 404, 409 -> HttpStatus.valueOf(response.statusCode().value());
+            default -> HttpStatus.BAD_GATEWAY;
+        };
+        return response.releaseBody().then(Mono.just(
+                new ResponseStatusException(status, "Keycloak вернул " + response.statusCode().value())));
+    }
+}
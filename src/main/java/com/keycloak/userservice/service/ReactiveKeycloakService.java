@@ -0,0 +1,270 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.cache.UserProfileCache;
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.dto.UserLookupDTO;
+import com.keycloak.userservice.event.UserEventType;
+import com.keycloak.userservice.util.ReactiveCallGuard;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static com.keycloak.userservice.util.ReactiveCallGuard.callBlocking;
+import static com.keycloak.userservice.util.ReactiveCallGuard.runBlocking;
+
+/**
+ * Реактивный аналог {@link KeycloakService} для transport=reactive: те же блокировки,
+ * кэш профилей и события, но без блокирующих вызовов в потоках event loop.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveKeycloakService {
+
+    private static final String UPDATE_USER_LOCK_PREFIX = "lock:update-user:";
+    private static final String DELETE_USER_LOCK_PREFIX = "lock:delete-user:";
+    private static final String GET_USER_LOCK_PREFIX = "lock:get-user:";
+    private static final String GET_ALL_USERS_LOCK = "lock:get-all-users";
+    private static final String CREATE_USER_IDEMPOTENCY_SCOPE = "create-user:";
+    // Сколько пользователей одновременно запрашивают роли при выгрузке списка
+    private static final int ROLE_FETCH_CONCURRENCY = 8;
+
+    private final ReactiveKeycloakClient keycloakClient;
+    private final ReactiveCallGuard callGuard;
+    private final ReactiveUserEventService userEventService;
+    private final IdempotencyService idempotencyService;
+    private final UserProfileCache userProfileCache;
+    private final TokenRevocationService tokenRevocationService;
+    private final int batchMaxSize;
+    private final int batchParallelism;
+
+    @Autowired
+    public ReactiveKeycloakService(
+            ReactiveKeycloakClient keycloakClient,
+            ReactiveCallGuard callGuard,
+            ReactiveUserEventService userEventService,
+            IdempotencyService idempotencyService,
+            UserProfileCache userProfileCache,
+            TokenRevocationService tokenRevocationService,
+            @Value("${users.batch.max-size:100}") int batchMaxSize,
+            @Value("${users.batch.parallelism:8}") int batchParallelism) {
+        this.keycloakClient = keycloakClient;
+        this.callGuard = callGuard;
+        this.userEventService = userEventService;
+        this.idempotencyService = idempotencyService;
+        this.userProfileCache = userProfileCache;
+        this.tokenRevocationService = tokenRevocationService;
+        this.batchMaxSize = batchMaxSize;
+        this.batchParallelism = batchParallelism;
+    }
+
+    public Mono<String> createUser(KeycloakUserDTO userDTO, String idempotencyKey) {
+        String scope = CREATE_USER_IDEMPOTENCY_SCOPE + userDTO.getUsername();
+
+        Mono<String> create = callGuard.limited(() -> keycloakClient.createUser(KeycloakService.toNewUserRepresentation(userDTO))
+                .flatMap(userId -> keycloakClient.resetPassword(userId, KeycloakService.initialPassword(userDTO))
+                        .then(assignRoles(userId, userDTO.getRoles()))
+                        .thenReturn(userId)));
+
+        return Mono.deferContextual(ctx -> Mono.fromFuture(() -> idempotencyService.executeAsync(
+                scope, idempotencyKey, KeycloakService.createUserFingerprint(userDTO), String.class,
+                () -> create.contextWrite(ctx).toFuture())));
+    }
+
+    public Mono<Void> updateUser(String userId, KeycloakUserDTO userDTO) {
+        String lockKey = UPDATE_USER_LOCK_PREFIX + userId;
+
+        return callGuard.limitedWithLock(lockKey, () -> keycloakClient.getUser(userId)
+                .flatMap(user -> {
+                    Map<String, Object> changes = KeycloakService.applyUpdate(user, userDTO);
+                    return keycloakClient.updateUser(userId, user)
+                            .then(runBlocking(() -> userProfileCache.evict(userId)))
+                            .then(userEventService.sendUserEvent(UserEventType.PROFILE_UPDATED, userId, changes));
+                }));
+    }
+
+    public Mono<Void> deleteUser(String userId) {
+        String lockKey = DELETE_USER_LOCK_PREFIX + userId;
+
+        return callGuard.limitedWithLock(lockKey, () -> keycloakClient.getUser(userId)
+                .flatMap(user -> keycloakClient.deleteUser(userId)
+                        .then(runBlocking(() -> userProfileCache.evict(userId)))
+                        .then(userEventService.sendUserEvent(UserEventType.USER_DELETED, userId,
+                                Map.of("username", user.getUsername(), "email", user.getEmail())))));
+    }
+
+    public Mono<KeycloakUserDTO> getUser(String userId) {
+        return getUser(userId, () -> userProfileCache.getProfileAsync(userId));
+    }
+
+    /**
+     * Реактивный вариант {@link KeycloakService#getCurrentUserAsync(String)}
+     */
+    public Mono<KeycloakUserDTO> getCurrentUser(String userId) {
+        return getUser(userId, () -> userProfileCache.getCurrentProfileAsync(userId));
+    }
+
+    private Mono<KeycloakUserDTO> getUser(String userId, Supplier<CompletableFuture<KeycloakUserDTO>> cachedProfile) {
+        String lockKey = GET_USER_LOCK_PREFIX + userId;
+
+        return Mono.fromFuture(cachedProfile)
+                .flatMap(cached -> sendProfileViewed(userId).thenReturn(cached))
+                .switchIfEmpty(Mono.defer(() -> callGuard.limitedWithLock(lockKey, () -> loadUser(userId))));
+    }
+
+    private Mono<KeycloakUserDTO> loadUser(String userId) {
+        return readProfile(userId)
+                .flatMap(userDTO -> cacheProfile(userDTO)
+                        .then(sendProfileViewed(userId))
+                        .thenReturn(userDTO));
+    }
+
+    /**
+     * Загружает профиль с ролями из Keycloak. Версия читается до загрузки, как в
+     * {@link KeycloakService}, чтобы профиль, измененный во время загрузки, не попал в кэш.
+     */
+    private Mono<KeycloakUserDTO> readProfile(String userId) {
+        return Mono.fromFuture(() -> userProfileCache.getVersionAsync(userId))
+                .map(Optional::of)
+                .defaultIfEmpty(Optional.empty())
+                .flatMap(version -> Mono.zip(keycloakClient.getUser(userId), realmRoleNames(userId))
+                        .map(userAndRoles -> {
+                            KeycloakUserDTO userDTO = KeycloakService.toUserDTO(userAndRoles.getT1());
+                            userDTO.setRoles(userAndRoles.getT2());
+                            userDTO.setVersion(version.orElse(null));
+                            return userDTO;
+                        }));
+    }
+
+    private Mono<Void> cacheProfile(KeycloakUserDTO userDTO) {
+        return runBlocking(() -> {
+            userProfileCache.putProfile(userDTO);
+            userProfileCache.putRoles(userDTO.getId(), userDTO.getRoles());
+        });
+    }
+
+    private Mono<Void> sendProfileViewed(String userId) {
+        return userEventService.sendUserEvent(UserEventType.PROFILE_VIEWED, userId,
+                Map.of("viewedBy", "SYSTEM"));
+    }
+
+    /**
+     * Реактивный вариант {@link KeycloakService#getUsersByIds(List)}
+     */
+    public Mono<List<UserLookupDTO>> getUsersByIds(List<String> userIds) {
+        Set<String> uniqueIds;
+        try {
+            uniqueIds = KeycloakService.uniqueBatchIds(userIds, batchMaxSize);
+        } catch (ResponseStatusException e) {
+            return Mono.error(e);
+        }
+
+        return callBlocking(() -> userProfileCache.getProfiles(uniqueIds)).flatMap(cached -> {
+            List<String> misses = uniqueIds.stream()
+                    .filter(userId -> !cached.containsKey(userId))
+                    .toList();
+            Mono<Map<String, KeycloakUserDTO>> fetched = misses.isEmpty()
+                    ? Mono.just(Map.of())
+                    : Flux.fromIterable(misses)
+                            .flatMap(userId -> callGuard.limited(() -> fetchProfile(userId)), batchParallelism)
+                            .collectMap(KeycloakUserDTO::getId);
+
+            return fetched.map(loaded -> uniqueIds.stream()
+                    .map(userId -> {
+                        KeycloakUserDTO user = cached.containsKey(userId) ? cached.get(userId) : loaded.get(userId);
+                        return user != null ? UserLookupDTO.found(userId, user) : UserLookupDTO.notFound(userId);
+                    })
+                    .toList());
+        });
+    }
+
+    private Mono<KeycloakUserDTO> fetchProfile(String userId) {
+        return readProfile(userId)
+                .flatMap(userDTO -> cacheProfile(userDTO).thenReturn(userDTO))
+                .onErrorResume(ResponseStatusException.class, e -> e.getStatusCode() == HttpStatus.NOT_FOUND
+                        ? Mono.empty()
+                        : Mono.error(e));
+    }
+
+    /**
+     * Реактивный вариант {@link KeycloakService#revokeUserSessions(String)}
+     */
+    public Mono<Void> revokeUserSessions(String userId) {
+        return callGuard.limited(() -> keycloakClient.logoutUser(userId))
+                .then(runBlocking(() -> tokenRevocationService.revokeUserTokens(userId, "ADMIN_REVOKE")));
+    }
+
+    public Mono<List<KeycloakUserDTO>> getAllUsers() {
+        return callGuard.limitedWithLock(GET_ALL_USERS_LOCK, () -> keycloakClient.listUsers()
+                .flatMapMany(Flux::fromIterable)
+                .flatMapSequential(user -> realmRoleNames(user.getId()).map(roles -> {
+                    KeycloakUserDTO userDTO = KeycloakService.toUserDTO(user);
+                    userDTO.setRoles(roles);
+                    return userDTO;
+                }), ROLE_FETCH_CONCURRENCY)
+                .collectList());
+    }
+
+    public Mono<Void> updateUserRoles(String userId, List<String> roles) {
+        String lockKey = UPDATE_USER_LOCK_PREFIX + userId;
+
+        return callGuard.limitedWithLock(lockKey, () -> realmRoleNames(userId).flatMap(currentRoles -> {
+            List<String> rolesToAdd = roles.stream()
+                    .filter(role -> !currentRoles.contains(role))
+                    .toList();
+
+            List<String> rolesToRemove = currentRoles.stream()
+                    .filter(role -> !roles.contains(role))
+                    .toList();
+
+            Mono<Void> add = rolesToAdd.isEmpty() ? Mono.empty() : resolveRoles(rolesToAdd)
+                    .flatMap(representations -> keycloakClient.addRealmRoleMappings(userId, representations))
+                    .then(userEventService.sendUserEvent(UserEventType.ROLE_ASSIGNED, userId,
+                            Map.of("roles", rolesToAdd)));
+
+            Mono<Void> remove = rolesToRemove.isEmpty() ? Mono.empty() : resolveRoles(rolesToRemove)
+                    .flatMap(representations -> keycloakClient.removeRealmRoleMappings(userId, representations))
+                    .then(userEventService.sendUserEvent(UserEventType.ROLE_REMOVED, userId,
+                            Map.of("roles", rolesToRemove)));
+
+            Mono<Void> evict = rolesToAdd.isEmpty() && rolesToRemove.isEmpty()
+                    ? Mono.empty()
+                    : runBlocking(() -> userProfileCache.evict(userId));
+
+            return add.then(remove).then(evict);
+        }));
+    }
+
+    private Mono<Void> assignRoles(String userId, List<String> roleNames) {
+        if (roleNames == null || roleNames.isEmpty()) {
+            return Mono.empty();
+        }
+        return resolveRoles(roleNames)
+                .flatMap(representations -> keycloakClient.addRealmRoleMappings(userId, representations));
+    }
+
+    private Mono<List<RoleRepresentation>> resolveRoles(List<String> roleNames) {
+        return Flux.fromIterable(roleNames)
+                .flatMapSequential(keycloakClient::getRealmRole)
+                .collectList();
+    }
+
+    private Mono<List<String>> realmRoleNames(String userId) {
+        return keycloakClient.getRealmRoleMappings(userId)
+                .map(roles -> roles.stream()
+                        .map(RoleRepresentation::getName)
+                        .toList());
+    }
+}
@@ -0,0 +1,72 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.context.ReactiveRequestContextFilter;
+import com.keycloak.userservice.event.UserEvent;
+import com.keycloak.userservice.event.UserEventType;
+import com.keycloak.userservice.util.OutboundMetrics;
+import io.micrometer.tracing.TraceContext;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.propagation.Propagator;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.kafka.core.reactive.ReactiveKafkaProducerTemplate;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Отправка событий пользователей через reactor-kafka для transport=reactive.
+ * Ошибка отправки записывается в лог и не прерывает обработку запроса, как и в {@link UserEventService}.
+ * reactor-kafka не добавляет заголовки трассировки сам, поэтому контекст текущего запроса
+ * записывается в заголовки сообщения здесь.
+ */
+@Slf4j
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveUserEventService {
+
+    private final ReactiveKafkaProducerTemplate<String, Object> kafkaTemplate;
+    private final OutboundMetrics outboundMetrics;
+    private final Tracer tracer;
+    private final Propagator propagator;
+
+    @Autowired
+    public ReactiveUserEventService(ReactiveKafkaProducerTemplate<String, Object> kafkaTemplate,
+                                    OutboundMetrics outboundMetrics,
+                                    ObjectProvider<Tracer> tracer,
+                                    ObjectProvider<Propagator> propagator) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.outboundMetrics = outboundMetrics;
+        this.tracer = tracer.getIfAvailable(() -> Tracer.NOOP);
+        this.propagator = propagator.getIfAvailable(() -> Propagator.NOOP);
+    }
+
+    public Mono<Void> sendUserEvent(UserEventType eventType, String userId, Object payload) {
+        return ReactiveRequestContextFilter.current()
+                .map(context -> UserEventService.createEvent(eventType, userId, payload, context))
+                .flatMap(event -> outboundMetrics.recordMono(OutboundMetrics.KAFKA, "send",
+                                Mono.defer(() -> kafkaTemplate.send(record(event))))
+                        .doOnSuccess(result -> log.info("Sent event {} for user {}", event.getEventType(), event.getUserId()))
+                        .doOnError(e -> log.error("Failed to send event {} for user {}", event.getEventType(), event.getUserId(), e))
+                        .onErrorResume(e -> Mono.empty()))
+                .then();
+    }
+
+    /**
+     * Текущий спан берется из потока: spring.reactor.context-propagation=auto восстанавливает его
+     * из контекста Reactor в операторах
+     */
+    private ProducerRecord<String, Object> record(UserEvent event) {
+        ProducerRecord<String, Object> record = new ProducerRecord<>(UserEventService.TOPIC, event.getUserId(), event);
+        TraceContext traceContext = tracer.currentTraceContext().context();
+        if (traceContext != null) {
+            propagator.inject(traceContext, record, (carrier, key, value) ->
+                    carrier.headers().add(key, value.getBytes(StandardCharsets.UTF_8)));
+        }
+        return record;
+    }
+}
@@ -0,0 +1,256 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.cache.RotatingBloomFilter;
+import com.keycloak.userservice.event.UserEventType;
+import jakarta.annotation.PostConstruct;
+import org.redisson.api.RScoredSortedSet;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Отзыв access-токенов: отдельные токены по jti (выход пользователя) и все токены пользователя,
+ * выпущенные до момента отзыва (завершение сессий администратором).
+ * Записи хранятся в Redis в sorted set со сроком в score и удаляются по истечении.
+ * На каждом поде ключи отозванных записей лежат в {@link RotatingBloomFilter}, который пополняется
+ * через RTopic, поэтому проверка не отозванного токена не обращается к сети; в Redis идут только
+ * совпадения фильтра. Сообщения, потерянные при переподключении, подгружаются из журнала отзывов:
+ * синхронизация читает только записи, добавленные с прошлого запуска.
+ */
+@Service
+public class TokenRevocationService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenRevocationService.class);
+
+    private static final String REVOKED_TOKENS_KEY = "revoked-tokens";
+    private static final String REVOKED_USERS_KEY = "revoked-users";
+    private static final String REVOCATION_LOG_KEY = "revocation-log";
+    private static final String REVOCATION_TOPIC = "token-revocations";
+    private static final String TOKEN_PREFIX = "jti:";
+    private static final String USER_PREFIX = "user:";
+
+    private final RScoredSortedSet<String> revokedTokens;
+    private final RScoredSortedSet<String> revokedUsers;
+    // Ключи фильтра со временем отзыва в миллисекундах в score
+    private final RScoredSortedSet<String> revocationLog;
+    private final RTopic revocationTopic;
+    private final RotatingBloomFilter bloomFilter;
+    private final UserEventService userEventService;
+    private final boolean enabled;
+    private final long maxTokenLifetimeSeconds;
+    private final long clockSkewSeconds;
+    // Запись нужна, пока могут действовать отозванные ею токены; столько же живет поколение фильтра
+    private final long retentionMillis;
+    // До первой загрузки из Redis фильтр неполон, и каждая проверка идет в Redis
+    private volatile boolean synced;
+    private long lastSyncMillis;
+    private long lastRotationMillis;
+
+    @Autowired
+    public TokenRevocationService(
+            RedissonClient redissonClient,
+            UserEventService userEventService,
+            @Value("${revocation.enabled:true}") boolean enabled,
+            @Value("${revocation.max-token-lifetime:3600}") long maxTokenLifetimeSeconds,
+            @Value("${revocation.clock-skew:30}") long clockSkewSeconds,
+            @Value("${revocation.bloom.expected-insertions:100000}") int expectedInsertions,
+            @Value("${revocation.bloom.false-positive-rate:0.001}") double falsePositiveRate) {
+        this.revokedTokens = redissonClient.getScoredSortedSet(REVOKED_TOKENS_KEY, StringCodec.INSTANCE);
+        this.revokedUsers = redissonClient.getScoredSortedSet(REVOKED_USERS_KEY, StringCodec.INSTANCE);
+        this.revocationLog = redissonClient.getScoredSortedSet(REVOCATION_LOG_KEY, StringCodec.INSTANCE);
+        this.revocationTopic = redissonClient.getTopic(REVOCATION_TOPIC, StringCodec.INSTANCE);
+        this.bloomFilter = new RotatingBloomFilter(expectedInsertions, falsePositiveRate);
+        this.userEventService = userEventService;
+        this.enabled = enabled;
+        this.maxTokenLifetimeSeconds = maxTokenLifetimeSeconds;
+        this.clockSkewSeconds = clockSkewSeconds;
+        this.retentionMillis = (maxTokenLifetimeSeconds + clockSkewSeconds) * 1000;
+    }
+
+    @PostConstruct
+    void subscribe() {
+        if (!enabled) {
+            return;
+        }
+        // Подписка до первой загрузки: запись, сделанная между ними, не потеряется
+        revocationTopic.addListenerAsync(String.class, (channel, key) -> bloomFilter.put(key));
+        sync();
+    }
+
+    /**
+     * Отзывает токен по jti до истечения его срока действия (выход пользователя)
+     */
+    public void revokeToken(Jwt jwt) {
+        if (jwt.getId() == null) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Токен без jti не может быть отозван");
+        }
+        Instant expiresAt = jwt.getExpiresAt() != null
+                ? jwt.getExpiresAt()
+                : Instant.now().plusSeconds(maxTokenLifetimeSeconds);
+        revokedTokens.add(expiresAt.getEpochSecond(), jwt.getId());
+        publish(TOKEN_PREFIX + jwt.getId());
+
+        userEventService.sendUserLoggedOut(jwt.getSubject(), Map.of("jti", jwt.getId()));
+    }
+
+    /**
+     * Отзывает все токены пользователя, выпущенные до текущего момента (завершение сессий)
+     */
+    public void revokeUserTokens(String userId, String reason) {
+        revokedUsers.add(Instant.now().getEpochSecond(), userId);
+        publish(USER_PREFIX + userId);
+
+        userEventService.sendUserEvent(UserEventType.SESSION_TERMINATED, userId,
+                Map.of("reason", reason != null ? reason : "ADMIN_REVOKE"));
+    }
+
+    public boolean isRevoked(Jwt jwt) {
+        if (!enabled) {
+            return false;
+        }
+        boolean tokenCandidate = jwt.getId() != null && (!synced || bloomFilter.mightContain(TOKEN_PREFIX + jwt.getId()));
+        boolean userCandidate = jwt.getSubject() != null && (!synced || bloomFilter.mightContain(USER_PREFIX + jwt.getSubject()));
+        if (!tokenCandidate && !userCandidate) {
+            return false;
+        }
+        try {
+            if (tokenCandidate && revokedTokens.getScore(jwt.getId()) != null) {
+                return true;
+            }
+            return userCandidate && issuedBeforeRevocation(jwt, revokedUsers.getScore(jwt.getSubject()));
+        } catch (RuntimeException e) {
+            // Совпадение фильтра без возможности проверки: токен считается отозванным.
+            // До первой загрузки фильтр не используется, и отказ Redis отклонил бы все токены
+            log.warn("Не удалось проверить отзыв токена: {}", e.getMessage());
+            return synced;
+        }
+    }
+
+    /**
+     * Асинхронный вариант {@link #isRevoked(Jwt)} для реактивного транспорта
+     */
+    public CompletableFuture<Boolean> isRevokedAsync(Jwt jwt) {
+        if (!enabled) {
+            return CompletableFuture.completedFuture(false);
+        }
+        boolean tokenCandidate = jwt.getId() != null && (!synced || bloomFilter.mightContain(TOKEN_PREFIX + jwt.getId()));
+        boolean userCandidate = jwt.getSubject() != null && (!synced || bloomFilter.mightContain(USER_PREFIX + jwt.getSubject()));
+        if (!tokenCandidate && !userCandidate) {
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> tokenRevoked = tokenCandidate
+                ? revokedTokens.getScoreAsync(jwt.getId()).toCompletableFuture().thenApply(score -> score != null)
+                : CompletableFuture.completedFuture(false);
+        return tokenRevoked
+                .thenCompose(revoked -> revoked || !userCandidate
+                        ? CompletableFuture.completedFuture(revoked)
+                        : revokedUsers.getScoreAsync(jwt.getSubject()).toCompletableFuture()
+                                .thenApply(revokedBefore -> issuedBeforeRevocation(jwt, revokedBefore)))
+                .exceptionally(e -> {
+                    log.warn("Не удалось проверить отзыв токена: {}", e.getMessage());
+                    return synced;
+                });
+    }
+
+    /**
+     * Декодер, отклоняющий отозванные токены. Проверка выполняется после кэша проверенных JWT,
+     * поэтому отзыв действует и на уже закэшированные токены.
+     */
+    public JwtDecoder wrap(JwtDecoder delegate) {
+        return token -> {
+            Jwt jwt = delegate.decode(token);
+            if (isRevoked(jwt)) {
+                throw new BadJwtException("Токен отозван");
+            }
+            return jwt;
+        };
+    }
+
+    public ReactiveJwtDecoder wrap(ReactiveJwtDecoder delegate) {
+        return token -> delegate.decode(token)
+                .flatMap(jwt -> Mono.fromFuture(() -> isRevokedAsync(jwt))
+                        .flatMap(revoked -> revoked
+                                ? Mono.<Jwt>error(new BadJwtException("Токен отозван"))
+                                : Mono.just(jwt)));
+    }
+
+    /**
+     * Удаляет истекшие записи из Redis и добавляет в фильтр записи журнала, появившиеся с прошлой
+     * синхронизации, — так восстанавливаются сообщения, потерянные при переподключении к Redis.
+     * Окно чтения расширено на допустимое расхождение часов подов. Первая загрузка читает весь журнал.
+     * Поколение фильтра сменяется не чаще, чем истекает запись, поэтому смена не требует чтения из Redis:
+     * ключ остается в фильтре не меньше одного полного поколения после добавления.
+     */
+    @Scheduled(fixedDelayString = "${revocation.sync-interval:60000}", initialDelayString = "${revocation.sync-interval:60000}")
+    public synchronized void sync() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            long nowMillis = System.currentTimeMillis();
+            long now = nowMillis / 1000;
+            revokedTokens.removeRangeByScore(0, true, now, false);
+            revokedUsers.removeRangeByScore(0, true, now - maxTokenLifetimeSeconds - clockSkewSeconds, false);
+            revocationLog.removeRangeByScore(0, true, nowMillis - retentionMillis, false);
+
+            if (synced && nowMillis - lastRotationMillis >= retentionMillis) {
+                bloomFilter.rotate(List.of());
+                lastRotationMillis = nowMillis;
+            }
+            long from = synced ? lastSyncMillis - clockSkewSeconds * 1000 : 0;
+            Collection<String> keys = revocationLog.valueRange(from, true, Double.POSITIVE_INFINITY, true);
+            keys.forEach(bloomFilter::put);
+            lastSyncMillis = nowMillis;
+            if (!synced) {
+                lastRotationMillis = nowMillis;
+                synced = true;
+            }
+            log.debug("Фильтр отозванных токенов обновлен, новых записей: {}", keys.size());
+        } catch (RuntimeException e) {
+            log.warn("Не удалось загрузить отозванные токены из Redis: {}", e.getMessage());
+        }
+    }
+
+    private void publish(String key) {
+        bloomFilter.put(key);
+        revocationLog.add(System.currentTimeMillis(), key);
+        revocationTopic.publishAsync(key).whenComplete((receivers, error) -> {
+            if (error != null) {
+                log.warn("Не удалось разослать отзыв {}: {}", key, error.getMessage());
+            }
+        });
+    }
+
+    /**
+     * iat ставят часы Keycloak, а момент отзыва — часы пода, поэтому iat сдвигается на допустимое
+     * расхождение: токен, выпущенный незадолго после отзыва, тоже отклоняется, зато токен, выпущенный
+     * до отзыва, не проходит из-за спешащих часов Keycloak
+     */
+    private boolean issuedBeforeRevocation(Jwt jwt, Double revokedBefore) {
+        if (revokedBefore == null) {
+            return false;
+        }
+        // Токен без iat нельзя отличить от выпущенного до отзыва
+        return jwt.getIssuedAt() == null
+                || jwt.getIssuedAt().getEpochSecond() - clockSkewSeconds <= revokedBefore.longValue();
+    }
+}
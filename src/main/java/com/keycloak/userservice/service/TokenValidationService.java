@@ -0,0 +1,106 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.dto.TokenValidationDTO;
+import com.keycloak.userservice.util.RoleClaims;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Локальная проверка access-токенов Keycloak для других сервисов вместо вызова introspection:
+ * подпись по JWKS realm (ключи кэшируются декодером), срок действия и аудитория.
+ * Роли берутся из claim roles, а при его отсутствии — из realm_access.roles; claim разбирается
+ * {@link RoleClaims}, как и authorities запросов к самому сервису.
+ */
+@Service
+public class TokenValidationService {
+
+    private static final Logger log = LoggerFactory.getLogger(TokenValidationService.class);
+
+    private final JwtDecoder jwtDecoder;
+    private final String defaultAudience;
+    private final int batchMaxSize;
+
+    @Autowired
+    public TokenValidationService(
+            JwtDecoder jwtDecoder,
+            @Value("${token-validation.audience:}") String defaultAudience,
+            @Value("${token-validation.batch.max-size:100}") int batchMaxSize) {
+        this.jwtDecoder = jwtDecoder;
+        this.defaultAudience = defaultAudience;
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    /**
+     * Проверяет токен без обращения к Keycloak
+     *
+     * @param token access-токен
+     * @param audience ожидаемая аудитория (aud или azp); если не задана — token-validation.audience,
+     *                 пустое значение отключает проверку
+     * @return результат проверки; недействительный токен не является ошибкой вызова
+     * @throws ResponseStatusException 503, если не удалось получить ключи realm
+     */
+    public TokenValidationDTO validate(String token, String audience) {
+        Jwt jwt;
+        try {
+            jwt = jwtDecoder.decode(token);
+        } catch (BadJwtException e) {
+            return TokenValidationDTO.invalid(e.getMessage());
+        } catch (JwtException e) {
+            log.error("Не удалось проверить токен: {}", e.getMessage());
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Не удалось получить ключи проверки токена");
+        }
+
+        String expectedAudience = audience != null && !audience.isBlank() ? audience : defaultAudience;
+        if (!expectedAudience.isEmpty() && !hasAudience(jwt, expectedAudience)) {
+            return TokenValidationDTO.invalid("Токен выпущен не для " + expectedAudience);
+        }
+
+        return TokenValidationDTO.valid(
+                jwt.getSubject(),
+                jwt.getClaimAsString("preferred_username"),
+                roles(jwt),
+                jwt.getExpiresAt() != null ? jwt.getExpiresAt().getEpochSecond() : null);
+    }
+
+    /**
+     * Пакетная проверка токенов для sidecar-прокси: результаты в порядке запроса
+     *
+     * @throws ResponseStatusException 400, если токенов больше token-validation.batch.max-size
+     */
+    public List<TokenValidationDTO> validateAll(List<String> tokens, String audience) {
+        if (tokens.size() > batchMaxSize) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST,
+                    "Слишком много токенов в запросе, максимум " + batchMaxSize);
+        }
+        return tokens.stream()
+                .map(token -> validate(token, audience))
+                .toList();
+    }
+
+    private static boolean hasAudience(Jwt jwt, String audience) {
+        List<String> tokenAudience = jwt.getAudience();
+        return (tokenAudience != null && tokenAudience.contains(audience))
+                || audience.equals(jwt.getClaimAsString("azp"));
+    }
+
+    private static List<String> roles(Jwt jwt) {
+        Object roles = jwt.getClaim(RoleClaims.ROLES_CLAIM);
+        if (roles != null) {
+            return RoleClaims.parse(roles);
+        }
+        Map<String, Object> realmAccess = jwt.getClaimAsMap("realm_access");
+        return realmAccess != null ? RoleClaims.parse(realmAccess.get(RoleClaims.ROLES_CLAIM)) : List.of();
+    }
+}
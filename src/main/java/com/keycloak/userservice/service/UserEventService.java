@@ -1,79 +1,102 @@
 package com.keycloak.userservice.service;
 
+import com.keycloak.userservice.context.RequestContext;
 import com.keycloak.userservice.event.UserEvent;
 import com.keycloak.userservice.event.UserEventType;
-import lombok.RequiredArgsConstructor;
+import com.keycloak.userservice.util.OutboundMetrics;
+import io.micrometer.context.ContextSnapshot;
+import io.micrometer.context.ContextSnapshotFactory;
+import io.opentelemetry.context.Context;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.task.AsyncTaskExecutor;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.web.context.request.RequestContextHolder;
-import org.springframework.web.context.request.ServletRequestAttributes;
 
-import jakarta.servlet.http.HttpServletRequest;
 import java.time.Instant;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor
 public class UserEventService {
 
     private final KafkaTemplate<String, Object> kafkaTemplate;
-    private static final String TOPIC = "user-service.events";
+    private final AsyncTaskExecutor eventPublisherExecutor;
+    private final OutboundMetrics outboundMetrics;
+    // Последняя отправка по каждому пользователю: события одного пользователя уходят по очереди,
+    // чтобы порядок в партиции Kafka совпадал с порядком операций
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> pendingByUser = new ConcurrentHashMap<>();
+    static final String TOPIC = "user-service.events";
+    private static final ContextSnapshotFactory CONTEXT_SNAPSHOTS = ContextSnapshotFactory.builder().build();
+
+    @Autowired
+    public UserEventService(
+            KafkaTemplate<String, Object> kafkaTemplate,
+            @Qualifier("eventPublisherExecutor") AsyncTaskExecutor eventPublisherExecutor,
+            OutboundMetrics outboundMetrics) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.eventPublisherExecutor = eventPublisherExecutor;
+        this.outboundMetrics = outboundMetrics;
+    }
 
     public void sendUserEvent(UserEventType eventType, String userId, Object payload) {
-        UserEvent event = createEvent(eventType, userId, payload);
+        UserEvent event = createEvent(eventType, userId, payload, RequestContext.current());
         sendEvent(event);
     }
 
-    private UserEvent createEvent(UserEventType eventType, String userId, Object payload) {
-        HttpServletRequest request = getCurrentRequest();
-        
+    static UserEvent createEvent(UserEventType eventType, String userId, Object payload, RequestContext context) {
         return new UserEvent(
             UUID.randomUUID(),
             eventType,
             userId,
             Instant.now(),
             payload,
-            determineSource(request),
-            getClientIp(request),
-            getClientUserAgent(request)
+            context.source(),
+            context.ipAddress(),
+            context.userAgent()
         );
     }
 
+    /**
+     * Передает событие в пул отправки. Контекст запроса уже сохранен в событии,
+     * поэтому вызывающий поток не ждет Kafka, а ошибка отправки только записывается в лог
+     * и до вызывающего не доходит.
+     * Текущий спан запоминается здесь: задачу в пул ставит поток, завершивший предыдущую
+     * отправку, и без снимка событие попало бы в trace другого запроса.
+     */
     private void sendEvent(UserEvent event) {
+        String key = event.getUserId() != null ? event.getUserId() : "";
+        ContextSnapshot context = CONTEXT_SNAPSHOTS.captureAll();
+        // Спан блокировки или вызова Keycloak есть только в контексте OpenTelemetry, см. AsyncConfig
+        Runnable task = context.wrap(Context.current().wrap(() -> publish(event)));
+        CompletableFuture<Void> sent = pendingByUser.compute(key, (k, previous) ->
+                (previous != null ? previous : CompletableFuture.<Void>completedFuture(null))
+                        // Сбой предыдущего события уже записан в лог и не должен останавливать следующие
+                        .exceptionally(e -> null)
+                        .thenRunAsync(task, eventPublisherExecutor));
+        sent.whenComplete((result, e) -> {
+            pendingByUser.remove(key, sent);
+            if (e != null) {
+                log.error("Dropped event {} for user {}", event.getEventType(), event.getUserId(), e);
+            }
+        });
+    }
+
+    private void publish(UserEvent event) {
         try {
-            kafkaTemplate.send(TOPIC, event.getUserId(), event);
+            outboundMetrics.recordAsync(OutboundMetrics.KAFKA, "send",
+                    () -> kafkaTemplate.send(TOPIC, event.getUserId(), event)).whenComplete((result, e) -> {
+                if (e != null) {
+                    log.error("Failed to send event {} for user {}", event.getEventType(), event.getUserId(), e);
+                }
+            });
             log.info("Sent event {} for user {}", event.getEventType(), event.getUserId());
         } catch (Exception e) {
             log.error("Failed to send event {} for user {}", event.getEventType(), event.getUserId(), e);
-            throw new RuntimeException("Failed to send event to Kafka", e);
-        }
-    }
-
-    private HttpServletRequest getCurrentRequest() {
-        ServletRequestAttributes attributes = (ServletRequestAttributes) RequestContextHolder.getRequestAttributes();
-        return attributes != null ? attributes.getRequest() : null;
-    }
-
-    private String determineSource(HttpServletRequest request) {
-        if (request == null) return "SYSTEM";
-        String userAgent = request.getHeader("User-Agent");
-        if (userAgent != null && userAgent.contains("Postman")) return "API";
-        return "UI";
-    }
-
-    private String getClientIp(HttpServletRequest request) {
-        if (request == null) return "unknown";
-        String xForwardedFor = request.getHeader("X-Forwarded-For");
-        if (xForwardedFor != null && !xForwardedFor.isEmpty()) {
-            return xForwardedFor.split(",")[0].trim();
         }
-        return request.getRemoteAddr();
-    }
-
-    private String getClientUserAgent(HttpServletRequest request) {
-        return request != null ? request.getHeader("User-Agent") : "unknown";
     }
 
     // Методы для основных событий
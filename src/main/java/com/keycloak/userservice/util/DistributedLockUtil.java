@@ -1,13 +1,25 @@
 package com.keycloak.userservice.util;
 
+import com.keycloak.userservice.context.RequestContext;
+import com.keycloak.userservice.context.RequestDeadline;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Supplier;
 
 @Component
@@ -16,14 +28,24 @@ public class DistributedLockUtil {
     private static final Logger log = LoggerFactory.getLogger(DistributedLockUtil.class);
     
     private final RedissonClient redissonClient;
+    private final LockMetrics lockMetrics;
+    private final Tracer tracer;
+    private final Map<String, LocalLock> localLocks = new ConcurrentHashMap<>();
     
     private static final long DEFAULT_WAIT_TIME = 10;
     private static final long DEFAULT_LEASE_TIME = 30;
     private static final TimeUnit DEFAULT_TIME_UNIT = TimeUnit.SECONDS;
 
+    // Отрицательные идентификаторы владельца не пересекаются с идентификаторами потоков
+    private static final AtomicLong ASYNC_OWNER_IDS = new AtomicLong(-1);
+
+    private static final String LOCK_ACQUIRED_EVENT = "lock.acquired";
+
     @Autowired
-    public DistributedLockUtil(RedissonClient redissonClient) {
+    public DistributedLockUtil(RedissonClient redissonClient, LockMetrics lockMetrics, ObjectProvider<Tracer> tracer) {
         this.redissonClient = redissonClient;
+        this.lockMetrics = lockMetrics;
+        this.tracer = tracer.getIfAvailable(() -> Tracer.NOOP);
     }
 
     /**
@@ -39,7 +61,12 @@ public class DistributedLockUtil {
     }
 
     /**
-     * Выполняет операцию внутри распределенной блокировки с пользовательскими параметрами
+     * Выполняет операцию внутри распределенной блокировки с пользовательскими параметрами.
+     * Сначала вызывающие потоки с одинаковым ключом выстраиваются на локальной блокировке,
+     * поэтому за блокировку Redisson с каждого узла конкурирует не более одного потока.
+     * Ожидание ограничено сроком текущего запроса и прерывается при его отмене.
+     * Ожидание и удержание блокировки составляют один спан трассировки; момент захвата
+     * отмечен в нем событием, вызовы внутри операции становятся его дочерними спанами.
      *
      * @param lockKey ключ блокировки
      * @param waitTime время ожидания блокировки
@@ -50,25 +77,84 @@ public class DistributedLockUtil {
      * @return результат выполнения операции
      */
     public <T> T executeWithLock(String lockKey, long waitTime, long leaseTime, TimeUnit timeUnit, Supplier<T> supplier) {
+        Span span = startSpan(lockKey);
+        try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+            return lockAndExecute(lockKey, waitTime, leaseTime, timeUnit, span, supplier);
+        } catch (RuntimeException | Error e) {
+            span.error(e);
+            throw e;
+        } finally {
+            span.end();
+        }
+    }
+
+    private <T> T lockAndExecute(String lockKey, long waitTime, long leaseTime, TimeUnit timeUnit,
+                                 Span span, Supplier<T> supplier) {
+        RequestDeadline deadline = RequestContext.currentDeadline();
+        deadline.check();
+
         RLock lock = redissonClient.getLock(lockKey);
+        LocalLock localLock = acquireLocalLock(lockKey);
+        boolean localLocked = false;
         boolean locked = false;
+        long acquiredAt = 0;
+        ScheduledFuture<?> holdWatch = null;
         try {
-            locked = lock.tryLock(waitTime, leaseTime, timeUnit);
+            long waitStart = System.nanoTime();
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(deadline.clampMillis(timeUnit.toMillis(waitTime)));
+            Runnable stopCancelWatch = deadline.interruptOnCancel();
+            try {
+                localLocked = localLock.lock.tryLock(waitNanos, TimeUnit.NANOSECONDS);
+                if (localLocked) {
+                    long remainingMillis = TimeUnit.NANOSECONDS.toMillis(
+                            Math.max(0, waitNanos - (System.nanoTime() - waitStart)));
+                    locked = lock.tryLock(remainingMillis, timeUnit.toMillis(leaseTime), TimeUnit.MILLISECONDS);
+                }
+            } finally {
+                stopCancelWatch.run();
+            }
+            acquiredAt = System.nanoTime();
             if (locked) {
+                lockMetrics.recordAcquired(lockKey, acquiredAt - waitStart);
+                holdWatch = lockMetrics.watchHold(lockKey, Thread.currentThread());
+                span.event(LOCK_ACQUIRED_EVENT);
                 log.debug("Acquired lock: {}", lockKey);
+                deadline.check();
                 return supplier.get();
             } else {
+                lockMetrics.recordTimeout(lockKey, acquiredAt - waitStart);
                 log.warn("Failed to acquire lock: {}", lockKey);
+                deadline.check();
                 throw new RuntimeException("Failed to acquire distributed lock: " + lockKey);
             }
         } catch (InterruptedException e) {
+            lockMetrics.recordInterrupted(lockKey);
+            if (deadline.isCancelled()) {
+                log.debug("Lock wait cancelled by client for key: {}", lockKey);
+                deadline.check();
+            }
             log.error("Lock acquisition interrupted for key: {}", lockKey, e);
             Thread.currentThread().interrupt();
             throw new RuntimeException("Lock acquisition interrupted for key: " + lockKey, e);
         } finally {
-            if (locked) {
-                lock.unlock();
-                log.debug("Released lock: {}", lockKey);
+            try {
+                if (locked) {
+                    try {
+                        lock.unlock();
+                        log.debug("Released lock: {}", lockKey);
+                    } catch (RuntimeException e) {
+                        // Блокировка Redisson освободится по истечении leaseTime
+                        log.error("Failed to release lock: {}", lockKey, e);
+                    } finally {
+                        lockMetrics.recordReleased(lockKey, System.nanoTime() - acquiredAt, holdWatch);
+                    }
+                }
+            } finally {
+                // Локальная блокировка освобождается в любом случае: иначе ключ навсегда занят на этом узле
+                if (localLocked) {
+                    localLock.lock.unlock();
+                }
+                releaseLocalLock(lockKey);
             }
         }
     }
@@ -85,4 +171,138 @@ public class DistributedLockUtil {
             return null;
         });
     }
-} 
\ No newline at end of file
+
+    /**
+     * Асинхронно выполняет операцию внутри распределенной блокировки, не занимая поток на время ожидания
+     *
+     * @param lockKey ключ блокировки
+     * @param action асинхронная операция; вызывается в потоке Redisson и не должна блокировать его
+     * @param <T> тип результата
+     * @return future с результатом выполнения операции
+     */
+    public <T> CompletableFuture<T> executeWithLockAsync(String lockKey, Supplier<CompletableFuture<T>> action) {
+        return executeWithLockAsync(lockKey, RequestContext.currentDeadline(), action);
+    }
+
+    /**
+     * Асинхронный вариант с явно переданным сроком запроса: для реактивных вызовов,
+     * где {@link RequestContext} хранится в контексте Reactor, а не в потоке
+     *
+     * @param lockKey ключ блокировки
+     * @param deadline срок ответа запроса
+     * @param action асинхронная операция; вызывается в потоке Redisson и не должна блокировать его
+     * @param <T> тип результата
+     * @return future с результатом выполнения операции
+     */
+    public <T> CompletableFuture<T> executeWithLockAsync(String lockKey, RequestDeadline deadline,
+                                                         Supplier<CompletableFuture<T>> action) {
+        return executeWithLockAsync(lockKey, DEFAULT_WAIT_TIME, DEFAULT_LEASE_TIME, DEFAULT_TIME_UNIT, deadline, action);
+    }
+
+    /**
+     * Асинхронно выполняет операцию внутри распределенной блокировки с пользовательскими параметрами.
+     * Владелец блокировки определяется собственным идентификатором, а не потоком, поэтому
+     * захват, операция и освобождение могут выполняться в разных потоках.
+     * Локальный уровень блокировки здесь не используется: он привязан к потоку.
+     * Ожидание ограничено сроком запроса; по истечении срока или при отмене операция не вызывается.
+     * Спан блокировки завершается после освобождения, операция выполняется внутри него.
+     *
+     * @param lockKey ключ блокировки
+     * @param waitTime время ожидания блокировки
+     * @param leaseTime время удержания блокировки
+     * @param timeUnit единица измерения времени
+     * @param deadline срок ответа запроса
+     * @param action асинхронная операция; вызывается в потоке Redisson и не должна блокировать его
+     * @param <T> тип результата
+     * @return future с результатом выполнения операции
+     */
+    public <T> CompletableFuture<T> executeWithLockAsync(String lockKey, long waitTime, long leaseTime, TimeUnit timeUnit,
+                                                         RequestDeadline deadline, Supplier<CompletableFuture<T>> action) {
+        try {
+            deadline.check();
+        } catch (ResponseStatusException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        RLock lock = redissonClient.getLock(lockKey);
+        long ownerId = ASYNC_OWNER_IDS.getAndDecrement();
+        Span span = startSpan(lockKey);
+        long waitStart = System.nanoTime();
+        long waitMillis = deadline.clampMillis(timeUnit.toMillis(waitTime));
+
+        return lock.tryLockAsync(waitMillis, timeUnit.toMillis(leaseTime), TimeUnit.MILLISECONDS, ownerId).toCompletableFuture()
+                .thenCompose(locked -> {
+                    long acquiredAt = System.nanoTime();
+                    if (!locked) {
+                        lockMetrics.recordTimeout(lockKey, acquiredAt - waitStart);
+                        log.warn("Failed to acquire lock: {}", lockKey);
+                        try {
+                            deadline.check();
+                        } catch (ResponseStatusException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                        return CompletableFuture.failedFuture(
+                                new RuntimeException("Failed to acquire distributed lock: " + lockKey));
+                    }
+                    lockMetrics.recordAcquired(lockKey, acquiredAt - waitStart);
+                    span.event(LOCK_ACQUIRED_EVENT);
+                    log.debug("Acquired lock: {}", lockKey);
+
+                    CompletableFuture<T> result;
+                    try (Tracer.SpanInScope ignored = tracer.withSpan(span)) {
+                        deadline.check();
+                        result = action.get();
+                    } catch (RuntimeException e) {
+                        result = CompletableFuture.failedFuture(e);
+                    }
+                    CompletableFuture<T> operation = result;
+                    return operation
+                            .handle((value, error) -> null)
+                            .thenCompose(ignored -> lock.unlockAsync(ownerId).toCompletableFuture())
+                            .handle((ignored, unlockError) -> {
+                                if (unlockError != null) {
+                                    log.error("Failed to release lock: {}", lockKey, unlockError);
+                                }
+                                lockMetrics.recordReleased(lockKey, System.nanoTime() - acquiredAt, null);
+                                log.debug("Released lock: {}", lockKey);
+                                return null;
+                            })
+                            .thenCompose(ignored -> operation);
+                })
+                .whenComplete((value, error) -> {
+                    if (error != null) {
+                        span.error(error);
+                    }
+                    span.end();
+                });
+    }
+
+    private Span startSpan(String lockKey) {
+        return tracer.nextSpan()
+                .name("lock " + LockMetrics.prefix(lockKey))
+                .tag("lock.prefix", LockMetrics.prefix(lockKey))
+                .start();
+    }
+
+    /**
+     * Локальная блокировка создается на время, пока ключ используется хотя бы одним потоком.
+     * Блокировка на ключ, а не на полосу хэша, исключает взаимоблокировку вложенных блокировок
+     * (например, lock:register: и lock:login:) разных ключей, попавших в одну полосу.
+     */
+    private LocalLock acquireLocalLock(String lockKey) {
+        return localLocks.compute(lockKey, (key, localLock) -> {
+            LocalLock result = localLock != null ? localLock : new LocalLock();
+            result.users++;
+            return result;
+        });
+    }
+
+    private void releaseLocalLock(String lockKey) {
+        localLocks.computeIfPresent(lockKey, (key, localLock) -> --localLock.users == 0 ? null : localLock);
+    }
+
+    private static final class LocalLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+    }
+}
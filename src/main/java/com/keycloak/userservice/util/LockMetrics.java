@@ -0,0 +1,208 @@
+package com.keycloak.userservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики распределенных блокировок: время ожидания и удержания, таймауты и прерывания
+ * по префиксу ключа, выборка самых горячих ключей и журнал долгих удержаний со стеком потока-владельца.
+ */
+@Component
+public class LockMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(LockMetrics.class);
+
+    private final MeterRegistry meterRegistry;
+    private final long slowHoldThresholdMillis;
+    private final int sampleRate;
+    private final int maxTrackedKeys;
+
+    private final Map<String, PrefixMeters> metersByPrefix = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> sampledKeys = new ConcurrentHashMap<>();
+    private final ScheduledThreadPoolExecutor watchdog;
+
+    @Autowired
+    public LockMetrics(
+            MeterRegistry meterRegistry,
+            @Value("${lock-metrics.slow-hold-threshold:5000}") long slowHoldThresholdMillis,
+            @Value("${lock-metrics.hot-keys.sample-rate:16}") int sampleRate,
+            @Value("${lock-metrics.hot-keys.max-tracked:10000}") int maxTrackedKeys) {
+        this.meterRegistry = meterRegistry;
+        this.slowHoldThresholdMillis = slowHoldThresholdMillis;
+        this.sampleRate = Math.max(1, sampleRate);
+        this.maxTrackedKeys = maxTrackedKeys;
+        this.watchdog = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "lock-slow-hold-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watchdog.setRemoveOnCancelPolicy(true);
+    }
+
+    public void recordAcquired(String lockKey, long waitNanos) {
+        meters(lockKey).waitAcquired.record(waitNanos, TimeUnit.NANOSECONDS);
+        sample(lockKey);
+    }
+
+    public void recordTimeout(String lockKey, long waitNanos) {
+        PrefixMeters meters = meters(lockKey);
+        meters.waitTimedOut.record(waitNanos, TimeUnit.NANOSECONDS);
+        meters.timeouts.increment();
+        sample(lockKey);
+    }
+
+    public void recordInterrupted(String lockKey) {
+        meters(lockKey).interrupted.increment();
+    }
+
+    /**
+     * Планирует вывод стека потока-владельца, если блокировка удерживается дольше порога
+     */
+    public ScheduledFuture<?> watchHold(String lockKey, Thread holder) {
+        return watchdog.schedule(() -> log.warn("Lock {} held by thread {} for more than {} ms{}",
+                        lockKey, holder.getName(), slowHoldThresholdMillis, formatStack(holder.getStackTrace())),
+                slowHoldThresholdMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void recordReleased(String lockKey, long holdNanos, ScheduledFuture<?> holdWatch) {
+        if (holdWatch != null) {
+            holdWatch.cancel(false);
+        }
+        meters(lockKey).hold.record(holdNanos, TimeUnit.NANOSECONDS);
+        long holdMillis = TimeUnit.NANOSECONDS.toMillis(holdNanos);
+        if (holdMillis > slowHoldThresholdMillis) {
+            log.warn("Lock {} released after {} ms", lockKey, holdMillis);
+        }
+    }
+
+    /**
+     * Возвращает самые часто запрашиваемые ключи блокировок по выборке. Часть ключа после префикса
+     * (имя пользователя, идентификатор) заменяется хэшем: горячий ключ можно отличить и сопоставить
+     * с известным значением, но не прочитать
+     *
+     * @param limit количество ключей
+     * @return ключи вида «префикс + хэш» и оценка числа обращений, по убыванию
+     */
+    public Map<String, Long> hotKeys(int limit) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        sampledKeys.entrySet().stream()
+                .map(entry -> Map.entry(entry.getKey(), entry.getValue().sum() * sampleRate))
+                .sorted(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()))
+                .limit(limit)
+                .forEach(entry -> result.merge(redact(entry.getKey()), entry.getValue(), Long::sum));
+        return result;
+    }
+
+    /**
+     * Экспоненциально состаривает выборку, чтобы горячие ключи отражали текущую нагрузку
+     */
+    @Scheduled(fixedDelayString = "${lock-metrics.hot-keys.decay-interval:60000}")
+    public void decayHotKeys() {
+        sampledKeys.forEach((key, counter) -> {
+            long half = counter.sumThenReset() / 2;
+            if (half == 0) {
+                sampledKeys.remove(key, counter);
+            } else {
+                counter.add(half);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+    }
+
+    private void sample(String lockKey) {
+        if (ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        LongAdder counter = sampledKeys.get(lockKey);
+        if (counter == null) {
+            if (sampledKeys.size() >= maxTrackedKeys) {
+                return;
+            }
+            counter = sampledKeys.computeIfAbsent(lockKey, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    private PrefixMeters meters(String lockKey) {
+        return metersByPrefix.computeIfAbsent(prefix(lockKey), this::createMeters);
+    }
+
+    /**
+     * Префикс ключа до второго двоеточия включительно: lock:login:alice -> lock:login:
+     */
+    static String prefix(String lockKey) {
+        int first = lockKey.indexOf(':');
+        int second = first < 0 ? -1 : lockKey.indexOf(':', first + 1);
+        return second < 0 ? lockKey : lockKey.substring(0, second + 1);
+    }
+
+    /**
+     * Префикс ключа и первые 8 байт SHA-256 остальной части: lock:login:alice -> lock:login:2bd806c97f0e00af
+     */
+    static String redact(String lockKey) {
+        String prefix = prefix(lockKey);
+        if (prefix.length() == lockKey.length()) {
+            return lockKey;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(lockKey.substring(prefix.length()).getBytes(StandardCharsets.UTF_8));
+            return prefix + HexFormat.of().formatHex(Arrays.copyOf(hash, 8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private PrefixMeters createMeters(String prefix) {
+        return new PrefixMeters(
+                Timer.builder("distributed.lock.wait").tag("prefix", prefix).tag("outcome", "acquired")
+                        .description("Time spent waiting for a distributed lock").register(meterRegistry),
+                Timer.builder("distributed.lock.wait").tag("prefix", prefix).tag("outcome", "timeout")
+                        .description("Time spent waiting for a distributed lock").register(meterRegistry),
+                Timer.builder("distributed.lock.hold").tag("prefix", prefix)
+                        .description("Time a distributed lock was held").register(meterRegistry),
+                Counter.builder("distributed.lock.timeouts").tag("prefix", prefix)
+                        .description("Distributed lock acquisitions that timed out").register(meterRegistry),
+                Counter.builder("distributed.lock.interrupted").tag("prefix", prefix)
+                        .description("Distributed lock acquisitions that were interrupted").register(meterRegistry));
+    }
+
+    private static String formatStack(StackTraceElement[] stack) {
+        StringBuilder builder = new StringBuilder();
+        for (StackTraceElement element : stack) {
+            builder.append(System.lineSeparator()).append("\tat ").append(element);
+        }
+        return builder.toString();
+    }
+
+    private record PrefixMeters(Timer waitAcquired, Timer waitTimedOut, Timer hold,
+                                Counter timeouts, Counter interrupted) {
+    }
+}
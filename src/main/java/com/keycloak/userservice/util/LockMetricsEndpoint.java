@@ -0,0 +1,37 @@
+package com.keycloak.userservice.util;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Actuator-эндпоинт /actuator/locks с самыми горячими ключами распределенных блокировок.
+ * Ключи отдаются с хэшем вместо имен пользователей ({@link LockMetrics#hotKeys(int)}), доступ — только с ролью admin.
+ */
+@Component
+@Endpoint(id = "locks")
+public class LockMetricsEndpoint {
+
+    private static final int DEFAULT_LIMIT = 20;
+
+    private final LockMetrics lockMetrics;
+
+    @Autowired
+    public LockMetricsEndpoint(LockMetrics lockMetrics) {
+        this.lockMetrics = lockMetrics;
+    }
+
+    @ReadOperation
+    public Map<String, Long> hotKeys() {
+        return lockMetrics.hotKeys(DEFAULT_LIMIT);
+    }
+
+    @ReadOperation
+    public Map<String, Long> hotKeys(@Selector int limit) {
+        return lockMetrics.hotKeys(limit);
+    }
+}
@@ -0,0 +1,93 @@
+package com.keycloak.userservice.util;
+
+import com.google.protobuf.CodedOutputStream;
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.grpc.UserProfile;
+import com.keycloak.userservice.grpc.UserProfileMapper;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+
+/**
+ * Условные запросы профиля: строгий ETag строится из хэша содержимого профиля, If-None-Match
+ * сравнивается слабым сравнением (RFC 9110, 13.1.2), как требуется для GET.
+ * Хэш не зависит от версии профиля в Redis, поэтому ETag остается верным после очистки Redis
+ * и меняется при изменениях, сделанных напрямую в Keycloak, как только они попадут в кэш.
+ * Ответ закрыт для общих кэшей и перепроверяется клиентом при каждом запросе.
+ */
+public final class ProfileETags {
+
+    private static final CacheControl CACHE_CONTROL = CacheControl.noCache().cachePrivate();
+    private static final int HASH_BYTES = 16;
+
+    private ProfileETags() {
+    }
+
+    /**
+     * ETag профиля. Профиль приводится к protobuf-представлению кэша, поэтому профиль из Keycloak
+     * и тот же профиль из кэша дают одинаковый ETag; служебная версия в хэш не входит.
+     */
+    public static String of(KeycloakUserDTO user) {
+        UserProfile profile = UserProfileMapper.toProto(user).toBuilder().clearVersion().build();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(profile.getSerializedSize());
+            CodedOutputStream output = CodedOutputStream.newInstance(bytes);
+            // Порядок элементов map в обычной сериализации не гарантирован
+            output.useDeterministicSerialization();
+            profile.writeTo(output);
+            output.flush();
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+            return "\"" + HexFormat.of().formatHex(Arrays.copyOf(hash, HASH_BYTES)) + "\"";
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    /**
+     * @param ifNoneMatch значение заголовка If-None-Match, может быть null
+     * @param currentETag ETag текущего профиля, null если профиля нет
+     * @return true, если у клиента актуальная копия профиля; «*» совпадает только с существующим профилем
+     */
+    public static boolean matches(String ifNoneMatch, String currentETag) {
+        if (ifNoneMatch == null || currentETag == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            String candidate = tag.trim();
+            if (candidate.startsWith("W/")) {
+                candidate = candidate.substring(2);
+            }
+            if (candidate.equals("*") || candidate.equals(currentETag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 304 при совпадении If-None-Match с профилем, иначе профиль
+     */
+    public static ResponseEntity<KeycloakUserDTO> respond(String ifNoneMatch, KeycloakUserDTO user) {
+        String eTag = of(user);
+        if (matches(ifNoneMatch, eTag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .cacheControl(CACHE_CONTROL)
+                    .eTag(eTag)
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .cacheControl(CACHE_CONTROL)
+                .eTag(eTag)
+                .body(user);
+    }
+}
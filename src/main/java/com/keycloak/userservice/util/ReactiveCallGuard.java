@@ -0,0 +1,90 @@
+package com.keycloak.userservice.util;
+
+import com.keycloak.userservice.context.RequestContext;
+import com.keycloak.userservice.context.RequestDeadline;
+import com.keycloak.userservice.ratelimit.AdaptiveConcurrencyLimiter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Переводит реактивные вызовы Keycloak на асинхронные API {@link AdaptiveConcurrencyLimiter}
+ * и {@link DistributedLockUtil}: ожидание блокировки не занимает поток event loop,
+ * а лимит и метрики блокировок общие с остальными транспортами.
+ * Срок ответа берется из {@link RequestContext} в контексте Reactor.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveCallGuard {
+
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final DistributedLockUtil lockUtil;
+
+    @Autowired
+    public ReactiveCallGuard(AdaptiveConcurrencyLimiter concurrencyLimiter, DistributedLockUtil lockUtil) {
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.lockUtil = lockUtil;
+    }
+
+    public <T> Mono<T> limited(Supplier<Mono<T>> action) {
+        return Mono.deferContextual(ctx -> withDeadline(Mono.fromFuture(() -> concurrencyLimiter.executeAsync(
+                () -> action.get().contextWrite(ctx).toFuture())), deadline(ctx)));
+    }
+
+    /**
+     * Разрешение берется до ожидания блокировки, а задержка для ограничителя отсчитывается
+     * с момента получения блокировки
+     */
+    public <T> Mono<T> limitedWithLock(String lockKey, Supplier<Mono<T>> action) {
+        return Mono.deferContextual(ctx -> {
+            RequestDeadline deadline = deadline(ctx);
+            AtomicBoolean abandoned = new AtomicBoolean();
+            return withDeadline(Mono.fromFuture(() -> concurrencyLimiter.executeTimedAsync(
+                            permit -> lockUtil.executeWithLockAsync(lockKey, deadline,
+                                    permit.timed(() -> unlessAbandoned(abandoned, action).contextWrite(ctx).toFuture()))))
+                    .doOnCancel(() -> abandoned.set(true)), deadline);
+        });
+    }
+
+    /**
+     * Выполняет блокирующую операцию (например, запись в кэш) вне потоков event loop
+     */
+    public static Mono<Void> runBlocking(Runnable blocking) {
+        return Mono.fromRunnable(blocking).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+
+    public static <T> Mono<T> callBlocking(Supplier<T> blocking) {
+        return Mono.fromSupplier(blocking).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private static RequestDeadline deadline(ContextView ctx) {
+        return ctx.getOrDefault(RequestContext.class, RequestContext.SYSTEM).deadline();
+    }
+
+    /**
+     * Обрывает вызов по истечении срока запроса. Отмена подписки (разрыв соединения клиентом
+     * или таймаут) не останавливает уже ожидающую блокировку, но операция после ее захвата
+     * не выполняется: см. {@link #unlessAbandoned(AtomicBoolean, Supplier)}.
+     */
+    private static <T> Mono<T> withDeadline(Mono<T> call, RequestDeadline deadline) {
+        if (!deadline.isBounded()) {
+            return call;
+        }
+        if (deadline.isExpired()) {
+            return Mono.error(RequestDeadline.exceeded());
+        }
+        return call.timeout(deadline.remaining(), Mono.error(RequestDeadline::exceeded));
+    }
+
+    private static <T> Mono<T> unlessAbandoned(AtomicBoolean abandoned, Supplier<Mono<T>> action) {
+        return Mono.defer(() -> abandoned.get()
+                ? Mono.error(RequestDeadline.cancelled())
+                : action.get());
+    }
+}
@@ -0,0 +1,38 @@
+package com.keycloak.userservice.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Разбор claim с ролями, общий для authorities Spring Security и локальной проверки токенов:
+ * claim может быть массивом или строкой с ролями через пробел, как у JwtGrantedAuthoritiesConverter.
+ * Запятая разделителем не считается, поэтому обе проверки видят один и тот же набор ролей.
+ */
+public final class RoleClaims {
+
+    public static final String ROLES_CLAIM = "roles";
+
+    private static final String ROLES_DELIMITER = " ";
+
+    private RoleClaims() {
+    }
+
+    /**
+     * @param claim значение claim: строка, коллекция или null
+     * @return роли в порядке claim; для отсутствующего claim или значения другого типа - пустой список
+     */
+    public static List<String> parse(Object claim) {
+        if (claim instanceof String delimited) {
+            return Arrays.stream(delimited.split(ROLES_DELIMITER))
+                    .filter(role -> !role.isEmpty())
+                    .toList();
+        }
+        if (claim instanceof Collection<?> roles) {
+            return roles.stream()
+                    .map(String::valueOf)
+                    .toList();
+        }
+        return List.of();
+    }
+}
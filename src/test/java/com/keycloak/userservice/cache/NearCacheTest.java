@@ -0,0 +1,115 @@
+package com.keycloak.userservice.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.StringCodec;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class NearCacheTest {
+
+    private final List<String> published = new ArrayList<>();
+    private final NearCache<String> cache = nearCache(published);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    NearCacheTest() {
+        cache.bindTo(registry);
+    }
+
+    @Test
+    void ownInvalidationEchoIsIgnored() {
+        cache.invalidate("user-1");
+        cache.put("user-1", "v2");
+
+        published.forEach(cache::onInvalidation);
+
+        assertThat(cache.get("user-1", key -> "remote")).isEqualTo("v2");
+        assertThat(invalidations()).isEqualTo(1);
+    }
+
+    @Test
+    void invalidationFromOtherPodRemovesKey() {
+        NearCache<String> otherPod = nearCache(published);
+        cache.put("user-1", "v1");
+
+        otherPod.invalidate("user-1");
+        published.forEach(cache::onInvalidation);
+
+        assertThat(cache.get("user-1", key -> "v2")).isEqualTo("v2");
+        assertThat(invalidations()).isEqualTo(1);
+    }
+
+    @Test
+    void messageWithoutSourceIsTreatedAsKey() {
+        cache.put("user-1", "v1");
+
+        cache.onInvalidation("user-1");
+
+        assertThat(cache.get("user-1", key -> "v2")).isEqualTo("v2");
+    }
+
+    @Test
+    void loadRacingWithInvalidationOfSameKeyIsNotCached() {
+        String loaded = cache.get("user-1", key -> {
+            cache.onInvalidation("other-pod|user-1");
+            return "stale";
+        });
+
+        assertThat(loaded).isEqualTo("stale");
+        assertThat(cache.get("user-1", key -> "fresh")).isEqualTo("fresh");
+    }
+
+    @Test
+    void invalidationOfOtherKeyDoesNotBlockFill() {
+        // Хэши ключей отличаются в младших битах, поэтому полосы поколений разные
+        cache.get("user-1", key -> {
+            cache.onInvalidation("other-pod|user-2");
+            return "v1";
+        });
+
+        assertThat(cache.get("user-1", key -> "remote")).isEqualTo("v1");
+    }
+
+    @Test
+    void invalidatedKeyIsRecentlyChangedWithinWindow() {
+        NearCache<String> tracking = nearCache(published, Duration.ofMinutes(1));
+        NearCache<String> otherPod = nearCache(published, Duration.ofMinutes(1));
+
+        tracking.invalidate("user-1");
+        published.forEach(otherPod::onInvalidation);
+
+        assertThat(tracking.recentlyChanged("user-1")).isTrue();
+        assertThat(otherPod.recentlyChanged("user-1")).isTrue();
+        assertThat(tracking.recentlyChanged("user-2")).isFalse();
+        assertThat(cache.recentlyChanged("user-1")).isFalse();
+    }
+
+    private double invalidations() {
+        return registry.get("cache.near.invalidations").functionCounter().count();
+    }
+
+    private static NearCache<String> nearCache(List<String> published) {
+        return nearCache(published, Duration.ZERO);
+    }
+
+    private static NearCache<String> nearCache(List<String> published, Duration changeWindow) {
+        RTopic topic = mock(RTopic.class);
+        when(topic.publishAsync(anyString())).thenAnswer(invocation -> {
+            published.add(invocation.getArgument(0));
+            return null;
+        });
+        RedissonClient redisson = mock(RedissonClient.class);
+        when(redisson.getTopic(anyString(), eq(StringCodec.INSTANCE))).thenReturn(topic);
+        return new NearCache<>("test", redisson, 100, Duration.ofMinutes(1), changeWindow);
+    }
+}
@@ -0,0 +1,111 @@
+package com.keycloak.userservice.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.grpc.UserProfile;
+import com.keycloak.userservice.grpc.UserProfileMapper;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ProtobufCacheCodecTest {
+
+    private final ProtobufCacheCodec<UserProfile> codec = new ProtobufCacheCodec<>(UserProfile.parser(), 64);
+
+    @Test
+    void smallProfileRoundTripsUncompressed() {
+        UserProfile profile = UserProfile.newBuilder().setId("1").setUsername("alice").build();
+
+        byte[] bytes = codec.encode(profile);
+
+        assertThat(bytes[0]).isZero();
+        assertThat(codec.decode(bytes)).isEqualTo(profile);
+    }
+
+    @Test
+    void largeProfileRoundTripsCompressed() {
+        UserProfile profile = UserProfile.newBuilder()
+                .setId("1")
+                .setPreferences("{\"theme\":\"dark\"}".repeat(100))
+                .build();
+
+        byte[] bytes = codec.encode(profile);
+
+        assertThat(bytes[0]).isEqualTo((byte) 1);
+        assertThat(bytes.length).isLessThan(profile.getSerializedSize());
+        assertThat(codec.decode(bytes)).isEqualTo(profile);
+    }
+
+    @Test
+    void oversizedLz4LengthIsRejected() {
+        byte[] bytes = {1, 0x7F, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0, 0};
+
+        assertThatThrownBy(() -> codec.decode(bytes))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("длина LZ4");
+    }
+
+    @Test
+    void corruptedLz4PayloadIsRejected() {
+        byte[] bytes = {1, 0, 0, 0, 10, (byte) 0xF0, 1, 2};
+
+        assertThatThrownBy(() -> codec.decode(bytes)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void unsetProfileFieldsStayNullThroughCache() {
+        KeycloakUserDTO user = new KeycloakUserDTO();
+        user.setId("1");
+        user.setUsername("alice");
+        user.setEnabled(false);
+        user.setRoles(List.of("user"));
+        user.setAttributes(Map.of("locale", List.of("ru")));
+
+        KeycloakUserDTO cached = UserProfileMapper.fromProto(codec.decode(codec.encode(UserProfileMapper.toProto(user))));
+
+        assertThat(cached.getId()).isEqualTo("1");
+        assertThat(cached.getUsername()).isEqualTo("alice");
+        assertThat(cached.getEnabled()).isFalse();
+        assertThat(cached.getEmailVerified()).isNull();
+        assertThat(cached.getEmail()).isNull();
+        assertThat(cached.getFirstName()).isNull();
+        assertThat(cached.getPhoneNumber()).isNull();
+        assertThat(cached.getPreferences()).isNull();
+        assertThat(cached.getRoles()).containsExactly("user");
+        assertThat(cached.getAttributes()).containsEntry("locale", List.of("ru"));
+    }
+
+    @Test
+    void typicalProfileIsSmallerThanJson() throws Exception {
+        KeycloakUserDTO user = typicalUser();
+        byte[] json = new ObjectMapper().writeValueAsBytes(user);
+
+        byte[] cached = codec.encode(UserProfileMapper.toProto(user));
+
+        assertThat(cached.length).isLessThan(json.length * 3 / 4);
+    }
+
+    private static KeycloakUserDTO typicalUser() {
+        KeycloakUserDTO user = new KeycloakUserDTO();
+        user.setId("5f0c7b9e-3a1d-4c2b-9e8f-1a2b3c4d5e6f");
+        user.setUsername("ivan.petrov");
+        user.setEmail("ivan.petrov@example.com");
+        user.setFirstName("Иван");
+        user.setLastName("Петров");
+        user.setEnabled(true);
+        user.setEmailVerified(true);
+        user.setRoles(List.of("user", "manager", "offline_access", "uma_authorization"));
+        user.setAttributes(Map.of(
+                "locale", List.of("ru"),
+                "department", List.of("sales"),
+                "phoneNumber", List.of("+79001234567")));
+        user.setPhoneNumber("+79001234567");
+        user.setPreferences("{\"theme\":\"dark\",\"language\":\"ru\",\"notifications\":{\"email\":true,\"sms\":false}}");
+        user.setVersion(3L);
+        return user;
+    }
+}
@@ -0,0 +1,91 @@
+package com.keycloak.userservice.cache;
+
+import com.keycloak.userservice.cache.proto.CachedRole;
+import com.keycloak.userservice.util.OutboundMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Tracer;
+import jakarta.ws.rs.NotFoundException;
+import org.junit.jupiter.api.Test;
+import org.keycloak.admin.client.Keycloak;
+import org.keycloak.admin.client.resource.RoleResource;
+import org.keycloak.representations.idm.RoleRepresentation;
+import org.mockito.Answers;
+import org.redisson.api.RBucket;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class RoleCatalogCacheTest {
+
+    private final Keycloak keycloak = mock(Keycloak.class, Answers.RETURNS_DEEP_STUBS);
+    private final RoleResource userRole = mock(RoleResource.class);
+    @SuppressWarnings("unchecked")
+    private final RBucket<CachedRole> bucket = mock(RBucket.class);
+    private final RoleCatalogCache cache;
+
+    RoleCatalogCacheTest() {
+        RedissonClient redisson = mock(RedissonClient.class);
+        when(redisson.getTopic(anyString(), any(Codec.class))).thenReturn(mock(RTopic.class));
+        RedissonClient cacheRedisson = mock(RedissonClient.class);
+        when(cacheRedisson.<CachedRole>getBucket(eq("role-catalog:user"), any(Codec.class))).thenReturn(bucket);
+        when(keycloak.realm("test").roles().get("user")).thenReturn(userRole);
+        OutboundMetrics metrics = new OutboundMetrics(new SimpleMeterRegistry(),
+                new DefaultListableBeanFactory().getBeanProvider(Tracer.class));
+        cache = new RoleCatalogCache(keycloak, "test", redisson, cacheRedisson,
+                new ProtobufCacheCodec<>(CachedRole.parser(), 64), true, 600, 30, metrics);
+    }
+
+    @Test
+    void staleCachedRoleIsReloadedAfterNotFound() {
+        when(bucket.get()).thenReturn(CachedRole.newBuilder().setId("old-id").setName("user").build(), (CachedRole) null);
+        when(userRole.toRepresentation()).thenReturn(role("new-id"));
+        List<String> assignedIds = new ArrayList<>();
+
+        cache.withRealmRoles(List.of("user"), roles -> {
+            assignedIds.add(roles.get(0).getId());
+            if ("old-id".equals(roles.get(0).getId())) {
+                throw new NotFoundException("Role not found");
+            }
+        });
+
+        assertThat(assignedIds).containsExactly("old-id", "new-id");
+        verify(bucket).delete();
+    }
+
+    @Test
+    void notFoundFromSecondAttemptIsPropagated() {
+        when(userRole.toRepresentation()).thenReturn(role("id"));
+
+        assertThatThrownBy(() -> cache.withRealmRoles(List.of("user"), roles -> {
+            throw new NotFoundException("User not found");
+        })).isInstanceOf(NotFoundException.class);
+    }
+
+    @Test
+    void deletedRoleIsRemovedFromCache() {
+        when(userRole.toRepresentation()).thenThrow(new NotFoundException());
+
+        assertThatThrownBy(() -> cache.getRealmRole("user")).isInstanceOf(NotFoundException.class);
+        verify(bucket).delete();
+    }
+
+    private static RoleRepresentation role(String id) {
+        RoleRepresentation role = new RoleRepresentation();
+        role.setId(id);
+        role.setName("user");
+        return role;
+    }
+}
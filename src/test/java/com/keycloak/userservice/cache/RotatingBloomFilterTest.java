@@ -0,0 +1,80 @@
+package com.keycloak.userservice.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RotatingBloomFilterTest {
+
+    @Test
+    void emptyFilterContainsNothing() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001);
+
+        assertThat(filter.mightContain("jti:a")).isFalse();
+    }
+
+    @Test
+    void putKeyIsAlwaysFound() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001);
+        IntStream.range(0, 1000).forEach(i -> filter.put("jti:" + i));
+
+        assertThat(IntStream.range(0, 1000)).allMatch(i -> filter.mightContain("jti:" + i));
+    }
+
+    @Test
+    void keySurvivesOneRotation() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001);
+        filter.put("user:1");
+
+        filter.rotate(List.of());
+
+        assertThat(filter.mightContain("user:1")).isTrue();
+    }
+
+    @Test
+    void keyExpiresAfterTwoRotations() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001);
+        filter.put("user:1");
+
+        filter.rotate(List.of());
+        filter.rotate(List.of());
+
+        assertThat(filter.mightContain("user:1")).isFalse();
+    }
+
+    @Test
+    void liveKeysPassedToRotateStayInFilter() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1000, 0.001);
+        filter.put("jti:old");
+
+        filter.rotate(List.of("jti:live"));
+        filter.rotate(List.of("jti:live"));
+
+        assertThat(filter.mightContain("jti:live")).isTrue();
+        assertThat(filter.mightContain("jti:old")).isFalse();
+    }
+
+    @Test
+    void falsePositiveRateStaysNearConfigured() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(10_000, 0.01);
+        IntStream.range(0, 10_000).forEach(i -> filter.put("jti:" + i));
+
+        long falsePositives = IntStream.range(0, 100_000)
+                .filter(i -> filter.mightContain("other:" + i))
+                .count();
+
+        // Ожидаемо около 1000 при 1%; запас на разброс
+        assertThat(falsePositives).isLessThan(2000);
+    }
+
+    @Test
+    void tinyFilterIsStillUsable() {
+        RotatingBloomFilter filter = new RotatingBloomFilter(1, 0.5);
+        filter.put("jti:a");
+
+        assertThat(filter.mightContain("jti:a")).isTrue();
+    }
+}
@@ -0,0 +1,112 @@
+package com.keycloak.userservice.cache;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class VerifiedJwtCacheTest {
+
+    private final MutableClock clock = new MutableClock(Instant.now());
+    private final VerifiedJwtCache cache = new VerifiedJwtCache(true, 100, clock);
+    private final JwtDecoder delegate = mock(JwtDecoder.class);
+
+    @Test
+    void repeatedTokenIsVerifiedOnce() {
+        when(delegate.decode("t")).thenReturn(jwt(clock.instant().minusSeconds(1), clock.instant().plusSeconds(600)));
+        JwtDecoder decoder = cache.wrap(delegate);
+
+        decoder.decode("t");
+        decoder.decode("t");
+
+        verify(delegate, times(1)).decode("t");
+    }
+
+    @Test
+    void tokenNotYetValidIsLeftToDelegateEveryTime() {
+        // nbf в пределах допуска рассинхронизации часов: delegate принимает токен, но кэш его не запоминает
+        when(delegate.decode("t")).thenReturn(jwt(clock.instant().plusSeconds(30), clock.instant().plusSeconds(600)));
+        JwtDecoder decoder = cache.wrap(delegate);
+
+        decoder.decode("t");
+        decoder.decode("t");
+
+        verify(delegate, times(2)).decode("t");
+    }
+
+    @Test
+    void cachedTokenIsRejectedOnceItsTimestampsFailValidation() {
+        Instant expiresAt = clock.instant().plusSeconds(600);
+        when(delegate.decode("t")).thenReturn(jwt(clock.instant().minusSeconds(1), expiresAt));
+        JwtDecoder decoder = cache.wrap(delegate);
+        decoder.decode("t");
+
+        // Запись еще в кэше, но срок токена с учетом допуска уже прошел
+        clock.set(expiresAt.plus(Duration.ofMinutes(2)));
+
+        assertThatThrownBy(() -> decoder.decode("t")).isInstanceOf(JwtValidationException.class);
+        verify(delegate, times(1)).decode("t");
+    }
+
+    @Test
+    void reactiveHitIsValidatedToo() {
+        Instant expiresAt = clock.instant().plusSeconds(600);
+        ReactiveJwtDecoder reactiveDelegate = mock(ReactiveJwtDecoder.class);
+        when(reactiveDelegate.decode("t")).thenReturn(Mono.just(jwt(clock.instant().minusSeconds(1), expiresAt)));
+        ReactiveJwtDecoder decoder = cache.wrap(reactiveDelegate);
+        decoder.decode("t").block();
+
+        clock.set(expiresAt.plus(Duration.ofMinutes(2)));
+
+        assertThatThrownBy(() -> decoder.decode("t").block()).isInstanceOf(JwtValidationException.class);
+        verify(reactiveDelegate, times(1)).decode("t");
+    }
+
+    private static Jwt jwt(Instant notBefore, Instant expiresAt) {
+        return Jwt.withTokenValue("t").header("alg", "none").subject("1")
+                .issuedAt(notBefore.minusSeconds(1)).notBefore(notBefore).expiresAt(expiresAt)
+                .build();
+    }
+
+    private static final class MutableClock extends Clock {
+
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
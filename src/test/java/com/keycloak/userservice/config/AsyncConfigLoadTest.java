@@ -0,0 +1,111 @@
+package com.keycloak.userservice.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.system.JavaVersion;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Потолок одновременных блокирующих вызовов Keycloak: ограниченный пул против виртуальных потоков.
+ * Задачи ждут общий сигнал, как запросы, ждущие ответа медленного Keycloak.
+ */
+class AsyncConfigLoadTest {
+
+    private static final int TASKS = 2_000;
+
+    @Test
+    void platformPoolRunsAtMostMaxSizeAndRejectsBeyondQueue() throws Exception {
+        AsyncTaskExecutor executor = keycloakExecutor(false);
+
+        Load load = submit(executor);
+
+        assertThat(load.maxRunning()).isEqualTo(64);
+        assertThat(load.rejected()).isEqualTo(TASKS - 64 - 500);
+        assertThat(load.completed()).isEqualTo(64 + 500);
+    }
+
+    @Test
+    void virtualThreadsRunAllBlockedCallsAtOnce() throws Exception {
+        assumeTrue(JavaVersion.getJavaVersion().isEqualOrNewerThan(JavaVersion.TWENTY_ONE), "virtual threads require Java 21");
+        AsyncTaskExecutor executor = keycloakExecutor(true);
+
+        Load load = submit(executor);
+
+        assertThat(load.maxRunning()).isEqualTo(TASKS);
+        assertThat(load.rejected()).isZero();
+        assertThat(load.completed()).isEqualTo(TASKS);
+    }
+
+    private static Load submit(AsyncTaskExecutor executor) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        int rejected = 0;
+        try {
+            for (int i = 0; i < TASKS; i++) {
+                try {
+                    executor.execute(() -> {
+                        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        running.decrementAndGet();
+                        completed.incrementAndGet();
+                    });
+                } catch (RejectedExecutionException e) {
+                    rejected++;
+                }
+            }
+            awaitStable(running);
+        } finally {
+            release.countDown();
+        }
+        int accepted = TASKS - rejected;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (completed.get() < accepted && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        if (executor instanceof DisposableBean pool) {
+            pool.destroy();
+        } else if (executor instanceof AutoCloseable closeable) {
+            closeable.close();
+        }
+        return new Load(maxRunning.get(), rejected, completed.get());
+    }
+
+    /**
+     * Потоки стартуют асинхронно: ждем, пока число выполняющихся задач перестанет расти
+     */
+    private static void awaitStable(AtomicInteger running) throws InterruptedException {
+        int previous = -1;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (running.get() != previous && System.nanoTime() < deadline) {
+            previous = running.get();
+            Thread.sleep(200);
+        }
+    }
+
+    private static AsyncTaskExecutor keycloakExecutor(boolean virtualThreads) {
+        AsyncConfig config = new AsyncConfig();
+        ReflectionTestUtils.setField(config, "virtualThreads", virtualThreads);
+        ReflectionTestUtils.setField(config, "keycloakCoreSize", 16);
+        ReflectionTestUtils.setField(config, "keycloakMaxSize", 64);
+        ReflectionTestUtils.setField(config, "keycloakQueueCapacity", 500);
+        return config.keycloakExecutor();
+    }
+
+    private record Load(int maxRunning, int rejected, int completed) {
+    }
+}
@@ -0,0 +1,111 @@
+package com.keycloak.userservice.config;
+
+import com.keycloak.userservice.context.RequestContext;
+import com.keycloak.userservice.util.RecordingTracer;
+import io.micrometer.observation.Observation;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AsyncConfigTest {
+
+    private final RecordingTracer tracing = new RecordingTracer();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void taskRunsInRequestSpanAndContext() {
+        RequestContext context = new RequestContext(RequestContext.SOURCE_API, "10.1.2.3", "test-agent");
+        AtomicReference<String> taskTraceId = new AtomicReference<>();
+        AtomicReference<String> taskSpanId = new AtomicReference<>();
+        AtomicReference<RequestContext> taskContext = new AtomicReference<>();
+
+        Observation request = Observation.start("http.server.requests", tracing.observationRegistry());
+        try (Observation.Scope ignored = request.openScope()) {
+            RequestContext.runWith(context, () -> submit(() -> {
+                Span current = tracing.tracer().currentSpan();
+                taskTraceId.set(current != null ? current.context().traceId() : null);
+                taskSpanId.set(current != null ? current.context().spanId() : null);
+                taskContext.set(RequestContext.current());
+            }));
+        } finally {
+            request.stop();
+        }
+
+        assertThat(taskTraceId.get()).isEqualTo(tracing.span("http.server.requests").getTraceId());
+        assertThat(taskSpanId.get()).isEqualTo(tracing.span("http.server.requests").getSpanId());
+        assertThat(taskContext.get()).isEqualTo(context);
+    }
+
+    @Test
+    void taskDoesNotLeakSpanToPoolThread() throws Exception {
+        Observation request = Observation.start("http.server.requests", tracing.observationRegistry());
+        try (Observation.Scope ignored = request.openScope()) {
+            submit(() -> {
+            });
+        } finally {
+            request.stop();
+        }
+        AtomicReference<Span> afterTask = new AtomicReference<>();
+
+        executor.submit(() -> afterTask.set(tracing.tracer().currentSpan())).get(5, TimeUnit.SECONDS);
+
+        assertThat(afterTask.get()).isNull();
+    }
+
+    @Test
+    void manualSpanStartedInTaskIsChildOfRequestSpan() {
+        Observation request = Observation.start("http.server.requests", tracing.observationRegistry());
+        try (Observation.Scope ignored = request.openScope()) {
+            submit(() -> {
+                Tracer tracer = tracing.tracer();
+                Span lock = tracer.nextSpan().name("lock user").start();
+                lock.end();
+            });
+        } finally {
+            request.stop();
+        }
+
+        assertThat(tracing.span("lock user").getParentSpanId())
+                .isEqualTo(tracing.span("http.server.requests").getSpanId());
+    }
+
+    @Test
+    void taskRunsInInnerSpanOpenedWithTracer() {
+        AtomicReference<String> taskSpanId = new AtomicReference<>();
+
+        Observation request = Observation.start("http.server.requests", tracing.observationRegistry());
+        try (Observation.Scope ignored = request.openScope()) {
+            Span lock = tracing.tracer().nextSpan().name("lock user").start();
+            try (Tracer.SpanInScope inScope = tracing.tracer().withSpan(lock)) {
+                submit(() -> taskSpanId.set(tracing.tracer().currentSpan().context().spanId()));
+            } finally {
+                lock.end();
+            }
+        } finally {
+            request.stop();
+        }
+
+        assertThat(taskSpanId.get()).isEqualTo(tracing.span("lock user").getSpanId());
+    }
+
+    private void submit(Runnable task) {
+        try {
+            executor.submit(AsyncConfig.propagateContext(task)).get(5, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
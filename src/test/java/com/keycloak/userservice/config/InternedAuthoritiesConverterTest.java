@@ -0,0 +1,87 @@
+package com.keycloak.userservice.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class InternedAuthoritiesConverterTest {
+
+    private final InternedAuthoritiesConverter converter = new InternedAuthoritiesConverter();
+
+    @Test
+    void rolesArrayBecomesRoleAuthorities() {
+        assertThat(AuthorityUtils.authorityListToSet(converter.convert(jwt(List.of("user", "admin")))))
+                .containsExactlyInAnyOrder("ROLE_user", "ROLE_admin");
+    }
+
+    @Test
+    void spaceDelimitedRolesAreSplit() {
+        assertThat(AuthorityUtils.authorityListToSet(converter.convert(jwt("user  admin"))))
+                .containsExactlyInAnyOrder("ROLE_user", "ROLE_admin");
+    }
+
+    @Test
+    void missingOrEmptyRolesGiveNoAuthorities() {
+        assertThat(converter.convert(jwt(List.of()))).isEmpty();
+        assertThat(converter.convert(jwt(" "))).isEmpty();
+        assertThat(converter.convert(Jwt.withTokenValue("t").header("alg", "none").subject("1").build())).isEmpty();
+    }
+
+    @Test
+    void sameRoleSetIsSharedBetweenTokens() {
+        Collection<GrantedAuthority> first = converter.convert(jwt(new ArrayList<>(List.of("user", "admin"))));
+        Collection<GrantedAuthority> second = converter.convert(jwt(new ArrayList<>(List.of("user", "admin"))));
+
+        assertThat(second).isSameAs(first);
+    }
+
+    @Test
+    void allocatesLessThanJwtGrantedAuthoritiesConverter() {
+        com.sun.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                ? bean : null;
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        JwtGrantedAuthoritiesConverter standard = new JwtGrantedAuthoritiesConverter();
+        standard.setAuthoritiesClaimName("roles");
+        standard.setAuthorityPrefix("ROLE_");
+        Jwt jwt = jwt(new ArrayList<>(List.of("user", "manager", "admin", "auditor")));
+
+        long interned = allocatedPerCall(threads, converter, jwt);
+        long baseline = allocatedPerCall(threads, standard, jwt);
+
+        assertThat(interned).isLessThan(baseline / 2);
+    }
+
+    private static long allocatedPerCall(com.sun.management.ThreadMXBean threads,
+                                         Converter<Jwt, Collection<GrantedAuthority>> converter, Jwt jwt) {
+        int iterations = 20_000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += converter.convert(jwt).size();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            sink += converter.convert(jwt).size();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertThat(sink).isPositive();
+        return allocated / iterations;
+    }
+
+    private static Jwt jwt(Object roles) {
+        return Jwt.withTokenValue("t").header("alg", "none").subject("1").claim("roles", roles).build();
+    }
+}
@@ -0,0 +1,88 @@
+package com.keycloak.userservice.config;
+
+import org.aopalliance.intercept.MethodInvocation;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.access.annotation.Secured;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.authorization.AuthorizationDecision;
+import org.springframework.security.authorization.method.PreAuthorizeAuthorizationManager;
+import org.springframework.security.authorization.method.SecuredAuthorizationManager;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
+import org.springframework.security.util.SimpleMethodInvocation;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Цена проверки доступа на запрос: authorities из JWT и проверка метода. Вариант сервиса
+ * (общие наборы authorities и @Secured) сравнивается со стандартным (JwtGrantedAuthoritiesConverter
+ * и SpEL в @PreAuthorize) по выделенной памяти на вызов, которая, в отличие от времени, стабильна в тестах.
+ */
+class MethodSecurityOverheadTest {
+
+    private static final int ITERATIONS = 20_000;
+
+    private final Jwt jwt = Jwt.withTokenValue("t").header("alg", "none").subject("1")
+            .claim("roles", new ArrayList<>(List.of("user", "manager", "admin", "auditor")))
+            .build();
+
+    @Test
+    void securedWithInternedAuthoritiesAllocatesLessThanPreAuthorize() throws Exception {
+        com.sun.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                ? bean : null;
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        JwtAuthenticationConverter interned = new JwtAuthenticationConverter();
+        interned.setJwtGrantedAuthoritiesConverter(new InternedAuthoritiesConverter());
+        SecuredAuthorizationManager secured = new SecuredAuthorizationManager();
+        MethodInvocation securedCall = new SimpleMethodInvocation(new Endpoints(), Endpoints.class.getMethod("secured"));
+
+        JwtGrantedAuthoritiesConverter standardAuthorities = new JwtGrantedAuthoritiesConverter();
+        standardAuthorities.setAuthoritiesClaimName("roles");
+        standardAuthorities.setAuthorityPrefix("ROLE_");
+        JwtAuthenticationConverter standard = new JwtAuthenticationConverter();
+        standard.setJwtGrantedAuthoritiesConverter(standardAuthorities);
+        PreAuthorizeAuthorizationManager preAuthorize = new PreAuthorizeAuthorizationManager();
+        MethodInvocation preAuthorizeCall =
+                new SimpleMethodInvocation(new Endpoints(), Endpoints.class.getMethod("preAuthorized"));
+
+        long servicePath = allocatedPerCall(threads, jwt -> secured.check(() -> interned.convert(jwt), securedCall));
+        long standardPath = allocatedPerCall(threads, jwt -> preAuthorize.check(() -> standard.convert(jwt), preAuthorizeCall));
+
+        assertThat(servicePath).isLessThan(standardPath / 2);
+    }
+
+    private long allocatedPerCall(com.sun.management.ThreadMXBean threads, Function<Jwt, AuthorizationDecision> check) {
+        long granted = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            granted += check.apply(jwt).isGranted() ? 1 : 0;
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            granted += check.apply(jwt).isGranted() ? 1 : 0;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertThat(granted).isEqualTo(2L * ITERATIONS);
+        return allocated / ITERATIONS;
+    }
+
+    static class Endpoints {
+
+        @Secured("ROLE_admin")
+        public void secured() {
+        }
+
+        @PreAuthorize("hasRole('admin')")
+        public void preAuthorized() {
+        }
+    }
+}
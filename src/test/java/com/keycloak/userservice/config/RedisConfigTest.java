@@ -0,0 +1,100 @@
+package com.keycloak.userservice.config;
+
+import io.lettuce.core.ReadFrom;
+import org.junit.jupiter.api.Test;
+import org.redisson.config.ReadMode;
+import org.springframework.data.redis.connection.RedisNode;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RedisConfigTest {
+
+    @Test
+    void sentinelModeBuildsSentinelConfigurations() throws IOException {
+        RedisConfig config = config("sentinel");
+        ReflectionTestUtils.setField(config, "sentinelNodes", "s1:26379, s2:26379");
+
+        LettuceConnectionFactory master = config.createConnectionFactory(ReadFrom.MASTER);
+        LettuceConnectionFactory replica = config.createConnectionFactory(ReadFrom.REPLICA_PREFERRED);
+
+        assertThat(master.getSentinelConfiguration()).isNotNull();
+        assertThat(master.getSentinelConfiguration().getMaster().getName()).isEqualTo("mymaster");
+        assertThat(master.getSentinelConfiguration().getSentinels())
+                .extracting(RedisNode::getHost)
+                .containsExactlyInAnyOrder("s1", "s2");
+        assertThat(master.getClientConfiguration().getReadFrom()).contains(ReadFrom.MASTER);
+        assertThat(replica.getClientConfiguration().getReadFrom()).contains(ReadFrom.REPLICA_PREFERRED);
+
+        String redisson = config.redissonConfig(ReadMode.SLAVE).toYAML();
+        assertThat(redisson).contains("sentinelServersConfig", "redis://s1:26379", "redis://s2:26379", "readMode: \"SLAVE\"");
+    }
+
+    @Test
+    void clusterModeBuildsClusterConfigurations() throws IOException {
+        RedisConfig config = config("cluster");
+        ReflectionTestUtils.setField(config, "clusterNodes", "n1:6379,n2:6379,n3:6379");
+
+        LettuceConnectionFactory master = config.createConnectionFactory(ReadFrom.MASTER);
+
+        assertThat(master.getClusterConfiguration()).isNotNull();
+        assertThat(master.getClusterConfiguration().getClusterNodes()).hasSize(3);
+        assertThat(master.getClientConfiguration().getReadFrom()).contains(ReadFrom.MASTER);
+
+        String redisson = config.redissonConfig(ReadMode.MASTER).toYAML();
+        assertThat(redisson).contains("clusterServersConfig", "redis://n1:6379", "readMode: \"MASTER\"");
+    }
+
+    @Test
+    void standaloneModeIgnoresReadFrom() throws IOException {
+        RedisConfig config = config("Standalone");
+
+        LettuceConnectionFactory replica = config.createConnectionFactory(ReadFrom.REPLICA_PREFERRED);
+
+        assertThat(replica.getSentinelConfiguration()).isNull();
+        assertThat(replica.getClusterConfiguration()).isNull();
+        assertThat(replica.getHostName()).isEqualTo("redis-host");
+        assertThat(replica.getClientConfiguration().getReadFrom()).isEmpty();
+
+        assertThat(config.redissonConfig(ReadMode.SLAVE).toYAML())
+                .contains("singleServerConfig", "redis://redis-host:6379");
+    }
+
+    @Test
+    void unknownModeFailsStartup() {
+        RedisConfig config = config("sentinal");
+
+        assertThatThrownBy(() -> config.createConnectionFactory(ReadFrom.MASTER))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("sentinal");
+        assertThatThrownBy(() -> config.redissonConfig(ReadMode.MASTER))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("sentinal");
+    }
+
+    private static RedisConfig config(String mode) {
+        RedisConfig config = new RedisConfig();
+        ReflectionTestUtils.setField(config, "mode", mode);
+        ReflectionTestUtils.setField(config, "redisHost", "redis-host");
+        ReflectionTestUtils.setField(config, "redisPort", 6379);
+        ReflectionTestUtils.setField(config, "redisPassword", "");
+        ReflectionTestUtils.setField(config, "sentinelMaster", "mymaster");
+        ReflectionTestUtils.setField(config, "sentinelNodes", "");
+        ReflectionTestUtils.setField(config, "clusterNodes", "");
+        ReflectionTestUtils.setField(config, "poolMaxActive", 8);
+        ReflectionTestUtils.setField(config, "poolMaxIdle", 8);
+        ReflectionTestUtils.setField(config, "poolMinIdle", 0);
+        ReflectionTestUtils.setField(config, "pipeliningFlushThreshold", 16);
+        ReflectionTestUtils.setField(config, "redissonPoolSize", 8);
+        ReflectionTestUtils.setField(config, "redissonMinIdle", 1);
+        ReflectionTestUtils.setField(config, "redissonNettyThreads", 2);
+        ReflectionTestUtils.setField(config, "redissonTimeout", 3000);
+        ReflectionTestUtils.setField(config, "redissonRetryAttempts", 1);
+        ReflectionTestUtils.setField(config, "redissonRetryInterval", 100);
+        return config;
+    }
+}
@@ -0,0 +1,92 @@
+package com.keycloak.userservice.context;
+
+import io.grpc.Context;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RequestDeadlineTest {
+
+    @AfterEach
+    void clearInterrupt() {
+        Thread.interrupted();
+    }
+
+    @Test
+    void timeoutHeaderIsClampedToMaximum() {
+        RequestDeadline deadline = RequestDeadline.fromTimeoutHeader("600000", 0, 1000);
+
+        assertThat(deadline.isBounded()).isTrue();
+        assertThat(deadline.remainingMillis()).isBetween(0L, 1000L);
+    }
+
+    @Test
+    void invalidOrMissingHeaderFallsBackToDefault() {
+        assertThat(RequestDeadline.fromTimeoutHeader("abc", 0, 1000)).isSameAs(RequestDeadline.NONE);
+        assertThat(RequestDeadline.fromTimeoutHeader(null, 0, 1000)).isSameAs(RequestDeadline.NONE);
+        assertThat(RequestDeadline.fromTimeoutHeader("-5", 500, 1000).remainingMillis()).isBetween(0L, 500L);
+    }
+
+    @Test
+    void unboundedDeadlineNeverExpires() {
+        assertThat(RequestDeadline.NONE.isExpired()).isFalse();
+        assertThat(RequestDeadline.NONE.remaining()).isNull();
+        assertThat(RequestDeadline.NONE.clampMillis(5000)).isEqualTo(5000);
+        RequestDeadline.NONE.check();
+    }
+
+    @Test
+    void expiredDeadlineFailsWithGatewayTimeout() throws InterruptedException {
+        RequestDeadline deadline = RequestDeadline.fromTimeoutHeader("1", 0, 1000);
+        Thread.sleep(5);
+
+        assertThat(deadline.isExpired()).isTrue();
+        assertThat(deadline.clampMillis(5000)).isZero();
+        assertThatThrownBy(deadline::check)
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.GATEWAY_TIMEOUT));
+    }
+
+    @Test
+    void cancellationInterruptsWaiterAndStopClearsTheFlag() {
+        Context.CancellableContext grpcContext = Context.current().withCancellation();
+        RequestDeadline deadline = RequestDeadline.fromGrpc(grpcContext);
+
+        Runnable stop = deadline.interruptOnCancel();
+        grpcContext.cancel(null);
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+
+        stop.run();
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        assertThatThrownBy(deadline::check)
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(RequestDeadline.CLIENT_CLOSED_REQUEST));
+    }
+
+    @Test
+    void cancellationAfterStopDoesNotInterrupt() {
+        Context.CancellableContext grpcContext = Context.current().withCancellation();
+        RequestDeadline deadline = RequestDeadline.fromGrpc(grpcContext);
+
+        deadline.interruptOnCancel().run();
+        grpcContext.cancel(null);
+
+        assertThat(Thread.currentThread().isInterrupted()).isFalse();
+        assertThat(deadline.isCancelled()).isTrue();
+    }
+
+    @Test
+    void stopKeepsInterruptsFromOtherSources() {
+        Context.CancellableContext grpcContext = Context.current().withCancellation();
+        Runnable stop = RequestDeadline.fromGrpc(grpcContext).interruptOnCancel();
+
+        Thread.currentThread().interrupt();
+        stop.run();
+
+        assertThat(Thread.currentThread().isInterrupted()).isTrue();
+    }
+}
@@ -0,0 +1,47 @@
+package com.keycloak.userservice.context;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrustedProxiesTest {
+
+    private final TrustedProxies proxies = new TrustedProxies(List.of("10.0.0.0/8", "::1"));
+
+    @Test
+    void forwardedForFromUntrustedPeerIsIgnored() {
+        assertThat(proxies.resolveClientIp("1.2.3.4", "203.0.113.7")).isEqualTo("203.0.113.7");
+    }
+
+    @Test
+    void lastUntrustedHopIsTheClient() {
+        assertThat(proxies.resolveClientIp("6.6.6.6, 198.51.100.2, 10.0.0.5", "10.0.0.1")).isEqualTo("198.51.100.2");
+    }
+
+    @Test
+    void allTrustedChainYieldsLeftmostHop() {
+        assertThat(proxies.resolveClientIp("10.1.1.1, 10.0.0.5", "::1")).isEqualTo("10.1.1.1");
+    }
+
+    @Test
+    void malformedHopStopsTheWalk() {
+        assertThat(proxies.resolveClientIp("evil.example, 10.0.0.5", "10.0.0.1")).isEqualTo("10.0.0.5");
+        assertThat(proxies.resolveClientIp("garbage", "10.0.0.1")).isEqualTo("10.0.0.1");
+    }
+
+    @Test
+    void missingHeaderOrPeer() {
+        assertThat(proxies.resolveClientIp(null, "10.0.0.1")).isEqualTo("10.0.0.1");
+        assertThat(proxies.resolveClientIp("", "10.0.0.1")).isEqualTo("10.0.0.1");
+        assertThat(proxies.resolveClientIp("1.2.3.4", null)).isEqualTo("unknown");
+    }
+
+    @Test
+    void noTrustedProxiesConfigured() {
+        TrustedProxies none = new TrustedProxies(List.of());
+
+        assertThat(none.resolveClientIp("1.2.3.4", "10.0.0.1")).isEqualTo("10.0.0.1");
+    }
+}
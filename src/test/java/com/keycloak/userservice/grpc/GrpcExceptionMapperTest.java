@@ -0,0 +1,39 @@
+package com.keycloak.userservice.grpc;
+
+import com.keycloak.userservice.ratelimit.ServiceOverloadedException;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.concurrent.CompletionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GrpcExceptionMapperTest {
+
+    private static final Metadata.Key<String> RETRY_AFTER =
+            Metadata.Key.of("retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
+    @Test
+    void overloadIsUnavailableWithRetryAfterTrailer() {
+        StatusRuntimeException status = GrpcExceptionMapper.toStatusException(
+                new CompletionException(new ServiceOverloadedException(new TaskRejectedException("queue full"))));
+
+        assertThat(status.getStatus().getCode()).isEqualTo(Status.Code.UNAVAILABLE);
+        assertThat(status.getTrailers().get(RETRY_AFTER))
+                .isEqualTo(String.valueOf(ServiceOverloadedException.RETRY_AFTER_SECONDS));
+    }
+
+    @Test
+    void otherErrorsHaveNoRetryAfter() {
+        StatusRuntimeException status = GrpcExceptionMapper.toStatusException(
+                new ResponseStatusException(HttpStatus.NOT_FOUND, "Пользователь не найден"));
+
+        assertThat(status.getStatus().getCode()).isEqualTo(Status.Code.NOT_FOUND);
+        assertThat(status.getTrailers().get(RETRY_AFTER)).isNull();
+    }
+}
@@ -0,0 +1,206 @@
+package com.keycloak.userservice.interceptor;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.CallOptions;
+import io.grpc.ClientInterceptors;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.MetadataUtils;
+import io.grpc.stub.ServerCalls;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Нагрузка на настоящий gRPC-сервер Netty через loopback: обработчики заняты, очередь пула заполняется
+ */
+class GrpcLoadSheddingInterceptorTest {
+
+    private static final Metadata.Key<String> RETRY_AFTER =
+            Metadata.Key.of("retry-after", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final MethodDescriptor<String, String> ECHO = MethodDescriptor.<String, String>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName("test.Echo/Echo")
+            .setRequestMarshaller(new StringMarshaller())
+            .setResponseMarshaller(new StringMarshaller())
+            .build();
+
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<>(20),
+                    GrpcLoadSheddingInterceptor.awaitQueueSlot());
+    private final ExecutorService shedExecutor = Executors.newSingleThreadExecutor();
+    private GrpcLoadSheddingInterceptor loadShedding;
+    private Server server;
+    private ManagedChannel channel;
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        release.countDown();
+        if (channel != null) {
+            channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        if (server != null) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        pool.shutdownNow();
+        shedExecutor.shutdownNow();
+    }
+
+    @Test
+    void callsBeyondPoolCapacityGetResourceExhaustedWhileWorkersAreBusy() throws Exception {
+        start(2 + 20);
+        int calls = 200;
+
+        List<ListenableFuture<String>> responses = new ArrayList<>();
+        for (int i = 0; i < calls; i++) {
+            responses.add(ClientCalls.futureUnaryCall(channel.newCall(ECHO, CallOptions.DEFAULT), "call-" + i));
+        }
+        // Отклоненные вызовы завершаются, пока оба обработчика еще заняты
+        awaitSettled(responses);
+        List<Status> rejected = new ArrayList<>();
+        List<ListenableFuture<String>> admitted = new ArrayList<>();
+        for (ListenableFuture<String> response : responses) {
+            if (response.isDone()) {
+                rejected.add(failureOf(response));
+            } else {
+                admitted.add(response);
+            }
+        }
+        release.countDown();
+        for (ListenableFuture<String> response : admitted) {
+            assertThat(response.get(10, TimeUnit.SECONDS)).startsWith("call-");
+        }
+        int succeeded = admitted.size();
+
+        assertThat(rejected).isNotEmpty()
+                .allSatisfy(status -> assertThat(status.getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED));
+        assertThat(succeeded).isEqualTo(2 + 20);
+        assertThat(rejected).hasSize(calls - succeeded);
+        awaitInFlight(0);
+    }
+
+    @Test
+    void rejectedCallCarriesRetryAfterAndNeverReachesPool() throws Exception {
+        start(0);
+
+        ListenableFuture<String> response = ClientCalls.futureUnaryCall(channel.newCall(ECHO, CallOptions.DEFAULT), "x");
+        awaitSettled(List.of(response));
+
+        assertThat(failureOf(response).getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+        assertThat(pool.getTaskCount()).isZero();
+    }
+
+    @Test
+    void clientCannotMarkOwnCallAsShed() throws Exception {
+        start(1);
+        release.countDown();
+        Metadata headers = new Metadata();
+        headers.put(Metadata.Key.of("x-internal-load-shed", Metadata.ASCII_STRING_MARSHALLER), "1");
+
+        String response = ClientCalls.blockingUnaryCall(
+                ClientInterceptors.intercept(channel, MetadataUtils.newAttachHeadersInterceptor(headers)),
+                ECHO, CallOptions.DEFAULT, "ok");
+
+        assertThat(response).isEqualTo("ok");
+    }
+
+    private void start(int maxCalls) throws IOException {
+        loadShedding = new GrpcLoadSheddingInterceptor(pool, shedExecutor, maxCalls);
+        ServerServiceDefinition echo = ServerServiceDefinition.builder("test.Echo")
+                .addMethod(ECHO, ServerCalls.asyncUnaryCall((request, observer) -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    observer.onNext(request);
+                    observer.onCompleted();
+                }))
+                .build();
+        server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .executor(MoreExecutors.directExecutor())
+                .addStreamTracerFactory(loadShedding)
+                .callExecutor(loadShedding)
+                .addService(echo)
+                .intercept(loadShedding)
+                .build()
+                .start();
+        channel = NettyChannelBuilder.forAddress("127.0.0.1", server.getPort()).usePlaintext().build();
+    }
+
+    /**
+     * Ждет, пока число завершенных вызовов перестанет расти
+     */
+    private static void awaitSettled(List<ListenableFuture<String>> responses) throws InterruptedException {
+        long previous = -1;
+        long done = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((done == 0 || done != previous) && System.nanoTime() < deadline) {
+            previous = done;
+            Thread.sleep(300);
+            done = responses.stream().filter(ListenableFuture::isDone).count();
+        }
+    }
+
+    private void awaitInFlight(int expected) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (loadShedding.inFlight() != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(loadShedding.inFlight()).isEqualTo(expected);
+    }
+
+    private static Status failureOf(ListenableFuture<String> response) throws InterruptedException {
+        try {
+            response.get();
+            throw new AssertionError("Вызов должен быть отклонен");
+        } catch (ExecutionException e) {
+            assertThat(Status.trailersFromThrowable(e.getCause()).get(RETRY_AFTER)).isEqualTo("1");
+            return Status.fromThrowable(e.getCause());
+        }
+    }
+
+    private static final class StringMarshaller implements MethodDescriptor.Marshaller<String> {
+
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            try {
+                return new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
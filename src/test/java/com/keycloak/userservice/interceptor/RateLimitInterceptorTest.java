@@ -0,0 +1,27 @@
+package com.keycloak.userservice.interceptor;
+
+import io.github.bucket4j.ConsumptionProbe;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitInterceptorTest {
+
+    @Test
+    void retryAfterRoundsUpToWholeSeconds() {
+        assertThat(RateLimitInterceptor.retryAfterSeconds(rejected(TimeUnit.MILLISECONDS.toNanos(1500)))).isEqualTo(2);
+        assertThat(RateLimitInterceptor.retryAfterSeconds(rejected(TimeUnit.SECONDS.toNanos(3)))).isEqualTo(3);
+    }
+
+    @Test
+    void retryAfterIsAtLeastOneSecond() {
+        assertThat(RateLimitInterceptor.retryAfterSeconds(rejected(0))).isEqualTo(1);
+        assertThat(RateLimitInterceptor.retryAfterSeconds(rejected(1))).isEqualTo(1);
+    }
+
+    private static ConsumptionProbe rejected(long nanosToWaitForRefill) {
+        return ConsumptionProbe.rejected(0, nanosToWaitForRefill, nanosToWaitForRefill);
+    }
+}
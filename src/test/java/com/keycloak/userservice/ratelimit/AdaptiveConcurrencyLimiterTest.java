@@ -0,0 +1,141 @@
+package com.keycloak.userservice.ratelimit;
+
+import jakarta.ws.rs.InternalServerErrorException;
+import jakarta.ws.rs.NotAuthorizedException;
+import jakarta.ws.rs.NotFoundException;
+import jakarta.ws.rs.ProcessingException;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(true, 20, 5, 200, 2.0, 0.9, 0.05);
+
+    @Test
+    void slowSampleReducesLimit() {
+        limiter.update(ms(10), false, 1);
+        limiter.update(ms(50), false, 1);
+
+        assertThat(limiter.getLimit()).isEqualTo(18);
+    }
+
+    @Test
+    void limitRecoversAfterSustainedLatencyIncrease() {
+        limiter.update(ms(1), false, 1);
+        for (int i = 0; i < 200; i++) {
+            limiter.update(ms(5), false, limiter.getLimit());
+        }
+
+        assertThat(limiter.getLimit()).isGreaterThan(20);
+    }
+
+    @Test
+    void droppedCallsDoNotMoveBaseline() {
+        limiter.update(ms(10), false, 1);
+        for (int i = 0; i < 100; i++) {
+            limiter.update(ms(1000), true, 1);
+        }
+        assertThat(limiter.getLimit()).isEqualTo(5);
+
+        // С базовой 10 мс замер 100 мс остается медленным и лимит не растет
+        limiter.update(ms(100), false, 5);
+
+        assertThat(limiter.getLimit()).isEqualTo(5);
+    }
+
+    @Test
+    void lockWaitBeforeTimedSectionIsNotMeasured() {
+        limiter.update(ms(100), false, 1);
+
+        String result = limiter.executeTimed(permit -> {
+            sleep(250);
+            return permit.timed(() -> "ok").get();
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    @Test
+    void untimedCallIsMeasuredFromPermit() {
+        limiter.update(ms(100), false, 1);
+
+        limiter.execute(() -> sleep(250));
+
+        assertThat(limiter.getLimit()).isEqualTo(18);
+    }
+
+    @Test
+    void keycloakNotFoundDoesNotReduceLimit() {
+        // Базовая задержка с запасом: пауза GC на одном из вызовов не должна выглядеть как медленный замер
+        limiter.update(ms(100), false, 1);
+        for (int i = 0; i < 10; i++) {
+            assertThatThrownBy(() -> limiter.execute(() -> {
+                throw new NotFoundException();
+            })).isInstanceOf(NotFoundException.class);
+        }
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+    }
+
+    @Test
+    void keycloakServerErrorWrappedInUnauthorizedReducesLimit() {
+        assertThatThrownBy(() -> limiter.execute(() -> {
+            try {
+                throw new InternalServerErrorException();
+            } catch (RuntimeException e) {
+                throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Неверные учетные данные", e);
+            }
+        })).isInstanceOf(ResponseStatusException.class);
+
+        assertThat(limiter.getLimit()).isEqualTo(18);
+    }
+
+    @Test
+    void wrongPasswordWrappedInUnauthorizedDoesNotReduceLimit() {
+        assertThat(AdaptiveConcurrencyLimiter.isDropped(new ResponseStatusException(HttpStatus.UNAUTHORIZED,
+                "Неверные учетные данные", new NotAuthorizedException("Bearer")))).isFalse();
+    }
+
+    @Test
+    void connectionFailuresAndGatewayErrorsAreDrops() {
+        assertThat(AdaptiveConcurrencyLimiter.isDropped(new ProcessingException(new SocketTimeoutException()))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isDropped(new CompletionException(new TimeoutException()))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isDropped(new ResponseStatusException(HttpStatus.UNAUTHORIZED,
+                "Неверные учетные данные", new ResponseStatusException(HttpStatus.BAD_GATEWAY)))).isTrue();
+        assertThat(AdaptiveConcurrencyLimiter.isDropped(new CompletionException(
+                new ResponseStatusException(HttpStatus.CONFLICT)))).isFalse();
+    }
+
+    @Test
+    void asyncNotFoundDoesNotReduceLimit() {
+        limiter.update(ms(100), false, 1);
+        limiter.executeAsync(() -> CompletableFuture.failedFuture(new NotFoundException()));
+
+        assertThat(limiter.getLimit()).isEqualTo(20);
+        assertThat(limiter.getInFlight()).isZero();
+    }
+
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.keycloak.userservice.ratelimit;
+
+import io.github.bucket4j.Bandwidth;
+import io.github.bucket4j.Bucket;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RateLimitBucketStoreTest {
+
+    private static final Duration WINDOW = Duration.ofSeconds(60);
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Test
+    void millionsOfDistinctKeysStayWithinMaxBuckets() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        long heapBefore = memory.getHeapMemoryUsage().getUsed();
+        RateLimitBucketStore store = store(100_000);
+
+        for (int i = 0; i < 2_000_000; i++) {
+            store.resolveBucket("10." + (i >>> 16) + "." + ((i >>> 8) & 0xFF) + "." + (i & 0xFF)).tryConsume(1);
+        }
+        store.cleanUp();
+        System.gc();
+        long retained = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+
+        assertThat(store.estimatedSize()).isLessThanOrEqualTo(100_000);
+        // Несвязанная карта удерживала бы 2 млн бакетов — около гигабайта; 100 тыс. бакетов — десятки мегабайт
+        assertThat(retained).isLessThan(200L * 1024 * 1024);
+    }
+
+    @Test
+    void activeKeySurvivesScanOfOneOffKeys() {
+        RateLimitBucketStore store = store(1_000);
+        Bucket hot = store.resolveBucket("api-key");
+
+        for (int i = 0; i < 100_000; i++) {
+            store.resolveBucket("scan-" + i);
+            if (i % 100 == 0) {
+                store.resolveBucket("api-key").tryConsume(1);
+            }
+        }
+        store.cleanUp();
+
+        // Перебор адресов не сбрасывает лимит активного клиента
+        assertThat(store.resolveBucket("api-key")).isSameAs(hot);
+    }
+
+    @Test
+    void idleBucketExpiresAfterIdleExpiry() {
+        RateLimitBucketStore store = store(1_000);
+        Bucket bucket = store.resolveBucket("10.0.0.1");
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        assertThat(store.resolveBucket("10.0.0.1")).isSameAs(bucket);
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        store.cleanUp();
+        assertThat(store.estimatedSize()).isZero();
+    }
+
+    private RateLimitBucketStore store(long maxBuckets) {
+        return new RateLimitBucketStore(key -> Bucket.builder()
+                .addLimit(Bandwidth.builder().capacity(100).refillGreedy(100, WINDOW).build())
+                .build(), maxBuckets, WINDOW, nanos::get);
+    }
+}
@@ -0,0 +1,55 @@
+package com.keycloak.userservice.ratelimit;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ServiceOverloadedExceptionTest {
+
+    private final MockMvc mockMvc = MockMvcBuilders.standaloneSetup(new OverloadedController()).build();
+
+    @Test
+    void overloadIsServiceUnavailableWithRetryAfter() throws Exception {
+        mockMvc.perform(get("/sync"))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().string("Retry-After", String.valueOf(ServiceOverloadedException.RETRY_AFTER_SECONDS)));
+    }
+
+    @Test
+    void overloadFromAsyncResultIsServiceUnavailableWithRetryAfter() throws Exception {
+        var result = mockMvc.perform(get("/async"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists("Retry-After"));
+    }
+
+    @RestController
+    static class OverloadedController {
+
+        @GetMapping("/sync")
+        String sync() {
+            throw new ServiceOverloadedException();
+        }
+
+        @GetMapping("/async")
+        CompletableFuture<String> async() {
+            return CompletableFuture.completedFuture("user")
+                    .thenCompose(user -> {
+                        throw new ServiceOverloadedException();
+                    });
+        }
+    }
+}
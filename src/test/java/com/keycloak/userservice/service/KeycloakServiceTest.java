@@ -0,0 +1,37 @@
+package com.keycloak.userservice.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeycloakServiceTest {
+
+    @Test
+    void batchIdsAreDeduplicatedInOrder() {
+        assertThat(KeycloakService.uniqueBatchIds(List.of("b", "a", "b"), 10)).containsExactly("b", "a");
+    }
+
+    @Test
+    void nullOrBlankBatchIdIsBadRequest() {
+        assertThatThrownBy(() -> KeycloakService.uniqueBatchIds(Arrays.asList("a", null), 10))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> KeycloakService.uniqueBatchIds(List.of("a", " "), 10))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void tooManyUniqueBatchIdsIsBadRequest() {
+        assertThat(KeycloakService.uniqueBatchIds(List.of("a", "a", "b"), 2)).hasSize(2);
+        assertThatThrownBy(() -> KeycloakService.uniqueBatchIds(List.of("a", "b", "c"), 2))
+                .isInstanceOfSatisfying(ResponseStatusException.class,
+                        e -> assertThat(e.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}
@@ -0,0 +1,127 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.event.UserEventType;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RTopic;
+import org.redisson.api.RedissonClient;
+import org.redisson.client.codec.Codec;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+class LoginThrottleServiceTest {
+
+    private static final long WINDOW = 1000;
+
+    @Test
+    void countsFailuresInCurrentWindow() {
+        LoginThrottleService.FailureWindow window = new LoginThrottleService.FailureWindow();
+        window.recordLocalFailure(10_000, WINDOW);
+        window.recordLocalFailure(10_100, WINDOW);
+
+        assertThat(window.estimate(10_200, WINDOW)).isEqualTo(2.0);
+    }
+
+    @Test
+    void previousWindowIsWeightedByRemainingOverlap() {
+        LoginThrottleService.FailureWindow window = new LoginThrottleService.FailureWindow();
+        for (int i = 0; i < 4; i++) {
+            window.recordLocalFailure(10_500, WINDOW);
+        }
+        window.recordLocalFailure(11_250, WINDOW);
+
+        // 1 в текущем окне + 4 * (1 - 0.25) из предыдущего
+        assertThat(window.estimate(11_250, WINDOW)).isCloseTo(4.0, within(1e-9));
+    }
+
+    @Test
+    void failuresOlderThanTwoWindowsAreForgotten() {
+        LoginThrottleService.FailureWindow window = new LoginThrottleService.FailureWindow();
+        window.recordLocalFailure(10_000, WINDOW);
+
+        assertThat(window.estimate(12_000, WINDOW)).isZero();
+    }
+
+    @Test
+    void clusterCountRaisesCurrentWindowOnly() {
+        LoginThrottleService.FailureWindow window = new LoginThrottleService.FailureWindow();
+        window.recordLocalFailure(10_000, WINDOW);
+
+        window.mergeClusterCount(10, 7, 10_000, WINDOW);
+        assertThat(window.estimate(10_000, WINDOW)).isEqualTo(7.0);
+
+        // Ответ Redis для уже прошедшего окна не переносится в новое
+        window.mergeClusterCount(10, 9, 11_000, WINDOW);
+        assertThat(window.estimate(11_000, WINDOW)).isEqualTo(7.0);
+    }
+
+    @Test
+    void blockOnlyExtends() {
+        LoginThrottleService.FailureWindow window = new LoginThrottleService.FailureWindow();
+
+        assertThat(window.blockUntil(5_000)).isTrue();
+        assertThat(window.blockUntil(4_000)).isFalse();
+        assertThat(window.blockUntil(5_000)).isFalse();
+        assertThat(window.blockUntil(6_000)).isTrue();
+    }
+
+    @Test
+    void failedLoginsAreReportedAsOneEventPerUserAndReason() {
+        UserEventService events = mock(UserEventService.class);
+        LoginThrottleService throttle = service(events);
+        for (int i = 0; i < 3; i++) {
+            throttle.reportFailedLogin("alice", "HTTP 401 Unauthorized");
+        }
+        throttle.reportFailedLogin("alice", "Keycloak unavailable");
+
+        throttle.reportRejectedAttempts();
+        throttle.reportRejectedAttempts();
+
+        verify(events).sendUserEvent(UserEventType.USER_LOGIN_FAILED, "alice",
+                Map.of("reason", "HTTP 401 Unauthorized", "failedAttempts", 3L));
+        verify(events).sendUserEvent(UserEventType.USER_LOGIN_FAILED, "alice",
+                Map.of("reason", "Keycloak unavailable", "failedAttempts", 1L));
+        verifyNoMoreInteractions(events);
+    }
+
+    @Test
+    void malformedRemoteBlockIsIgnored() {
+        LoginThrottleService throttle = service(mock(UserEventService.class));
+
+        assertThatCode(() -> {
+            throttle.onRemoteBlock("user:alice|not-a-number");
+            throttle.onRemoteBlock("user:alice");
+            throttle.onRemoteBlock("|123");
+            throttle.onRemoteBlock("other:alice|" + Long.MAX_VALUE);
+            throttle.onRemoteBlock(null);
+        }).doesNotThrowAnyException();
+
+        throttle.checkAllowed("alice", "10.0.0.1");
+    }
+
+    @Test
+    void remoteBlockRejectsLocalAttempts() {
+        LoginThrottleService throttle = service(mock(UserEventService.class));
+
+        throttle.onRemoteBlock("user:alice|" + (System.currentTimeMillis() + 60_000));
+
+        assertThatThrownBy(() -> throttle.checkAllowed("Alice", "10.0.0.1")).isInstanceOf(ResponseStatusException.class);
+    }
+
+    private static LoginThrottleService service(UserEventService events) {
+        RedissonClient redisson = mock(RedissonClient.class);
+        when(redisson.getTopic(anyString(), any(Codec.class))).thenReturn(mock(RTopic.class));
+        return new LoginThrottleService(redisson, events, true, 5, 300, 1, 900, 1000);
+    }
+}
@@ -0,0 +1,44 @@
+package com.keycloak.userservice.service;
+
+import com.keycloak.userservice.config.InternedAuthoritiesConverter;
+import com.keycloak.userservice.dto.TokenValidationDTO;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TokenValidationServiceTest {
+
+    private final JwtDecoder jwtDecoder = mock(JwtDecoder.class);
+    private final TokenValidationService service = new TokenValidationService(jwtDecoder, "", 100);
+
+    @Test
+    void delimitedRolesMatchAuthoritiesOfTheSameToken() {
+        Jwt jwt = token(Map.of("roles", "user admin"));
+        when(jwtDecoder.decode("t")).thenReturn(jwt);
+
+        TokenValidationDTO result = service.validate("t", null);
+
+        assertThat(result.roles).containsExactly("user", "admin");
+        assertThat(AuthorityUtils.authorityListToSet(new InternedAuthoritiesConverter().convert(jwt)))
+                .containsExactlyInAnyOrderElementsOf(result.roles.stream().map(role -> "ROLE_" + role).toList());
+    }
+
+    @Test
+    void realmAccessRolesAreUsedWithoutRolesClaim() {
+        when(jwtDecoder.decode("t")).thenReturn(token(Map.of("realm_access", Map.of("roles", List.of("user")))));
+
+        assertThat(service.validate("t", null).roles).containsExactly("user");
+    }
+
+    private static Jwt token(Map<String, Object> claims) {
+        return Jwt.withTokenValue("t").header("alg", "none").subject("1").claims(c -> c.putAll(claims)).build();
+    }
+}
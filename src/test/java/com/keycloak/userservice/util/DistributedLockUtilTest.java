@@ -0,0 +1,134 @@
+package com.keycloak.userservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Tracer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class DistributedLockUtilTest {
+
+    private static final int CALLERS = 16;
+
+    private final LockMetrics lockMetrics = new LockMetrics(new SimpleMeterRegistry(), 5000, 1, 100);
+    private final RedissonClient redisson = mock(RedissonClient.class);
+    private final Map<String, FakeRedisLock> redisLocks = new ConcurrentHashMap<>();
+    private final DistributedLockUtil lockUtil = new DistributedLockUtil(redisson, lockMetrics,
+            new DefaultListableBeanFactory().getBeanProvider(Tracer.class));
+    private final ExecutorService callers = Executors.newFixedThreadPool(CALLERS);
+
+    DistributedLockUtilTest() {
+        when(redisson.getLock(anyString())).thenAnswer(invocation ->
+                redisLocks.computeIfAbsent(invocation.getArgument(0), key -> new FakeRedisLock()).mock);
+    }
+
+    @AfterEach
+    void shutdown() {
+        callers.shutdownNow();
+        lockMetrics.shutdown();
+    }
+
+    @Test
+    void sameKeyCallersReachRedissonOneAtATime() throws Exception {
+        runConcurrently(i -> "lock:get-user:1");
+
+        FakeRedisLock redisLock = redisLocks.get("lock:get-user:1");
+        // Без локальной блокировки все 16 потоков ждали бы в tryLock одновременно, каждый со своей
+        // подпиской и повторными попытками в Redis
+        assertThat(redisLock.maxWaiting.get()).isEqualTo(1);
+        verify(redisLock.mock, times(CALLERS)).tryLock(anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(redisLock.mock, times(CALLERS)).unlock();
+    }
+
+    @Test
+    void differentKeysAreNotSerializedLocally() throws Exception {
+        runConcurrently(i -> "lock:get-user:" + i);
+
+        assertThat(redisLocks).hasSize(CALLERS);
+        for (FakeRedisLock redisLock : redisLocks.values()) {
+            verify(redisLock.mock, times(1)).tryLock(anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+        }
+    }
+
+    private void runConcurrently(IntFunction<String> keys) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < CALLERS; i++) {
+            String key = keys.apply(i);
+            results.add(callers.submit(() -> {
+                start.await();
+                return lockUtil.executeWithLock(key, () -> {
+                    sleep(5);
+                    return "ok";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertThat(result.get(10, TimeUnit.SECONDS)).isEqualTo("ok");
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Блокировка Redisson с подсчетом потоков, одновременно ожидающих в tryLock
+     */
+    private static final class FakeRedisLock {
+
+        final RLock mock = mock(RLock.class);
+        final Semaphore held = new Semaphore(1);
+        final AtomicInteger waiting = new AtomicInteger();
+        final AtomicInteger maxWaiting = new AtomicInteger();
+
+        FakeRedisLock() {
+            try {
+                when(mock.tryLock(anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS))).thenAnswer(invocation -> {
+                    maxWaiting.accumulateAndGet(waiting.incrementAndGet(), Math::max);
+                    try {
+                        return held.tryAcquire(invocation.getArgument(0), TimeUnit.MILLISECONDS);
+                    } finally {
+                        waiting.decrementAndGet();
+                    }
+                });
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+            doAnswer(invocation -> {
+                held.release();
+                return null;
+            }).when(mock).unlock();
+        }
+    }
+}
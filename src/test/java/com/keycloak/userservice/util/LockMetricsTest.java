@@ -0,0 +1,46 @@
+package com.keycloak.userservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LockMetricsTest {
+
+    private final LockMetrics lockMetrics = new LockMetrics(new SimpleMeterRegistry(), 5000, 1, 100);
+
+    @AfterEach
+    void shutdown() {
+        lockMetrics.shutdown();
+    }
+
+    @Test
+    void prefixKeepsFirstTwoSegments() {
+        assertThat(LockMetrics.prefix("lock:login:alice")).isEqualTo("lock:login:");
+        assertThat(LockMetrics.prefix("lock:login:a:b")).isEqualTo("lock:login:");
+        assertThat(LockMetrics.prefix("lock:get-all-users")).isEqualTo("lock:get-all-users");
+    }
+
+    @Test
+    void redactHashesSuffixDeterministically() {
+        String redacted = LockMetrics.redact("lock:login:alice");
+
+        assertThat(redacted).startsWith("lock:login:").doesNotContain("alice").hasSize("lock:login:".length() + 16);
+        assertThat(LockMetrics.redact("lock:login:alice")).isEqualTo(redacted);
+        assertThat(LockMetrics.redact("lock:login:bob")).isNotEqualTo(redacted);
+        assertThat(LockMetrics.redact("lock:get-all-users")).isEqualTo("lock:get-all-users");
+    }
+
+    @Test
+    void hotKeysDoNotExposeKeySuffix() {
+        lockMetrics.recordAcquired("lock:login:alice", 1000);
+        lockMetrics.recordAcquired("lock:login:alice", 1000);
+        lockMetrics.recordAcquired("lock:get-user:42", 1000);
+
+        assertThat(lockMetrics.hotKeys(10))
+                .containsEntry(LockMetrics.redact("lock:login:alice"), 2L)
+                .containsEntry(LockMetrics.redact("lock:get-user:42"), 1L)
+                .allSatisfy((key, count) -> assertThat(key).doesNotContain("alice", "42"));
+    }
+}
@@ -0,0 +1,139 @@
+package com.keycloak.userservice.util;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.tracing.Span;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.otel.bridge.OtelCurrentTraceContext;
+import io.micrometer.tracing.otel.bridge.OtelTracer;
+import io.opentelemetry.api.trace.SpanKind;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.samplers.Sampler;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class OutboundMetricsTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final OutboundMetrics metrics = new OutboundMetrics(registry,
+            new DefaultListableBeanFactory().getBeanProvider(Tracer.class));
+
+    @Test
+    void recordsLatencyByOutcome() {
+        metrics.record(OutboundMetrics.KEYCLOAK, "users.get", () -> "ok");
+        fail("users.get", new ResponseStatusException(HttpStatus.NOT_FOUND));
+
+        assertThat(registry.get("outbound.calls").tag("operation", "users.get").tag("outcome", "success").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("outbound.calls").tag("operation", "users.get").tag("outcome", "client_error").timer().count())
+                .isEqualTo(1);
+        assertThat(registry.get("outbound.calls.active").gauge().value()).isZero();
+    }
+
+    @Test
+    void errorCounterIsRegisteredOncePerExceptionType() {
+        fail("users.get", new IllegalStateException());
+        fail("users.get", new IllegalStateException());
+        fail("users.get", new IllegalArgumentException());
+
+        assertThat(registry.find("outbound.call.errors").counters()).hasSize(2);
+        assertThat(registry.get("outbound.call.errors").tag("exception", "IllegalStateException").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void callSpanIsChildOfCurrentSpanAndParentOfNestedCalls() {
+        RecordingTracer tracing = new RecordingTracer();
+        OutboundMetrics traced = tracedMetrics(tracing);
+
+        Span request = tracing.tracer().nextSpan().name("request").start();
+        try (Tracer.SpanInScope ignored = tracing.tracer().withSpan(request)) {
+            traced.record(OutboundMetrics.KEYCLOAK, "users.get",
+                    () -> traced.record(OutboundMetrics.KEYCLOAK, "roles.get", () -> "ok"));
+        } finally {
+            request.end();
+        }
+
+        SpanData parent = tracing.span("request");
+        SpanData call = tracing.span(OutboundMetrics.KEYCLOAK + " users.get");
+        SpanData nested = tracing.span(OutboundMetrics.KEYCLOAK + " roles.get");
+        assertThat(call.getParentSpanId()).isEqualTo(parent.getSpanId());
+        assertThat(nested.getParentSpanId()).isEqualTo(call.getSpanId());
+        assertThat(call.getTraceId()).isEqualTo(parent.getTraceId());
+        assertThat(call.getKind()).isEqualTo(SpanKind.CLIENT);
+        assertThat(call.getAttributes().asMap()).containsValue("success");
+    }
+
+    @Test
+    void asyncCallSpanEndsWithFutureAndRecordsError() {
+        RecordingTracer tracing = new RecordingTracer();
+        OutboundMetrics traced = tracedMetrics(tracing);
+        CompletableFuture<Object> sent = new CompletableFuture<>();
+
+        traced.recordAsync(OutboundMetrics.KAFKA, "send", () -> sent);
+        assertThat(tracing.finishedSpans()).isEmpty();
+        sent.completeExceptionally(new IllegalStateException("broker down"));
+
+        SpanData span = tracing.span(OutboundMetrics.KAFKA + " send");
+        assertThat(span.getKind()).isEqualTo(SpanKind.PRODUCER);
+        assertThat(span.getStatus().getStatusCode()).isEqualTo(StatusCode.ERROR);
+        assertThat(span.getParentSpanContext().isValid()).isFalse();
+    }
+
+    @Test
+    void perCallAllocationStaysWithinDocumentedBounds() {
+        com.sun.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                ? bean : null;
+        assumeTrue(threads != null && threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        // Запрос не попал в выборку: спан создается, но не записывается
+        Tracer unsampled = new OtelTracer(SdkTracerProvider.builder().setSampler(Sampler.alwaysOff()).build().get("test"),
+                new OtelCurrentTraceContext(), event -> {
+        });
+
+        assertThat(allocatedPerCall(threads, metrics)).isLessThan(256);
+        assertThat(allocatedPerCall(threads, tracedMetrics(unsampled))).isLessThan(2048);
+    }
+
+    private static long allocatedPerCall(com.sun.management.ThreadMXBean threads, OutboundMetrics measured) {
+        int iterations = 20_000;
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += measured.record(OutboundMetrics.KEYCLOAK, "users.get", () -> "ok").length();
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            sink += measured.record(OutboundMetrics.KEYCLOAK, "users.get", () -> "ok").length();
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertThat(sink).isPositive();
+        return allocated / iterations;
+    }
+
+    private static OutboundMetrics tracedMetrics(RecordingTracer tracing) {
+        return tracedMetrics(tracing.tracer());
+    }
+
+    private static OutboundMetrics tracedMetrics(Tracer tracer) {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        beanFactory.registerSingleton("tracer", tracer);
+        return new OutboundMetrics(new SimpleMeterRegistry(), beanFactory.getBeanProvider(Tracer.class));
+    }
+
+    private void fail(String operation, RuntimeException error) {
+        assertThatThrownBy(() -> metrics.record(OutboundMetrics.KEYCLOAK, operation, () -> {
+            throw error;
+        })).isSameAs(error);
+    }
+}
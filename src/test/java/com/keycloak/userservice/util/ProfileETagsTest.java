@@ -0,0 +1,108 @@
+package com.keycloak.userservice.util;
+
+import com.keycloak.userservice.dto.KeycloakUserDTO;
+import com.keycloak.userservice.grpc.UserProfileMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ProfileETagsTest {
+
+    private static final String TAG = "\"abc\"";
+
+    @Test
+    void missingHeaderOrProfileNeverMatches() {
+        assertThat(ProfileETags.matches(null, TAG)).isFalse();
+        assertThat(ProfileETags.matches(TAG, null)).isFalse();
+        assertThat(ProfileETags.matches("*", null)).isFalse();
+    }
+
+    @Test
+    void exactTagMatches() {
+        assertThat(ProfileETags.matches(TAG, TAG)).isTrue();
+        assertThat(ProfileETags.matches("\"abd\"", TAG)).isFalse();
+    }
+
+    @Test
+    void weakComparisonIgnoresWeakPrefix() {
+        assertThat(ProfileETags.matches("W/\"abc\"", TAG)).isTrue();
+    }
+
+    @Test
+    void anyTagInListMatches() {
+        assertThat(ProfileETags.matches("\"x\", W/\"y\" ,\"abc\"", TAG)).isTrue();
+        assertThat(ProfileETags.matches("\"x\", \"y\"", TAG)).isFalse();
+    }
+
+    @Test
+    void wildcardMatchesExistingProfileOnly() {
+        assertThat(ProfileETags.matches("*", TAG)).isTrue();
+    }
+
+    @Test
+    void unquotedTagDoesNotMatch() {
+        assertThat(ProfileETags.matches("abc", TAG)).isFalse();
+    }
+
+    @Test
+    void eTagIgnoresVersionAndDependsOnContent() {
+        KeycloakUserDTO user = user("Анна");
+        String eTag = ProfileETags.of(user);
+
+        user.setVersion(42L);
+        assertThat(ProfileETags.of(user)).isEqualTo(eTag);
+        assertThat(ProfileETags.of(user("Мария"))).isNotEqualTo(eTag);
+        assertThat(eTag).startsWith("\"").endsWith("\"");
+    }
+
+    @Test
+    void eTagIsStableAcrossCacheRoundTripAndAttributeOrder() {
+        KeycloakUserDTO user = user("Анна");
+        Map<String, List<String>> reordered = new LinkedHashMap<>();
+        reordered.put("b", List.of("2"));
+        reordered.put("a", List.of("1"));
+        KeycloakUserDTO sameContent = user("Анна");
+        sameContent.setAttributes(reordered);
+
+        assertThat(ProfileETags.of(sameContent)).isEqualTo(ProfileETags.of(user));
+        assertThat(ProfileETags.of(UserProfileMapper.fromProto(UserProfileMapper.toProto(user))))
+                .isEqualTo(ProfileETags.of(user));
+    }
+
+    @Test
+    void respondReturnsNotModifiedForMatchingTag() {
+        KeycloakUserDTO user = user("Анна");
+        String eTag = ProfileETags.of(user);
+
+        ResponseEntity<KeycloakUserDTO> notModified = ProfileETags.respond(eTag, user);
+        assertThat(notModified.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(notModified.getBody()).isNull();
+        assertThat(notModified.getHeaders().getETag()).isEqualTo(eTag);
+
+        ResponseEntity<KeycloakUserDTO> ok = ProfileETags.respond("\"stale\"", user);
+        assertThat(ok.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(ok.getBody()).isSameAs(user);
+        assertThat(ok.getHeaders().getETag()).isEqualTo(eTag);
+    }
+
+    private static KeycloakUserDTO user(String firstName) {
+        KeycloakUserDTO user = new KeycloakUserDTO();
+        user.setId("user-1");
+        user.setUsername("anna");
+        user.setEmail("anna@example.com");
+        user.setFirstName(firstName);
+        user.setEnabled(true);
+        user.setRoles(List.of("user"));
+        Map<String, List<String>> attributes = new LinkedHashMap<>();
+        attributes.put("a", List.of("1"));
+        attributes.put("b", List.of("2"));
+        user.setAttributes(attributes);
+        return user;
+    }
+}
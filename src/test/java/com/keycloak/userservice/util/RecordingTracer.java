@@ -0,0 +1,74 @@
+package com.keycloak.userservice.util;
+
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.tracing.Tracer;
+import io.micrometer.tracing.handler.DefaultTracingObservationHandler;
+import io.micrometer.tracing.otel.bridge.OtelCurrentTraceContext;
+import io.micrometer.tracing.otel.bridge.OtelTracer;
+import io.opentelemetry.sdk.common.CompletableResultCode;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import io.opentelemetry.sdk.trace.export.SimpleSpanProcessor;
+import io.opentelemetry.sdk.trace.export.SpanExporter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Трассировщик OpenTelemetry с записью завершенных спанов в память, как в приложении через мост Micrometer
+ */
+public final class RecordingTracer {
+
+    private final List<SpanData> finishedSpans = new CopyOnWriteArrayList<>();
+    private final Tracer tracer;
+    private final ObservationRegistry observationRegistry = ObservationRegistry.create();
+
+    public RecordingTracer() {
+        SpanExporter exporter = new SpanExporter() {
+            @Override
+            public CompletableResultCode export(Collection<SpanData> spans) {
+                finishedSpans.addAll(spans);
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode flush() {
+                return CompletableResultCode.ofSuccess();
+            }
+
+            @Override
+            public CompletableResultCode shutdown() {
+                return CompletableResultCode.ofSuccess();
+            }
+        };
+        SdkTracerProvider provider = SdkTracerProvider.builder()
+                .addSpanProcessor(SimpleSpanProcessor.create(exporter))
+                .build();
+        this.tracer = new OtelTracer(provider.get("test"), new OtelCurrentTraceContext(), event -> {
+        });
+        observationRegistry.observationConfig().observationHandler(new DefaultTracingObservationHandler(tracer));
+    }
+
+    public Tracer tracer() {
+        return tracer;
+    }
+
+    /**
+     * Реестр наблюдений, спаны которых создает этот трассировщик, как у входящих HTTP-запросов
+     */
+    public ObservationRegistry observationRegistry() {
+        return observationRegistry;
+    }
+
+    public List<SpanData> finishedSpans() {
+        return finishedSpans;
+    }
+
+    public SpanData span(String name) {
+        return finishedSpans.stream()
+                .filter(span -> span.getName().equals(name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Нет спана " + name + " среди " + finishedSpans));
+    }
+}
@@ -0,0 +1,29 @@
+package com.keycloak.userservice.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RoleClaimsTest {
+
+    @Test
+    void spaceDelimitedStringIsSplitOnSpacesOnly() {
+        assertThat(RoleClaims.parse("user  admin")).containsExactly("user", "admin");
+        assertThat(RoleClaims.parse("user,admin")).containsExactly("user,admin");
+    }
+
+    @Test
+    void arrayElementsAreKeptAsIs() {
+        assertThat(RoleClaims.parse(List.of("user", "admin"))).containsExactly("user", "admin");
+    }
+
+    @Test
+    void missingOrUnexpectedClaimGivesNoRoles() {
+        assertThat(RoleClaims.parse(null)).isEmpty();
+        assertThat(RoleClaims.parse(" ")).isEmpty();
+        assertThat(RoleClaims.parse(Map.of("roles", "user"))).isEmpty();
+    }
+}